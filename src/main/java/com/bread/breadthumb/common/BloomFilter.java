@@ -0,0 +1,112 @@
+package com.bread.breadthumb.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 布隆过滤器（线程安全版本），元素为两个long组成的键，如 (userId, blogId)
+ * 位数组为AtomicLongArray，写入只会置位，查询不加锁
+ * 位偏移的计算（双重哈希）为静态方法，redis中的布隆过滤器（ThumbBloomFilter）使用相同的计算
+ */
+public class BloomFilter {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+    private final long capacity;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计的元素数（容量）
+     * @param fpp 元素数达到容量时的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        this.capacity = Math.max(expectedInsertions, 1);
+        // AtomicLongArray的长度为int
+        this.bits = Math.min(optimalBits(capacity, fpp), (long) Integer.MAX_VALUE * Long.SIZE);
+        this.hashes = optimalHashes(capacity, bits);
+        this.words = new AtomicLongArray((int) ((bits + Long.SIZE - 1) / Long.SIZE));
+    }
+
+    public void put(long a, long b) {
+        for (long offset : offsets(a, b, bits, hashes)) {
+            long mask = 1L << offset;
+            int index = (int) (offset >>> 6);
+            if ((words.get(index) & mask) == 0) {
+                words.getAndAccumulate(index, mask, (word, bit) -> word | bit);
+            }
+        }
+        insertions.increment();
+    }
+
+    /**
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(long a, long b) {
+        for (long offset : offsets(a, b, bits, hashes)) {
+            if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 写入次数，重复写入同一个元素也计数
+     */
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * 按当前写入次数估算的误判率
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-hashes * (double) getInsertions() / bits), hashes);
+    }
+
+    /**
+     * 位数 m = -n * ln(p) / (ln2)^2
+     */
+    public static long optimalBits(long expectedInsertions, double fpp) {
+        double ln2 = Math.log(2);
+        return Math.max((long) Math.ceil(-expectedInsertions * Math.log(fpp) / (ln2 * ln2)), Long.SIZE);
+    }
+
+    /**
+     * 哈希函数个数 k = m / n * ln2
+     */
+    public static int optimalHashes(long expectedInsertions, long bits) {
+        return Math.max((int) Math.round((double) bits / Math.max(expectedInsertions, 1) * Math.log(2)), 1);
+    }
+
+    /**
+     * 双重哈希：第i个位为 h1 + i * h2 对位数取模
+     */
+    public static long[] offsets(long a, long b, long bits, int hashes) {
+        long h1 = mix64(mix64(a) ^ b);
+        long h2 = mix64(h1 ^ GOLDEN_GAMMA) | 1;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        return offsets;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.bread.breadthumb.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶（GCRA算法实现）
+ * 只用一个AtomicLong记录理论到达时间TAT：每个请求使TAT后移一个发放间隔，TAT超前当前时间不超过桶容量对应的时间时允许通过。
+ * 与按时间补充令牌的实现等价，但不需要同时更新令牌数和补充时间两个变量，CAS一次完成。
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;  // 发放一个令牌的间隔
+    private final long burstNanos;     // 桶容量对应的时间，TAT最多超前当前时间这么多
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param permitsPerSecond 每秒发放的令牌数
+     * @param burst 桶容量，允许的突发请求数
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = intervalNanos * Math.max(burst - 1, 0);
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试获取一个令牌（线程安全，无锁）
+     * @return 是否获取成功
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long start = Math.max(tat, now);
+            if (start - now > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取多个令牌，不足时阻塞等待。先预约（TAT后移permits个间隔）再睡眠，并发的调用按预约的顺序通过
+     * @param permits 令牌数，可以大于桶容量
+     */
+    public void acquire(int permits) throws InterruptedException {
+        if (permits <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long waitNanos;
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long newTat = Math.max(tat, now) + intervalNanos * permits;
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                // 最后一个令牌的发放时间（newTat - intervalNanos）超前当前时间不超过桶容量对应的时间
+                waitNanos = newTat - intervalNanos - burstNanos - now;
+                break;
+            }
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+}
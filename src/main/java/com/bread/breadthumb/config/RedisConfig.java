@@ -1,12 +1,19 @@
 package com.bread.breadthumb.config;
 
+import com.bread.breadthumb.util.RedisKeyUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
@@ -14,14 +21,57 @@ import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
+@Slf4j
 public class RedisConfig {
 
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Value("${thumb.redis.cluster.enabled:false}")
+    private boolean clusterEnabled;
+    @Value("${thumb.user-index.tier.enabled:false}")
+    private boolean tierEnabled;
+    @Value("${thumb.counter.sharding.enabled:false}")
+    private boolean shardingEnabled;
+    @Value("${thumb.user-index.migration.enabled:false}")
+    private boolean migrationEnabled;
+
+    /**
+     * 集群模式（thumb.redis.cluster.enabled）：连接spring.data.redis.cluster配置的Redis Cluster，
+     * key使用hash tag（见RedisKeyUtil），点赞脚本只访问用户点赞索引所在的slot，blog的点赞数由单独的脚本在blog所在的slot更新；
+     * 管道中的脚本按节点分组执行，批量写入blog每个blog一次脚本调用。
+     * key的格式在创建bean之前由RedisKeyLayoutInitializer根据同一个配置确定，这里只校验。
+     * 以下功能使用全局的key或SCAN，不支持集群模式，同时开启时启动失败：冷热分层（thumb:active）、点赞数分片（blog:sharded）、
+     * 点赞索引迁移（SCAN）
+     */
+    @PostConstruct
+    public void initClusterMode() {
+        boolean clusterAware = redisConnectionFactory instanceof JedisConnectionFactory jedisConnectionFactory
+                && jedisConnectionFactory.isRedisClusterAware();
+        if (clusterEnabled != clusterAware) {
+            throw new IllegalStateException("thumb.redis.cluster.enabled is " + clusterEnabled
+                    + " but redis connection is " + (clusterAware ? "" : "not ") + "cluster aware, check spring.data.redis.cluster");
+        }
+        if (clusterEnabled && (tierEnabled || shardingEnabled || migrationEnabled)) {
+            throw new IllegalStateException("thumb.user-index.tier, thumb.counter.sharding and thumb.user-index.migration"
+                    + " are not supported with thumb.redis.cluster.enabled");
+        }
+        if (RedisKeyUtil.isClusterEnabled() != clusterEnabled) {
+            throw new IllegalStateException("Redis key layout does not match thumb.redis.cluster.enabled,"
+                    + " check that RedisKeyLayoutInitializer is registered in META-INF/spring.factories");
+        }
+        if (clusterEnabled) {
+            log.info("Redis cluster mode enabled, keys use hash tags...");
+        }
+    }
+
     /**
      * 创建自定义RedisTemplate对象。key采用String序列化，value采用Json序列化
      * @param redisConnectionFactory
      * @return
      */
     @Bean
+    @Primary
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory redisConnectionFactory){
         RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
         redisTemplate.setConnectionFactory(redisConnectionFactory);
@@ -43,6 +93,24 @@ public class RedisConfig {
         return redisTemplate;
     }
 
+    /**
+     * 热点路径（blog缓存、点赞数分片）专用的RedisTemplate。key采用String序列化，value不做任何转换（byte[]），
+     * 不携带类型信息、不经过反射。数字为十进制字符串，blog为BlogRedisCodec的二进制编码
+     * @param redisConnectionFactory
+     * @return
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> hotRedisTemplate(RedisConnectionFactory redisConnectionFactory){
+        RedisTemplate<String, byte[]> hotRedisTemplate = new RedisTemplate<>();
+        hotRedisTemplate.setConnectionFactory(redisConnectionFactory);
+        hotRedisTemplate.setKeySerializer(new StringRedisSerializer());
+        hotRedisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        hotRedisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        hotRedisTemplate.setHashValueSerializer(RedisSerializer.byteArray());
+        hotRedisTemplate.afterPropertiesSet();
+        return hotRedisTemplate;
+    }
+
     /**
      * 自定义Spring Session序列化器，使用JSON方式存储
      * @return
@@ -0,0 +1,20 @@
+package com.bread.breadthumb.config;
+
+import com.bread.breadthumb.util.RedisKeyUtil;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 在创建任何bean之前，根据 thumb.redis.cluster.enabled 确定redis key的格式（见RedisKeyUtil）。
+ * key的格式只取决于配置，与bean的初始化顺序无关；RedisConfig启动时校验配置与redis连接是否一致。
+ * 通过 META-INF/spring.factories 注册，SpringApplication（包括 @SpringBootTest）在刷新上下文之前调用。
+ */
+public class RedisKeyLayoutInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+    @Override
+    public void initialize(ConfigurableApplicationContext applicationContext) {
+        RedisKeyUtil.setClusterEnabled(applicationContext.getEnvironment()
+                .getProperty("thumb.redis.cluster.enabled", Boolean.class, false));
+    }
+
+}
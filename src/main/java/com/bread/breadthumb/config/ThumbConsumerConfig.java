@@ -1,28 +1,37 @@
 package com.bread.breadthumb.config;
 
 import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.mq.ThumbEvent;
+import com.bread.breadthumb.mq.ThumbEventSchema;
 import org.apache.pulsar.client.api.BatchReceivePolicy;
 import org.apache.pulsar.client.api.ConsumerBuilder;
 import org.apache.pulsar.client.api.DeadLetterPolicy;
 import org.apache.pulsar.client.api.RedeliveryBackoff;
 import org.apache.pulsar.client.impl.MultiplierRedeliveryBackoff;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.pulsar.annotation.PulsarListenerConsumerBuilderCustomizer;
+import org.springframework.pulsar.core.DefaultSchemaResolver;
+import org.springframework.pulsar.core.SchemaResolver;
 
 import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class ThumbConsumerConfig {
 
+    @Value("${thumb.consumer.receive.max-num-messages:1000}") // 每次接收的最大消息数
+    private int receiveMaxNumMessages;
+    @Value("${thumb.consumer.receive.timeout-ms:100}") // 接收消息的超时时间，写入数据库的批次由写缓冲决定
+    private int receiveTimeoutMs;
+
     @Bean
     public PulsarListenerConsumerBuilderCustomizer thumbConsumerCustomizer(){
         return consumerBuilder -> {
-            // 配置批量处理消息
+            // 配置批量接收消息。接收后加入写缓冲，写入数据库的批次大小和间隔由AdaptiveFlushController调整
             consumerBuilder.batchReceivePolicy(BatchReceivePolicy.builder()
-                    // 每次处理1000条消息
-                    .maxNumMessages(1000)
-                    .timeout(10_000, TimeUnit.MILLISECONDS)
+                    .maxNumMessages(receiveMaxNumMessages)
+                    .timeout(receiveTimeoutMs, TimeUnit.MILLISECONDS)
                     .build());
             // 配置NACK重试退避机制
             consumerBuilder.negativeAckRedeliveryBackoff(negativeAckRedeliveryBackoff());
@@ -34,6 +43,15 @@ public class ThumbConsumerConfig {
     }
 
 
+    /**
+     * ThumbEvent使用自定义的二进制schema，同时兼容读取JSON格式的消息
+     * @return
+     */
+    @Bean
+    public SchemaResolver.SchemaResolverCustomizer<DefaultSchemaResolver> thumbEventSchemaResolverCustomizer(){
+        return schemaResolver -> schemaResolver.addCustomSchemaMapping(ThumbEvent.class, ThumbEventSchema.INSTANCE);
+    }
+
     // 配置NACK重试退避机制
     public RedeliveryBackoff negativeAckRedeliveryBackoff(){
         return MultiplierRedeliveryBackoff.builder()
@@ -6,10 +6,25 @@ public class Constant {
     public static final String THUMB_DOTHUMB_INVALID_PARAMS = "无法点赞";
     public static final String THUMB_DOTHUMB_ALREADY_THUMBED = "用户已经点赞";
     public static final String THUMB_DOTHUMB_NOT_THUMBED = "用户没有点赞";
+    public static final String THUMB_TOO_MANY_REQUESTS = "点赞请求过多，请稍后重试";
+    public static final String THUMB_STATUS_INVALID_PARAMS = "无法查询点赞状态";
+    public static final String THUMB_IDEMPOTENCY_KEY_INVALID = "幂等键无效";
+    public static final String THUMB_REQUEST_IN_PROGRESS = "请求正在处理中，请稍后重试";
     public static final String REDIS_USER_THUMB_KEY_PREFIX = "thumb:";
+    public static final String REDIS_USER_THUMB_BITMAP_KEY_PREFIX = "thumb:bm:";
+    public static final String REDIS_IDEMPOTENCY_KEY_PREFIX = "thumb:idem:";
+    public static final String REDIS_USER_THUMB_ACTIVE_KEY = "thumb:active";
+    public static final String REDIS_USER_THUMB_COLD_KEY = "thumb:cold";
+    public static final String REDIS_USER_THUMB_EVICT_LOCK_KEY = "thumb:active:lock";
+    public static final String REDIS_THUMB_BLOOM_KEY = "thumb:bloom:%d:%d";
+    public static final String REDIS_THUMB_BLOOM_REBUILD_KEY = "thumb:bloom:%d:%d:next";
+    public static final String REDIS_THUMB_BLOOM_REBUILD_LOCK_KEY = "thumb:bloom:lock";
+    public static final String REDIS_OUTBOX_PENDING_KEY = "thumb:outbox:pending";
 
     public static final String REDIS_BLOG_KEY_PREFIX = "blog:";
     public static final long REDIS_HOT_BLOG_EXPIRE_TIME = 30L;
+    public static final String REDIS_BLOG_COUNTER_SHARD_KEY = "blog:%s:cnt:%d";
+    public static final String REDIS_SHARDED_BLOG_KEY = "blog:sharded";
 
     public static final String REDIS_TEMP_THUMB_KEY_PREFIX = "thumb:temp:%s";
     public static final String CACHE_BLOG_KEY_PREFIX = "cache:blog:";
@@ -22,4 +37,8 @@ public class Constant {
     public static final String EXCEL_THUMB_TYPE_INCR = "点赞 INCR";
     public static final String EXCEL_THUMB_TYPE_DECR = "取消点赞 DECR";
     public static final String MQ_DLQ_EXCEL_FILE_PATH_PREFIX = "src/main/resources/static/";
+    public static final String DLQ_REPLAY_INVALID_PARAMS = "无法重放死信";
+    public static final String DLQ_REPLAY_FORBIDDEN = "没有权限";
+    public static final String DLQ_REPLAY_RUNNING = "已有死信重放任务正在执行";
+    public static final String DLQ_REPLAY_NOT_FOUND = "死信重放任务不存在";
 }
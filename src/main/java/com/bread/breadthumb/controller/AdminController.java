@@ -0,0 +1,41 @@
+package com.bread.breadthumb.controller;
+
+import com.bread.breadthumb.common.Result;
+import com.bread.breadthumb.model.dto.DlqReplayRequest;
+import com.bread.breadthumb.model.vo.DlqReplayVO;
+import com.bread.breadthumb.mq.DlqReplayService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 运维接口，请求头 X-Admin-Token 需要与 thumb.dlq.replay.admin-token 一致
+ */
+@RestController
+@RequestMapping("/admin")
+@Tag(name = "运维接口")
+public class AdminController {
+
+    private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    @Autowired
+    private DlqReplayService dlqReplayService;
+
+    @PostMapping("/dlq/replay")
+    @Operation(summary = "重放死信")
+    public Result<DlqReplayVO> replayDlq(@RequestBody DlqReplayRequest dlqReplayRequest,
+                                         @RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String adminToken){
+        dlqReplayService.checkAdminToken(adminToken);
+        return Result.success(dlqReplayService.start(dlqReplayRequest));
+    }
+
+    @GetMapping("/dlq/replay/get")
+    @Operation(summary = "查询死信重放任务进度")
+    public Result<DlqReplayVO> getDlqReplay(String jobId,
+                                            @RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String adminToken){
+        dlqReplayService.checkAdminToken(adminToken);
+        return Result.success(dlqReplayService.getJob(jobId));
+    }
+
+}
@@ -2,6 +2,8 @@ package com.bread.breadthumb.controller;
 
 import com.bread.breadthumb.common.Result;
 import com.bread.breadthumb.model.dto.DoThumbRequest;
+import com.bread.breadthumb.model.dto.ThumbStatusRequest;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
 import com.bread.breadthumb.service.ThumbService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -35,4 +37,10 @@ public class ThumbController {
         return Result.success(result);
     }
 
+    @PostMapping("/status")
+    @Operation(summary = "批量查询点赞状态")
+    public Result<ThumbStatusVO> status(@RequestBody ThumbStatusRequest thumbStatusRequest, HttpServletRequest request){
+        return Result.success(thumbService.getThumbStatus(thumbStatusRequest, request));
+    }
+
 }
@@ -11,6 +11,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+/**
+ * 通用的Excel导出。死信不再通过它写入（见DlqFileSink），保留用于导出其他数据
+ */
 @Component
 @Slf4j
 public class ExportService {
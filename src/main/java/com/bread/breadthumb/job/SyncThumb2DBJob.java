@@ -1,12 +1,10 @@
 package com.bread.breadthumb.job;
 
 import cn.hutool.core.collection.CollUtil;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.bread.breadthumb.mapper.BlogMapper;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.bread.breadthumb.model.enums.ThumbTypeEnum;
-import com.bread.breadthumb.service.ThumbService;
 import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.ThumbFlushEngine;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,10 +32,7 @@ public class SyncThumb2DBJob {
     // 但若在当前时间段user1没有取消点赞，则value1会被写入数据库，thumbCount+1。在下一个时间段10:10-10:20，user1取消点赞，会新添一条数据hashKey1:1 value-1，表示点赞数-1。当该时间段的数据写入数据库时，数据库中的thumbCount-1。
 
     @Autowired
-    private ThumbService thumbService;
-
-    @Autowired
-    private BlogMapper blogMapper;
+    private ThumbFlushEngine thumbFlushEngine;
 
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
@@ -72,10 +67,9 @@ public class SyncThumb2DBJob {
             log.info("SyncThumb2DB no data...");
             return;
         }
-        Map<Long, Long> blogIdThumbCountMap = new HashMap<>();
-        List<Thumb> thumbList = new ArrayList<>();
-        LambdaQueryWrapper<Thumb> wrapper = new LambdaQueryWrapper<>();
-        boolean needDelete = false;
+        // 按blogId分组的需要插入、删除的点赞记录
+        Map<Long, List<Thumb>> thumbedMap = new HashMap<>();
+        Map<Long, List<Thumb>> unthumbedMap = new HashMap<>();
         for (Object userIdBlogIdObj : allTempThumbMap.keySet()) {
             String userIdBlogId = (String) userIdBlogIdObj;
             String[] split = userIdBlogId.split(":");
@@ -83,41 +77,24 @@ public class SyncThumb2DBJob {
             Long blogId = Long.parseLong(split[1]);
             // 获取当前点赞的类型，+1点赞/-1取消点赞/0不影响
             Integer thumbType = Integer.valueOf(allTempThumbMap.get(userIdBlogId).toString());
+            Thumb thumb = new Thumb();
+            thumb.setUserId(userId);
+            thumb.setBlogId(blogId);
             if (thumbType == ThumbTypeEnum.INCR.getValue()){
-                // 点赞，创建Thumb对象
-                Thumb thumb = new Thumb();
-                thumb.setUserId(userId);
-                thumb.setBlogId(blogId);
-                thumbList.add(thumb);
+                // 点赞，插入Thumb表的记录
+                thumbedMap.computeIfAbsent(blogId, id -> new ArrayList<>()).add(thumb);
             }else if (thumbType == ThumbTypeEnum.DECR.getValue()){
-                // 取消点赞，需要删除Thumb表的记录。wrapper拼接条件
-                needDelete = true;
-                wrapper.or().eq(Thumb::getUserId, userId).eq(Thumb::getBlogId, blogId);
-            }else {
-                // 不影响
-                if (thumbType != ThumbTypeEnum.NON.getValue()){
-                    log.error("SyncThumb2DB data error, userId {}, blogId {}, thumbType {}", userId, blogId, thumbType);
-                }
-                continue;
+                // 取消点赞，需要删除Thumb表的记录
+                unthumbedMap.computeIfAbsent(blogId, id -> new ArrayList<>()).add(thumb);
+            }else if (thumbType != ThumbTypeEnum.NON.getValue()){
+                // 0不影响，其他值为错误数据
+                log.error("SyncThumb2DB data error, userId {}, blogId {}, thumbType {}", userId, blogId, thumbType);
             }
-            // 更新当前blog的点赞数
-            blogIdThumbCountMap.put(blogId, blogIdThumbCountMap.getOrDefault(blogId, 0L) + thumbType);
-        }
-        // 使用虚拟线程对Thumb表、Blog表、redis进行操作（IO密集型）
-        // Thumb表：批量保存新点赞记录，批量删除取消点赞的记录
-        boolean finalNeedDelete = needDelete;
-        if (!thumbList.isEmpty()){
-            log.info("SyncThumb2DB save thumbList...");
-            thumbService.saveBatch(thumbList);
-        }
-        if (finalNeedDelete){
-            log.info("SyncThumb2DB delete thumbs...");
-            thumbService.remove(wrapper);
         }
-        // Blog表：批量更新blog的点赞数
-        if (!blogIdThumbCountMap.isEmpty()){
-            log.info("SyncThumb2DB update blogThumbCount...");
-            blogMapper.batchUpdateThumbCount(blogIdThumbCountMap);
+        // Thumb表：批量保存新点赞记录，批量删除取消点赞的记录；Blog表：按实际影响的行数更新blog的点赞数
+        if (!thumbedMap.isEmpty() || !unthumbedMap.isEmpty()){
+            log.info("SyncThumb2DB flush thumbs...");
+            thumbFlushEngine.flush(thumbedMap, unthumbedMap);
         }
         // 删除redis中的临时记录
         Thread.startVirtualThread(() -> redisTemplate.delete(tempThumbKey));
@@ -0,0 +1,113 @@
+package com.bread.breadthumb.job;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.mapper.ThumbMapper;
+import com.bread.breadthumb.model.entity.Thumb;
+import com.bread.breadthumb.util.ThumbBloomFilter;
+import com.bread.breadthumb.util.UserThumbIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从数据库thumb表重建冷数据的布隆过滤器（ThumbBloomFilter），去掉已取消点赞的记录带来的误判。
+ * 按id顺序分批扫描，写入重建的key（thumb:bloom:{bits}:{hashes}:next），完成后RENAME替换原来的布隆过滤器；
+ * 重建期间淘汰的用户同时写入两个key。开启冷热分层后，布隆过滤器不存在（首次开启或修改了参数）时在启动完成后立即重建，
+ * 之后按 thumb.user-index.tier.bloom.rebuild-cron 定期重建。多节点部署时通过 thumb:bloom:lock 保证只有一个节点执行。
+ */
+@Component
+@Slf4j
+public class ThumbBloomFilterRebuildJob {
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private ThumbMapper thumbMapper;
+
+    @Autowired
+    private ThumbBloomFilter thumbBloomFilter;
+
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+
+    @Value("${thumb.user-index.tier.bloom.rebuild-batch-size:5000}") // 每次从数据库读取的点赞记录数
+    private int batchSize;
+    @Value("${thumb.user-index.tier.bloom.rebuild-lock-ms:3600000}") // 重建锁的过期时间，应大于重建的耗时
+    private long lockMs;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!userThumbIndex.isTierEnabled() || Boolean.TRUE.equals(redisTemplate.hasKey(thumbBloomFilter.getBloomKey()))) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "thumb-bloom-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Scheduled(cron = "${thumb.user-index.tier.bloom.rebuild-cron:0 0 4 * * SUN}")
+    public void scheduledRebuild() {
+        if (userThumbIndex.isTierEnabled()) {
+            rebuild();
+        }
+    }
+
+    public void rebuild() {
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(Constant.REDIS_THUMB_BLOOM_REBUILD_LOCK_KEY, 1, Duration.ofMillis(lockMs)))) {
+            log.info("ThumbBloomFilterRebuild: Running on another node, skip...");
+            return;
+        }
+        log.info("ThumbBloomFilterRebuild: Start...");
+        String rebuildKey = thumbBloomFilter.getRebuildKey();
+        long start = System.nanoTime();
+        long thumbs = 0;
+        try {
+            // 创建重建的key，此后淘汰的用户同时写入
+            redisTemplate.delete(rebuildKey);
+            redisTemplate.opsForValue().setBit(rebuildKey, 0, false);
+            long lastId = 0;
+            while (true) {
+                List<Thumb> thumbList = thumbMapper.selectList(new LambdaQueryWrapper<Thumb>()
+                        .select(Thumb::getId, Thumb::getUserId, Thumb::getBlogId)
+                        .gt(Thumb::getId, lastId)
+                        .orderByAsc(Thumb::getId)
+                        .last("LIMIT " + Math.max(batchSize, 1)));
+                if (thumbList.isEmpty()) {
+                    break;
+                }
+                List<Long> userIds = new ArrayList<>(thumbList.size());
+                List<Long> blogIds = new ArrayList<>(thumbList.size());
+                for (Thumb thumb : thumbList) {
+                    userIds.add(thumb.getUserId());
+                    blogIds.add(thumb.getBlogId());
+                }
+                thumbBloomFilter.putRebuild(userIds, blogIds);
+                thumbs += thumbList.size();
+                lastId = thumbList.getLast().getId();
+                log.debug("ThumbBloomFilterRebuild: Added {} thumbs...", thumbs);
+            }
+            redisTemplate.rename(rebuildKey, thumbBloomFilter.getBloomKey());
+        } catch (Exception e) {
+            log.error("ThumbBloomFilterRebuild: Failed after {} thumbs...", thumbs, e);
+            redisTemplate.delete(rebuildKey);
+            return;
+        } finally {
+            redisTemplate.delete(Constant.REDIS_THUMB_BLOOM_REBUILD_LOCK_KEY);
+        }
+        log.info("ThumbBloomFilterRebuild: Finished, {} thumbs in {}s...",
+                thumbs, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+}
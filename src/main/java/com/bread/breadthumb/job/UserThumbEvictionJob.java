@@ -0,0 +1,219 @@
+package com.bread.breadthumb.job;
+
+import com.bread.breadthumb.common.TokenBucket;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.RedisScriptManager;
+import com.bread.breadthumb.util.ThumbBloomFilter;
+import com.bread.breadthumb.util.UserThumbIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 用户点赞索引的冷热分层（见UserThumbIndex）：定时淘汰最近一次写入早于 thumb.user-index.tier.window-ms 的用户。
+ * 每批用户分两步，每步一个管道：
+ * 1. 读取用户点赞索引中的所有blog，加入布隆过滤器（之后查询该用户时，布隆过滤器判断一定没有点赞的blog不查询数据库）
+ * 2. 删除用户的点赞索引并从 thumb:active 移到 thumb:cold。两步之间用户有写入时score变大，脚本不删除
+ * 多节点部署时通过 thumb:active:lock 保证一个时间间隔内只有一个节点执行。
+ * 开启 thumb.user-index.tier.bootstrap 后，启动完成后在后台将开启分层前写入的用户（有点赞索引、不在 thumb:active 中）
+ * 以当前时间加入 thumb:active，这些用户此后同样按时间窗口淘汰。
+ */
+@Component
+@Slf4j
+public class UserThumbEvictionJob {
+
+    // thumb:{userId} 或 thumb:bm:{userId}，排除 thumb:temp:、thumb:idem: 等其他key
+    private static final Pattern INDEX_KEY_PATTERN = Pattern.compile(Pattern.quote(Constant.REDIS_USER_THUMB_KEY_PREFIX) + "(?:bm:)?(\\d+)");
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+
+    @Autowired
+    private ThumbBloomFilter thumbBloomFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.user-index.tier.window-ms:604800000}") // 最近一次写入早于该时间的用户被淘汰
+    private long windowMs;
+    @Value("${thumb.user-index.tier.evict-interval-ms:600000}") // 淘汰任务的执行间隔
+    private long evictIntervalMs;
+    @Value("${thumb.user-index.tier.evict-batch-size:100}") // 每个管道淘汰的用户数
+    private int batchSize;
+    @Value("${thumb.user-index.tier.users-per-second:2000}") // 每秒淘汰的用户数上限
+    private double usersPerSecond;
+    @Value("${thumb.user-index.tier.bootstrap:false}")
+    private boolean bootstrap;
+
+    private Counter evictedUserCounter;
+    private Counter evictedThumbCounter;
+
+    @PostConstruct
+    public void init() {
+        evictedUserCounter = meterRegistry.counter("thumb.user-index.tier.evicted.users");
+        evictedThumbCounter = meterRegistry.counter("thumb.user-index.tier.evicted.thumbs");
+    }
+
+    @Scheduled(initialDelayString = "${thumb.user-index.tier.evict-interval-ms:600000}", fixedDelayString = "${thumb.user-index.tier.evict-interval-ms:600000}")
+    public void evict() {
+        if (!userThumbIndex.isTierEnabled()) {
+            return;
+        }
+        // 不释放，过期前其他节点不执行
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(Constant.REDIS_USER_THUMB_EVICT_LOCK_KEY, 1, Duration.ofMillis(evictIntervalMs)))) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() - windowMs;
+        TokenBucket rateLimiter = new TokenBucket(usersPerSecond, Math.max(batchSize, 1));
+        long users = 0;
+        long thumbs = 0;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                Set<Object> members = redisTemplate.opsForZSet()
+                        .rangeByScore(Constant.REDIS_USER_THUMB_ACTIVE_KEY, Double.NEGATIVE_INFINITY, deadline, 0, Math.max(batchSize, 1));
+                if (members == null || members.isEmpty()) {
+                    break;
+                }
+                rateLimiter.acquire(members.size());
+                List<Long> userIds = members.stream().map(member -> Long.valueOf(member.toString())).toList();
+                long[] evicted = evict(userIds, deadline);
+                users += evicted[0];
+                thumbs += evicted[1];
+                // 这一批都没有淘汰（都有新的写入或执行失败），避免重复读取同一批用户
+                if (evicted[0] == 0) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("UserThumbEviction: Failed after {} users, continue on next run...", users, e);
+            return;
+        }
+        if (users > 0) {
+            log.info("UserThumbEviction: Evicted {} users, {} thumbs in {}ms...",
+                    users, thumbs, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * 一批用户：先将点赞记录加入布隆过滤器，再删除点赞索引
+     * @return {淘汰的用户数, 淘汰的点赞记录数}
+     */
+    private long[] evict(List<Long> userIds, long deadline) {
+        List<List<String>> keysList = new ArrayList<>(userIds.size());
+        List<Object[]> listArgs = new ArrayList<>(userIds.size());
+        List<Object[]> evictArgs = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            keysList.add(List.of(Constant.REDIS_USER_THUMB_ACTIVE_KEY,
+                    RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbBitmapKey(userId),
+                    Constant.REDIS_USER_THUMB_COLD_KEY));
+            listArgs.add(new Object[]{userId, deadline, 1});
+            evictArgs.add(new Object[]{userId, deadline, 0});
+        }
+        List<Object> listResults = redisScriptManager.executePipelined(LuaScriptEnum.EVICT_USER_THUMB_INDEX, keysList, listArgs);
+        Map<Long, List<Long>> userBlogIds = new HashMap<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            if (listResults.get(i) instanceof List<?> values && Long.parseLong(values.getFirst().toString()) == 1) {
+                List<Long> blogIds = new ArrayList<>(values.size() - 1);
+                for (int j = 1; j < values.size(); j++) {
+                    blogIds.add(Long.valueOf(values.get(j).toString()));
+                }
+                userBlogIds.put(userIds.get(i), blogIds);
+            } else if (listResults.get(i) instanceof Throwable e) {
+                log.warn("UserThumbEviction: Read user {} thumb index failed...", userIds.get(i), e);
+            }
+        }
+        if (userBlogIds.isEmpty()) {
+            return new long[]{0, 0};
+        }
+        // 布隆过滤器写入失败时抛出异常，不删除点赞索引
+        thumbBloomFilter.putAll(userBlogIds);
+        List<Long> candidates = new ArrayList<>(userBlogIds.keySet());
+        List<List<String>> evictKeysList = new ArrayList<>(candidates.size());
+        List<Object[]> evictArgsList = new ArrayList<>(candidates.size());
+        for (Long userId : candidates) {
+            int index = userIds.indexOf(userId);
+            evictKeysList.add(keysList.get(index));
+            evictArgsList.add(evictArgs.get(index));
+        }
+        List<Object> evictResults = redisScriptManager.executePipelined(LuaScriptEnum.EVICT_USER_THUMB_INDEX, evictKeysList, evictArgsList);
+        long users = 0;
+        long thumbs = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (evictResults.get(i) instanceof List<?> values && Long.parseLong(values.getFirst().toString()) == 1) {
+                users++;
+                thumbs += userBlogIds.get(candidates.get(i)).size();
+            }
+        }
+        evictedUserCounter.increment(users);
+        evictedThumbCounter.increment(thumbs);
+        return new long[]{users, thumbs};
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!userThumbIndex.isTierEnabled() || !bootstrap) {
+            return;
+        }
+        Thread thread = new Thread(this::bootstrap, "user-thumb-tier-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * SCAN所有用户点赞索引，不在 thumb:active 中的用户以当前时间加入（ZADD NX）
+     */
+    public void bootstrap() {
+        log.info("UserThumbTierBootstrap: Start...");
+        long users = 0;
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(Constant.REDIS_USER_THUMB_KEY_PREFIX + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(scanOptions)) {
+            Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+            while (cursor.hasNext() || !tuples.isEmpty()) {
+                if (cursor.hasNext()) {
+                    Matcher matcher = INDEX_KEY_PATTERN.matcher(cursor.next());
+                    if (matcher.matches()) {
+                        tuples.add(new DefaultTypedTuple<>(Long.valueOf(matcher.group(1)), (double) System.currentTimeMillis()));
+                    }
+                    if (tuples.size() < Math.max(batchSize, 1)) {
+                        continue;
+                    }
+                }
+                redisTemplate.opsForZSet().addIfAbsent(Constant.REDIS_USER_THUMB_ACTIVE_KEY, tuples);
+                users += tuples.size();
+                tuples.clear();
+            }
+        } catch (Exception e) {
+            log.error("UserThumbTierBootstrap: Failed after {} users, rerun to continue...", users, e);
+            return;
+        }
+        log.info("UserThumbTierBootstrap: Finished, {} users...", users);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.bread.breadthumb.job;
+
+import com.bread.breadthumb.common.TokenBucket;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.RedisScriptManager;
+import com.bread.breadthumb.util.UserThumbIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 将所有用户旧的hash索引（thumb:{userId}）合并到位图索引（thumb:bm:{userId}），只在BITMAP模式下执行。
+ * SCAN所有 thumb:{userId}，每批用户在一个管道中执行MigrateUserThumbIndex.lua，每个用户的合并是原子的，
+ * 与并发的点赞/取消点赞互不影响；未合并的用户由点赞/取消点赞脚本在写入时合并，任务中断后重新执行即可。
+ * 开启 thumb.user-index.migration.enabled 后，在服务启动完成后于后台执行一次。
+ */
+@Component
+@Slf4j
+public class UserThumbIndexMigrationJob {
+
+    // thumb:{userId}，排除 thumb:bm:、thumb:temp: 等其他key
+    private static final Pattern LEGACY_KEY_PATTERN = Pattern.compile(Pattern.quote(Constant.REDIS_USER_THUMB_KEY_PREFIX) + "\\d+");
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.user-index.migration.enabled:false}")
+    private boolean enabled;
+    @Value("${thumb.user-index.migration.batch-size:100}") // 每个管道合并的用户数
+    private int batchSize;
+    @Value("${thumb.user-index.migration.users-per-second:2000}") // 每秒合并的用户数上限
+    private double usersPerSecond;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (userThumbIndex.getMode() != UserThumbIndex.Mode.BITMAP) {
+            log.warn("UserThumbIndexMigration: User index mode is {}, skip...", userThumbIndex.getMode());
+            return;
+        }
+        Thread thread = new Thread(this::run, "user-thumb-index-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        log.info("UserThumbIndexMigration: Start...");
+        Counter userCounter = meterRegistry.counter("thumb.user-index.migration.users");
+        Counter thumbCounter = meterRegistry.counter("thumb.user-index.migration.thumbs");
+        TokenBucket rateLimiter = new TokenBucket(usersPerSecond, Math.max(batchSize, 1));
+        long users = 0;
+        long thumbs = 0;
+        long start = System.nanoTime();
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(Constant.REDIS_USER_THUMB_KEY_PREFIX + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(scanOptions)) {
+            List<String> legacyKeys = new ArrayList<>(batchSize);
+            while (cursor.hasNext() || !legacyKeys.isEmpty()) {
+                if (cursor.hasNext()) {
+                    String key = cursor.next();
+                    if (LEGACY_KEY_PATTERN.matcher(key).matches()) {
+                        legacyKeys.add(key);
+                    }
+                    if (legacyKeys.size() < Math.max(batchSize, 1)) {
+                        continue;
+                    }
+                }
+                rateLimiter.acquire(legacyKeys.size());
+                long migrated = migrate(legacyKeys);
+                userCounter.increment(legacyKeys.size());
+                thumbCounter.increment(migrated);
+                users += legacyKeys.size();
+                thumbs += migrated;
+                legacyKeys.clear();
+                log.debug("UserThumbIndexMigration: Migrated {} users, {} thumbs...", users, thumbs);
+            }
+        } catch (Exception e) {
+            log.error("UserThumbIndexMigration: Failed after {} users, rerun to continue...", users, e);
+            return;
+        }
+        log.info("UserThumbIndexMigration: Finished, {} users, {} thumbs in {}s...",
+                users, thumbs, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    /**
+     * 一批用户在一个管道中合并
+     * @return 合并的点赞记录数
+     */
+    private long migrate(List<String> legacyKeys) {
+        List<List<String>> keysList = new ArrayList<>(legacyKeys.size());
+        List<Object[]> argsList = new ArrayList<>(legacyKeys.size());
+        for (String legacyKey : legacyKeys) {
+            Long userId = Long.valueOf(legacyKey.substring(Constant.REDIS_USER_THUMB_KEY_PREFIX.length()));
+            keysList.add(List.of(legacyKey, RedisKeyUtil.getUserThumbBitmapKey(userId)));
+            argsList.add(new Object[0]);
+        }
+        long migrated = 0;
+        for (Object result : redisScriptManager.executePipelined(LuaScriptEnum.MIGRATE_USER_THUMB_INDEX, keysList, argsList)) {
+            if (result instanceof Throwable e) {
+                log.warn("UserThumbIndexMigration: Migrate user failed, will be migrated on next write...", e);
+            } else if (result instanceof Number number) {
+                migrated += number.longValue();
+            }
+        }
+        return migrated;
+    }
+
+}
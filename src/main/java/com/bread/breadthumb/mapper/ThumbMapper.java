@@ -1,8 +1,13 @@
 package com.bread.breadthumb.mapper;
 
+import com.bread.breadthumb.model.dto.ThumbBlogChange;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
 * @author huang
@@ -13,6 +18,31 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface ThumbMapper extends BaseMapper<Thumb> {
 
+    /**
+     * 批量插入点赞记录，(userId, blogId) 已存在的记录被忽略
+     * @param thumbList createTime为空时使用当前时间
+     * @return 实际插入的记录数
+     */
+    int insertIgnoreBatch(@Param("thumbList") List<Thumb> thumbList);
+
+    /**
+     * 按 (userId, blogId) 批量删除点赞记录
+     * @return 实际删除的记录数
+     */
+    int deleteBatchByUserIdBlogId(@Param("thumbList") List<Thumb> thumbList);
+
+    /**
+     * 在一次请求中执行多条语句（需要 allowMultiQueries=true）：每个变更插入或删除一个blog的点赞记录，
+     * 再按 ROW_COUNT() 即实际影响的行数更新该blog的点赞数
+     */
+    void applyChanges(@Param("changeList") List<ThumbBlogChange> changeList);
+
+    /**
+     * 查询用户点赞了blogIds中的哪些blog，使用 (userId, blogId) 唯一索引
+     * @return 已点赞的blogId
+     */
+    List<Long> selectThumbedBlogIds(@Param("userId") Long userId, @Param("blogIds") Collection<Long> blogIds);
+
 }
 
 
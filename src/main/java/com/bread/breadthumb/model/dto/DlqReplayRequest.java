@@ -0,0 +1,17 @@
+package com.bread.breadthumb.model.dto;
+
+import lombok.Data;
+
+@Data
+public class DlqReplayRequest {
+
+    // 死信来源：TOPIC 从死信主题读取，FILE 从导出的死信文件读取
+    private String source;
+    // source为FILE时的文件路径，必须位于死信文件目录（thumb.dlq.sink.dir）下，相对路径按该目录解析
+    private String filePath;
+    // 只重放该时间（毫秒时间戳）之后的死信，TOPIC按消息的发布时间，FILE按点赞时间。为空时重放全部
+    private Long fromTime;
+    // 只校验，不写入数据库
+    private Boolean dryRun;
+
+}
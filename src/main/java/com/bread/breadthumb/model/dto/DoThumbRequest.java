@@ -7,4 +7,7 @@ public class DoThumbRequest {
 
     private Long blogId;
 
+    // 可选的幂等键，客户端重试时携带相同的值，服务端直接返回第一次请求的结果
+    private String idempotencyKey;
+
 }
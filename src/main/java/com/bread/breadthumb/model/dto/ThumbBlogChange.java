@@ -0,0 +1,22 @@
+package com.bread.breadthumb.model.dto;
+
+import com.bread.breadthumb.model.entity.Thumb;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一个blog的一组点赞记录变更，批量写入数据库时使用
+ */
+@Data
+@AllArgsConstructor
+public class ThumbBlogChange {
+
+    private Long blogId;
+    // true为插入点赞记录，false为删除点赞记录
+    private boolean thumbed;
+    // 同一个blog的点赞记录
+    private List<Thumb> thumbList;
+
+}
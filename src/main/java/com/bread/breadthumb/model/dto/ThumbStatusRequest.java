@@ -0,0 +1,13 @@
+package com.bread.breadthumb.model.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ThumbStatusRequest {
+
+    // 需要查询点赞状态的blogId，一次最多 thumb.status.max-blogs 个
+    private List<Long> blogIds;
+
+}
@@ -0,0 +1,73 @@
+package com.bread.breadthumb.model.enums;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * templates目录下的lua脚本枚举，记录脚本文件名和返回值类型
+ */
+@Getter
+public enum LuaScriptEnum {
+
+    // 点赞，写入临时点赞记录（定时任务同步到数据库）
+    THUMB("Thumb.lua", Long.class),
+    // 取消点赞，写入临时点赞记录（定时任务同步到数据库）
+    UNTHUMB("Unthumb.lua", Long.class),
+    // 点赞，通过消息队列同步到数据库
+    THUMB_MQ("ThumbMQ.lua", List.class),
+    // 取消点赞，通过消息队列同步到数据库
+    UNTHUMB_MQ("UnthumbMQ.lua", List.class),
+    // 点赞，用户点赞记录存入位图索引
+    THUMB_MQ_BITMAP("ThumbMQBitmap.lua", List.class),
+    // 取消点赞，从位图索引中删除用户点赞记录
+    UNTHUMB_MQ_BITMAP("UnthumbMQBitmap.lua", List.class),
+    // 集群模式的点赞，只访问用户点赞索引所在的slot
+    THUMB_MQ_CLUSTER("ThumbMQCluster.lua", List.class),
+    // 集群模式的取消点赞，只访问用户点赞索引所在的slot
+    UNTHUMB_MQ_CLUSTER("UnthumbMQCluster.lua", List.class),
+    // 集群模式的点赞（位图索引）
+    THUMB_MQ_BITMAP_CLUSTER("ThumbMQBitmapCluster.lua", List.class),
+    // 集群模式的取消点赞（位图索引）
+    UNTHUMB_MQ_BITMAP_CLUSTER("UnthumbMQBitmapCluster.lua", List.class),
+    // 集群模式下更新redis中blog的点赞数，只访问blog所在的slot
+    INCR_BLOG_THUMB_COUNT("IncrBlogThumbCount.lua", Long.class),
+    // 批量查询用户是否点赞（位图索引）
+    USER_THUMB_BITMAP_CONTAINS("UserThumbBitmapContains.lua", List.class),
+    // 批量查询用户是否点赞（hash索引，开启冷热分层时）
+    USER_THUMB_CONTAINS("UserThumbContains.lua", List.class),
+    // 将用户旧的hash索引合并到位图索引
+    MIGRATE_USER_THUMB_INDEX("MigrateUserThumbIndex.lua", Long.class),
+    // 从数据库加载用户的点赞记录到hash索引
+    WARM_USER_THUMB_INDEX("WarmUserThumbIndex.lua", Long.class),
+    // 从数据库加载用户的点赞记录到位图索引
+    WARM_USER_THUMB_INDEX_BITMAP("WarmUserThumbIndexBitmap.lua", Long.class),
+    // 淘汰长时间没有写入的用户的点赞索引
+    EVICT_USER_THUMB_INDEX("EvictUserThumbIndex.lua", List.class),
+    // 读取用户点赞索引中的所有blog
+    LIST_USER_THUMB_INDEX("ListUserThumbIndex.lua", List.class),
+    // 布隆过滤器批量查询
+    BLOOM_CONTAINS("BloomContains.lua", List.class),
+    // 布隆过滤器加入元素
+    BLOOM_ADD("BloomAdd.lua", Long.class),
+    // 批量写入热点blog
+    SYNC_HOT_BLOG("SyncHotBlog.lua", Long.class),
+    // 合并冷却blog的点赞数分片
+    FOLD_BLOG_SHARDS("FoldBlogShards.lua", Long.class),
+    // 比较token后释放分布式锁
+    UNLOCK("Unlock.lua", Long.class),
+    // 预占幂等键，返回已记录的结果
+    IDEMPOTENCY_RESERVE("IdempotencyReserve.lua", Object.class),
+    // 写入幂等键对应的结果，或删除处理中标记
+    IDEMPOTENCY_COMPLETE("IdempotencyComplete.lua", Long.class),
+    ;
+
+    private final String fileName;
+    private final Class<?> resultType;
+
+    LuaScriptEnum(String fileName, Class<?> resultType) {
+        this.fileName = fileName;
+        this.resultType = resultType;
+    }
+
+}
@@ -8,6 +8,8 @@ public enum LuaStatusEnum {
     SUCCESS(1L),  
     // 失败  
     FAIL(-1L),  
+    // 用户点赞索引已从redis淘汰（冷数据），需要从数据库加载
+    COLD(-2L),
     ;
   
     private final long value;
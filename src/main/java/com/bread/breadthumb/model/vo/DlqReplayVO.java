@@ -0,0 +1,49 @@
+package com.bread.breadthumb.model.vo;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class DlqReplayVO {
+
+    private String jobId;
+    private String source;
+    private Boolean dryRun;
+    /**
+     * RUNNING / COMPLETED / FAILED
+     */
+    private String status;
+    /**
+     * 读取的死信数
+     */
+    private Long read;
+    /**
+     * 去重后的 userId-blogId 数
+     */
+    private Long keys;
+    /**
+     * 按redis中的点赞状态写入数据库的key数
+     */
+    private Long applied;
+    /**
+     * 死信中的操作已经不是用户最新的点赞状态，跳过的key数
+     */
+    private Long stale;
+    /**
+     * 数据不完整或blog不存在的key数
+     */
+    private Long invalid;
+    /**
+     * 写入数据库失败的key数
+     */
+    private Long failed;
+    /**
+     * 已处理的key数/秒
+     */
+    private Double throughput;
+    private String message;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+
+}
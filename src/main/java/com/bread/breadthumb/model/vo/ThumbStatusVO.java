@@ -0,0 +1,22 @@
+package com.bread.breadthumb.model.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ThumbStatusVO {
+
+    /**
+     * 查询的blog个数
+     */
+    private Integer size;
+
+    /**
+     * 点赞状态位图的Base64编码。第i个blogId对应第 i/8 个字节的第 i%8 位（低位在前），1表示已点赞
+     */
+    private String bitmap;
+
+}
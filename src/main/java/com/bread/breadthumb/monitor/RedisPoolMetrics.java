@@ -0,0 +1,62 @@
+package com.bread.breadthumb.monitor;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Jedis连接池监控。
+ * Jedis连接池基于commons-pool2，连接池会注册JMX MBean，这里读取MBean的属性注册为Micrometer指标。
+ * 开启虚拟线程后，并发请求数不再受Tomcat线程池限制，连接池的等待线程数和借用等待时间是判断连接池大小是否合适的依据。
+ */
+@Component
+@Slf4j
+public class RedisPoolMetrics {
+
+    private static final String POOL_OBJECT_NAME = "org.apache.commons.pool2:type=GenericObjectPool,*";
+
+    // key为指标名，value为MBean属性名
+    private static final Map<String, String> ATTRIBUTE_MAP = Map.of(
+            "redis.pool.active", "NumActive",
+            "redis.pool.idle", "NumIdle",
+            "redis.pool.waiters", "NumWaiters",
+            "redis.pool.borrow.wait.mean", "MeanBorrowWaitTimeMillis",
+            "redis.pool.borrow.wait.max", "MaxBorrowWaitTimeMillis"
+    );
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerMetrics() throws MalformedObjectNameException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> poolNames = mBeanServer.queryNames(new ObjectName(POOL_OBJECT_NAME), null);
+        for (ObjectName poolName : poolNames) {
+            String pool = poolName.getKeyProperty("name");
+            ATTRIBUTE_MAP.forEach((metricName, attribute) -> Gauge.builder(metricName, () -> readAttribute(mBeanServer, poolName, attribute))
+                    .tag("pool", pool)
+                    .register(meterRegistry));
+            log.info("Register redis pool metrics, pool {}...", pool);
+        }
+    }
+
+    private static Number readAttribute(MBeanServer mBeanServer, ObjectName poolName, String attribute) {
+        try {
+            return (Number) mBeanServer.getAttribute(poolName, attribute);
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.bread.breadthumb.monitor;
+
+import com.bread.breadthumb.mq.ThumbEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.pulsar.client.api.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 点赞消息链路的指标，SLO按 thumb.pipeline.e2e.latency 定义：
+ * 1. thumb.pipeline.e2e.latency：ThumbEvent的eventTime（doThumb写入redis的时间）到点赞记录在数据库中提交的耗时，每条消息记录一次
+ * 2. thumb.consumer.lag{partition}：消息发布到被消费者接收的耗时，按主题分区统计
+ * 3. thumb.consumer.backlog{partition}：已接收、尚未确认的消息数，按主题分区统计。broker中未投递的积压见pulsar的 pulsar_msg_backlog
+ * 4. thumb.consumer.batch.size：每次接收的消息数
+ * 5. thumb.consumer.partition.flush.latency{result}：一个写入分区的事务耗时
+ * 归约比例（消息数/写入的key数）、一次写入的总耗时见ThumbWriteBuffer中的 thumb.consumer.flush.* 指标。
+ * Grafana面板见 grafana/thumb-pipeline-dashboard.json
+ */
+@Component
+public class ThumbPipelineMetrics {
+
+    private static final String PARTITION_SUFFIX = "-partition-";
+    private static final String NON_PARTITIONED = "none";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer e2eLatencyTimer;
+    private DistributionSummary batchSizeSummary;
+    private final Map<String, Timer> lagTimers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> backlogs = new ConcurrentHashMap<>();
+    private final Map<Boolean, Timer> partitionFlushTimers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        e2eLatencyTimer = Timer.builder("thumb.pipeline.e2e.latency")
+                .description("Time from thumb event creation in doThumb to database commit")
+                .publishPercentileHistogram()
+                .serviceLevelObjectives(Duration.ofMillis(100), Duration.ofMillis(500), Duration.ofSeconds(1),
+                        Duration.ofSeconds(2), Duration.ofSeconds(5), Duration.ofSeconds(10))
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("thumb.consumer.batch.size")
+                .description("Messages per received thumb batch")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 接收一批消息
+     * @return 这批消息的eventTime和各分区的消息数，写入提交或NACK时传回
+     */
+    public InFlightBatch onReceived(List<Message<ThumbEvent>> messages) {
+        long now = System.currentTimeMillis();
+        long[] eventTimes = new long[messages.size()];
+        Map<String, Integer> partitionCounts = new HashMap<>(4);
+        int count = 0;
+        for (Message<ThumbEvent> message : messages) {
+            if (message == null) {
+                continue;
+            }
+            ThumbEvent thumbEvent = message.getValue();
+            eventTimes[count++] = thumbEvent != null && thumbEvent.getEventTime() != null
+                    ? thumbEvent.getEventTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    : message.getPublishTime();
+            String partition = partitionOf(message.getTopicName());
+            partitionCounts.merge(partition, 1, Integer::sum);
+            lagTimers.computeIfAbsent(partition, this::buildLagTimer)
+                    .record(Math.max(now - message.getPublishTime(), 0), TimeUnit.MILLISECONDS);
+        }
+        partitionCounts.forEach((partition, partitionCount) -> backlog(partition).addAndGet(partitionCount));
+        batchSizeSummary.record(count);
+        return new InFlightBatch(count == eventTimes.length ? eventTimes : Arrays.copyOf(eventTimes, count), partitionCounts);
+    }
+
+    /**
+     * 一批消息已写入数据库并确认
+     */
+    public void onCommitted(InFlightBatch batch) {
+        long now = System.currentTimeMillis();
+        for (long eventTime : batch.eventTimes()) {
+            e2eLatencyTimer.record(Math.max(now - eventTime, 0), TimeUnit.MILLISECONDS);
+        }
+        releaseBacklog(batch);
+    }
+
+    /**
+     * 一个写入分区的事务
+     */
+    public void recordPartitionFlush(long latencyNanos, boolean success) {
+        partitionFlushTimers.computeIfAbsent(success, result -> Timer.builder("thumb.consumer.partition.flush.latency")
+                        .description("Time of one partition transaction writing thumbs to database")
+                        .tag("result", result ? "success" : "failure")
+                        .publishPercentiles(0.5, 0.9, 0.99)
+                        .register(meterRegistry))
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void releaseBacklog(InFlightBatch batch) {
+        batch.partitionCounts().forEach((partition, count) -> backlog(partition).addAndGet(-count));
+    }
+
+    private AtomicInteger backlog(String partition) {
+        return backlogs.computeIfAbsent(partition, key -> {
+            AtomicInteger backlog = new AtomicInteger();
+            Gauge.builder("thumb.consumer.backlog", backlog, AtomicInteger::get)
+                    .description("Thumb messages received and not yet acknowledged")
+                    .tag("partition", key)
+                    .register(meterRegistry);
+            return backlog;
+        });
+    }
+
+    private Timer buildLagTimer(String partition) {
+        return Timer.builder("thumb.consumer.lag")
+                .description("Time from thumb message publish to receive")
+                .tag("partition", partition)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * persistent://public/default/thumb-topic-partition-3 -> 3
+     */
+    private static String partitionOf(String topicName) {
+        if (topicName == null) {
+            return NON_PARTITIONED;
+        }
+        int index = topicName.lastIndexOf(PARTITION_SUFFIX);
+        return index < 0 ? NON_PARTITIONED : topicName.substring(index + PARTITION_SUFFIX.length());
+    }
+
+    /**
+     * 已接收、尚未确认的一批消息
+     * @param eventTimes 每条消息的eventTime（毫秒时间戳）
+     * @param partitionCounts 各主题分区的消息数
+     */
+    public record InFlightBatch(long[] eventTimes, Map<String, Integer> partitionCounts) {
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.bread.breadthumb.monitor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 虚拟线程pinning检测。
+ * 通过JFR事件流监听jdk.VirtualThreadPinned事件：虚拟线程在synchronized块或本地方法中阻塞时无法从载体线程卸载，
+ * 载体线程被占用。检测到时记录日志（包含项目代码中的调用位置）并按调用位置计数。
+ * 仅在开启虚拟线程时生效。
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningDetector {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APP_PACKAGE = "com.bread.breadthumb";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.virtual-thread.pinned-threshold-ms:20}") // pinning超过该时间才报告
+    private long pinnedThresholdMs;
+
+    private RecordingStream recordingStream;
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT)
+                .withThreshold(Duration.ofMillis(pinnedThresholdMs))
+                .withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+        log.info("VirtualThreadPinningDetector started, threshold {}ms...", pinnedThresholdMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        String location = findAppFrame(event);
+        Counter.builder("thumb.virtual.thread.pinned")
+                .description("Virtual thread pinned events on carrier threads")
+                .tag("location", location)
+                .register(meterRegistry)
+                .increment();
+        log.warn("Virtual thread pinned {}ms at {}, thread {}...", event.getDuration().toMillis(), location,
+                event.getThread() == null ? "unknown" : event.getThread().getJavaName());
+        if (log.isDebugEnabled() && event.getStackTrace() != null) {
+            event.getStackTrace().getFrames().forEach(frame -> log.debug("    at {}", formatFrame(frame)));
+        }
+    }
+
+    /**
+     * 返回栈中第一个项目代码的调用位置，没有则返回栈顶
+     */
+    private String findAppFrame(RecordedEvent event) {
+        if (event.getStackTrace() == null || event.getStackTrace().getFrames().isEmpty()) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            if (frame.getMethod().getType().getName().startsWith(APP_PACKAGE)) {
+                return formatFrame(frame);
+            }
+        }
+        return formatFrame(event.getStackTrace().getFrames().getFirst());
+    }
+
+    private String formatFrame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.bread.breadthumb.mq;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据每次写入的结果调整写缓冲的批次大小和写入间隔（AIMD）。
+ * pulsar的BatchReceivePolicy在创建consumer时固定，不能运行时修改，因此消费者以较小的超时接收消息，
+ * 写入数据库的批次大小和延迟由写缓冲决定，在这里调整：
+ * 1. 缓冲的消息数达到批次大小时写入（有积压），且写入耗时低于目标：批次大小、写入间隔加性增加，提高吞吐量
+ * 2. 定时写入的消息数不到批次大小的一半（流量低）：写入间隔减半，降低数据库的延迟
+ * 3. 写入耗时超过目标：批次大小减半
+ * 4. 写入失败：批次大小减半，写入间隔加倍，减轻数据库的压力
+ * 调整都在上下界之内。关闭时使用初始值。
+ */
+@Component
+@Slf4j
+public class AdaptiveFlushController {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.consumer.adaptive.enabled:true}")
+    private boolean enabled;
+    @Value("${thumb.consumer.buffer.max-messages:5000}") // 初始批次大小
+    private int initialBatchMessages;
+    @Value("${thumb.consumer.buffer.flush-interval-ms:500}") // 初始写入间隔
+    private long initialFlushIntervalMs;
+    @Value("${thumb.consumer.adaptive.min-batch-messages:100}")
+    private int minBatchMessages;
+    @Value("${thumb.consumer.adaptive.max-batch-messages:20000}")
+    private int maxBatchMessages;
+    @Value("${thumb.consumer.adaptive.batch-messages-step:500}") // 批次大小每次增加的消息数
+    private int batchMessagesStep;
+    @Value("${thumb.consumer.adaptive.min-flush-interval-ms:50}")
+    private long minFlushIntervalMs;
+    @Value("${thumb.consumer.adaptive.max-flush-interval-ms:2000}")
+    private long maxFlushIntervalMs;
+    @Value("${thumb.consumer.adaptive.flush-interval-step-ms:100}") // 写入间隔每次增加的时间
+    private long flushIntervalStepMs;
+    @Value("${thumb.consumer.adaptive.target-flush-latency-ms:200}") // 一次写入的目标耗时
+    private long targetFlushLatencyMs;
+
+    private volatile int batchMessages;
+    private volatile long flushIntervalMs;
+    private Counter increaseCounter;
+    private Counter decreaseCounter;
+
+    @PostConstruct
+    public void init() {
+        minBatchMessages = Math.max(minBatchMessages, 1);
+        maxBatchMessages = Math.max(maxBatchMessages, minBatchMessages);
+        minFlushIntervalMs = Math.max(minFlushIntervalMs, 1);
+        maxFlushIntervalMs = Math.max(maxFlushIntervalMs, minFlushIntervalMs);
+        batchMessages = clamp(initialBatchMessages, minBatchMessages, maxBatchMessages);
+        flushIntervalMs = clamp(initialFlushIntervalMs, minFlushIntervalMs, maxFlushIntervalMs);
+        increaseCounter = buildAdjustmentCounter("increase");
+        decreaseCounter = buildAdjustmentCounter("decrease");
+        Gauge.builder("thumb.consumer.adaptive.batch.messages", this, AdaptiveFlushController::getBatchMessages)
+                .description("Current number of buffered messages that triggers a flush")
+                .register(meterRegistry);
+        Gauge.builder("thumb.consumer.adaptive.flush.interval", this, AdaptiveFlushController::getFlushIntervalMs)
+                .description("Current interval between timed flushes in milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 缓冲的消息数达到该值时立即写入
+     */
+    public int getBatchMessages() {
+        return batchMessages;
+    }
+
+    /**
+     * 定时写入的间隔
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * 写入成功
+     * @param messages 写入的消息数
+     * @param latencyNanos 写入耗时
+     */
+    public void onFlushSucceeded(int messages, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        if (latencyMs > targetFlushLatencyMs) {
+            update(batchMessages / 2, flushIntervalMs, "flush latency " + latencyMs + "ms");
+        } else if (messages >= batchMessages) {
+            update(batchMessages + batchMessagesStep, flushIntervalMs + flushIntervalStepMs, "backlog " + messages);
+        } else if (messages < batchMessages / 2) {
+            update(batchMessages, flushIntervalMs / 2, "low traffic " + messages);
+        }
+    }
+
+    /**
+     * 写入失败
+     */
+    public void onFlushFailed() {
+        if (!enabled) {
+            return;
+        }
+        update(batchMessages / 2, flushIntervalMs * 2, "flush failed");
+    }
+
+    private void update(int newBatchMessages, long newFlushIntervalMs, String reason) {
+        newBatchMessages = clamp(newBatchMessages, minBatchMessages, maxBatchMessages);
+        newFlushIntervalMs = clamp(newFlushIntervalMs, minFlushIntervalMs, maxFlushIntervalMs);
+        if (newBatchMessages == batchMessages && newFlushIntervalMs == flushIntervalMs) {
+            return;
+        }
+        // 批次大小增加，或批次大小不变、写入间隔增加，视为提高吞吐量，否则视为降低延迟/负载
+        boolean increase = newBatchMessages > batchMessages
+                || (newBatchMessages == batchMessages && newFlushIntervalMs > flushIntervalMs);
+        (increase ? increaseCounter : decreaseCounter).increment();
+        log.debug("AdaptiveFlushController: {}, batch messages {} -> {}, flush interval {}ms -> {}ms...",
+                reason, batchMessages, newBatchMessages, flushIntervalMs, newFlushIntervalMs);
+        batchMessages = newBatchMessages;
+        flushIntervalMs = newFlushIntervalMs;
+    }
+
+    private Counter buildAdjustmentCounter(String direction) {
+        return Counter.builder("thumb.consumer.adaptive.adjustments")
+                .description("Adjustments of thumb write buffer batch size and flush interval")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.min(Math.max(value, min), max);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.min(Math.max(value, min), max);
+    }
+
+}
@@ -0,0 +1,259 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.excel.ThumbExcelElement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 死信文件：死信消息先进入有界队列，由单独的写入线程按批次追加到当天的CSV文件（{dir}/{yyyy-MM-dd}.csv），
+ * 队列中的消息数达到批次大小或距上次写入超过写入间隔时写入，日期变化时切换到新文件。
+ * 写入只追加，代价与当天已有的死信数无关；写入并force到磁盘后回调onWritten（确认消息），写入失败时回调onFailed（NACK，由broker重新投递）。
+ * 只flush到操作系统时，确认后机器宕机会丢失页缓存中的死信，而死信主题中的消息已经确认。
+ * 队列满时append阻塞，作为死信消费者的背压。
+ * <p>
+ * 文件格式：第一行为表头 messageId,userId,blogId,type,eventTime，type为INCR/DECR，eventTime为ISO格式，可能为空
+ */
+@Slf4j
+public class DlqFileSink implements AutoCloseable {
+
+    public static final String FILE_SUFFIX = ".csv";
+    private static final String HEADER = "messageId,userId,blogId,type,eventTime";
+
+    private final Path dir;
+    private final int maxBatch;
+    private final long flushIntervalMs;
+    private final BlockingQueue<PendingRow> queue;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // 只在写入线程中访问
+    private LocalDate currentDate;
+    private BufferedWriter writer;
+    private FileChannel channel;
+
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+
+    /**
+     * @param dir 死信文件所在的目录
+     * @param maxBatch 队列中的消息数达到该值时写入
+     * @param flushIntervalMs 最长写入间隔
+     * @param capacity 队列容量，队列满时append阻塞
+     */
+    public DlqFileSink(Path dir, int maxBatch, long flushIntervalMs, int capacity, MeterRegistry meterRegistry) {
+        this.dir = dir;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.flushIntervalMs = Math.max(flushIntervalMs, 1);
+        this.queue = new ArrayBlockingQueue<>(Math.max(capacity, this.maxBatch));
+        writtenCounter = Counter.builder("thumb.dlq.sink.written")
+                .description("Dead letters appended to DLQ file")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("thumb.dlq.sink.failed")
+                .description("Dead letters failed to append to DLQ file")
+                .register(meterRegistry);
+        Gauge.builder("thumb.dlq.sink.queue", queue, BlockingQueue::size)
+                .description("Dead letters waiting to be appended to DLQ file")
+                .register(meterRegistry);
+        writerThread = new Thread(this::writeLoop, "dlq-file-sink");
+        writerThread.start();
+    }
+
+    /**
+     * 将一条死信加入写入队列
+     * @param onWritten 写入文件后回调
+     * @param onFailed 写入失败时回调
+     */
+    public void append(ThumbExcelElement element, Runnable onWritten, Runnable onFailed) throws InterruptedException {
+        if (!running) {
+            onFailed.run();
+            return;
+        }
+        queue.put(new PendingRow(element, onWritten, onFailed));
+    }
+
+    /**
+     * 停止接收死信，写入队列中剩余的死信后关闭文件
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private void writeLoop() {
+        List<PendingRow> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRow row = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (row == null) {
+                        break;
+                    }
+                    batch.add(row);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        closeWriter();
+        log.info("DlqFileSink: Stopped...");
+    }
+
+    private void writeBatch(List<PendingRow> batch) {
+        try {
+            BufferedWriter fileWriter = openWriter(LocalDate.now());
+            for (PendingRow row : batch) {
+                fileWriter.write(format(row.element()));
+                fileWriter.newLine();
+            }
+            fileWriter.flush();
+            // 追加写入改变了文件大小，元数据一起写入磁盘
+            channel.force(true);
+        } catch (IOException e) {
+            log.error("DlqFileSink: Append {} dead letters failed...", batch.size(), e);
+            // 文件中可能写入了部分记录，重新投递后重复的记录在重放时去重
+            closeWriter();
+            failedCounter.increment(batch.size());
+            batch.forEach(row -> runCallback(row.onFailed()));
+            return;
+        }
+        writtenCounter.increment(batch.size());
+        batch.forEach(row -> runCallback(row.onWritten()));
+        log.info("DlqFileSink: Append {} dead letters to {}{}...", batch.size(), currentDate, FILE_SUFFIX);
+    }
+
+    /**
+     * 日期变化时切换文件，新文件写入表头
+     */
+    private BufferedWriter openWriter(LocalDate date) throws IOException {
+        if (writer != null && date.equals(currentDate)) {
+            return writer;
+        }
+        closeWriter();
+        Files.createDirectories(dir);
+        Path file = dir.resolve(date + FILE_SUFFIX);
+        boolean newFile = !Files.exists(file) || Files.size(file) == 0;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        currentDate = date;
+        if (newFile) {
+            writer.write(HEADER);
+            writer.newLine();
+            forceDirectory();
+        }
+        return writer;
+    }
+
+    /**
+     * 新文件的目录项写入磁盘。不支持打开目录的平台（Windows）上跳过
+     */
+    private void forceDirectory() {
+        try (FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            log.debug("DlqFileSink: Force directory {} skipped...", dir, e);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("DlqFileSink: Close file {} failed...", currentDate, e);
+        }
+        writer = null;
+        channel = null;
+    }
+
+    private void runCallback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warn("DlqFileSink: Callback failed...", e);
+        }
+    }
+
+    private static String format(ThumbExcelElement element) {
+        return nullToEmpty(element.getMessageId()) + "," + nullToEmpty(element.getUserId()) + "," + nullToEmpty(element.getBlogId())
+                + "," + nullToEmpty(element.getType()) + "," + nullToEmpty(element.getEventTime());
+    }
+
+    private static String nullToEmpty(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    /**
+     * 读取死信文件，无法解析的字段为null
+     */
+    public static void read(Path file, Consumer<ThumbExcelElement> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line != null && !line.equals(HEADER)) {
+                consumer.accept(parse(line));
+            }
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    consumer.accept(parse(line));
+                }
+            }
+        }
+    }
+
+    private static ThumbExcelElement parse(String line) {
+        String[] fields = line.split(",", -1);
+        ThumbExcelElement element = new ThumbExcelElement();
+        element.setMessageId(field(fields, 0));
+        try {
+            String userId = field(fields, 1);
+            element.setUserId(userId == null ? null : Long.valueOf(userId));
+            String blogId = field(fields, 2);
+            element.setBlogId(blogId == null ? null : Long.valueOf(blogId));
+            String type = field(fields, 3);
+            element.setType(type == null ? null : ThumbEvent.EventType.valueOf(type));
+            String eventTime = field(fields, 4);
+            element.setEventTime(eventTime == null ? null : LocalDateTime.parse(eventTime));
+        } catch (RuntimeException e) {
+            log.warn("DlqFileSink: Parse line failed: {}", line);
+        }
+        return element;
+    }
+
+    private static String field(String[] fields, int index) {
+        return index < fields.length && !fields[index].isEmpty() ? fields[index] : null;
+    }
+
+    private record PendingRow(ThumbExcelElement element, Runnable onWritten, Runnable onFailed) {
+    }
+
+}
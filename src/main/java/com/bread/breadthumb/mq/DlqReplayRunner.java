@@ -0,0 +1,73 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.model.dto.DlqReplayRequest;
+import com.bread.breadthumb.model.vo.DlqReplayVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 命令行执行死信重放，执行完成后退出，有写入失败的key时退出码为1。例如：
+ * java -jar thumb-backend.jar --spring.main.web-application-type=none --thumb.dlq.replay.cli.enabled=true
+ *      --thumb.dlq.replay.cli.source=FILE --thumb.dlq.replay.cli.file-path=src/main/resources/static/2025-10-20.csv
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "thumb.dlq.replay.cli.enabled", havingValue = "true")
+public class DlqReplayRunner implements ApplicationRunner {
+
+    @Autowired
+    private DlqReplayService dlqReplayService;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Value("${thumb.dlq.replay.cli.source:TOPIC}") // TOPIC / FILE
+    private String source;
+    @Value("${thumb.dlq.replay.cli.file-path:}") // 死信文件目录（thumb.dlq.sink.dir）下的文件
+    private String filePath;
+    @Value("${thumb.dlq.replay.cli.from-time:0}") // 毫秒时间戳
+    private long fromTime;
+    @Value("${thumb.dlq.replay.cli.dry-run:false}")
+    private boolean dryRun;
+    @Value("${thumb.dlq.replay.cli.progress-interval-ms:5000}") // 打印进度的间隔
+    private long progressIntervalMs;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        DlqReplayRequest request = new DlqReplayRequest();
+        request.setSource(source);
+        request.setFilePath(filePath.isEmpty() ? null : filePath);
+        request.setFromTime(fromTime);
+        request.setDryRun(dryRun);
+        ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor();
+        progressReporter.scheduleAtFixedRate(() -> {
+            DlqReplayVO progress = dlqReplayService.getRunningJob();
+            if (progress != null) {
+                log.info("DlqReplay progress: read {}, keys {}, applied {}, stale {}, invalid {}, failed {}, {} keys/s...",
+                        progress.getRead(), progress.getKeys(), progress.getApplied(), progress.getStale(),
+                        progress.getInvalid(), progress.getFailed(), String.format("%.1f", progress.getThroughput()));
+            }
+        }, progressIntervalMs, progressIntervalMs, TimeUnit.MILLISECONDS);
+        DlqReplayVO result;
+        try {
+            result = dlqReplayService.replay(request);
+        } finally {
+            progressReporter.shutdownNow();
+        }
+        log.info("DlqReplay finished: {}", result);
+        int exitCode = "COMPLETED".equals(result.getStatus()) && result.getFailed() == 0 ? 0 : 1;
+        System.exit(SpringApplication.exit(applicationContext, () -> exitCode));
+    }
+
+}
@@ -0,0 +1,427 @@
+package com.bread.breadthumb.mq;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.IdUtil;
+import com.alibaba.excel.EasyExcel;
+import com.alibaba.excel.read.listener.PageReadListener;
+import com.bread.breadthumb.common.TokenBucket;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.excel.ThumbEventTypeConverter;
+import com.bread.breadthumb.excel.ThumbExcelElement;
+import com.bread.breadthumb.exception.BusinessException;
+import com.bread.breadthumb.mapper.BlogMapper;
+import com.bread.breadthumb.model.dto.DlqReplayRequest;
+import com.bread.breadthumb.model.entity.Blog;
+import com.bread.breadthumb.model.entity.Thumb;
+import com.bread.breadthumb.model.vo.DlqReplayVO;
+import com.bread.breadthumb.util.ThumbFlushEngine;
+import com.bread.breadthumb.util.UserThumbIndex;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.Reader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 死信重放：从死信主题或导出的死信文件中读取点赞事件，按当前的点赞状态重新写入数据库。
+ * 1. 读取死信，按 userId-blogId 去重，记录每个key在死信中出现过的操作类型
+ * 2. 按blogId划分分区，各分区并发处理，同一个blog只在一个分区中写入。每个分区按批次：
+ *    校验blog在数据库中存在；从用户点赞索引（UserThumbIndex）查询用户当前是否点赞。redis中的状态是用户最新的操作，
+ *    死信中包含该操作时按该状态写入数据库，否则该操作已经被正常消费或还在队列中，跳过
+ * 3. 写入使用ThumbFlushEngine，重复写入不影响点赞记录和点赞数，重放可以重复执行
+ * 写入速度由令牌桶限制，避免重放时影响数据库。同一时间只执行一个重放任务，任务进度可以查询。
+ */
+@Service
+@Slf4j
+public class DlqReplayService {
+
+    @Autowired
+    private PulsarClient pulsarClient;
+
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+
+    @Autowired
+    private BlogMapper blogMapper;
+
+    @Autowired
+    private ThumbFlushEngine thumbFlushEngine;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.dlq.replay.admin-token:}") // 管理接口的令牌，请求头 X-Admin-Token，为空时禁用管理接口
+    private String adminToken;
+    @Value("${thumb.dlq.replay.partitions:4}") // 并发写入的分区数
+    private int partitions;
+    @Value("${thumb.dlq.replay.batch-size:500}") // 每个分区每次校验、写入的key数
+    private int batchSize;
+    @Value("${thumb.dlq.replay.permits-per-second:2000}") // 每秒写入的key数上限
+    private double permitsPerSecond;
+    @Value("${thumb.dlq.replay.read-timeout-ms:3000}") // 读取死信主题的超时时间
+    private int readTimeoutMs;
+    @Value("${thumb.dlq.sink.dir:" + Constant.MQ_DLQ_EXCEL_FILE_PATH_PREFIX + "}") // 死信文件目录，只能重放该目录下的文件
+    private String dlqSinkDir;
+
+    // 正在执行的任务
+    private final AtomicReference<ReplayJob> runningJob = new AtomicReference<>();
+    private final Cache<String, ReplayJob> jobs = Caffeine.newBuilder()
+            .maximumSize(100)
+            .build();
+    private ExecutorService jobExecutor;
+    private final Map<String, Counter> resultCounters = new ConcurrentHashMap<>();
+
+    public enum Source {
+        TOPIC,
+        FILE
+    }
+
+    @PostConstruct
+    public void init() {
+        jobExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "dlq-replay"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * 校验管理接口的令牌
+     */
+    public void checkAdminToken(String token) {
+        if (adminToken.isEmpty() || token == null
+                || !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            throw new BusinessException(HttpStatus.FORBIDDEN.value(), Constant.DLQ_REPLAY_FORBIDDEN);
+        }
+    }
+
+    /**
+     * 在后台执行重放任务
+     */
+    public DlqReplayVO start(DlqReplayRequest request) {
+        ReplayJob job = newJob(request);
+        try {
+            jobExecutor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            runningJob.set(null);
+            throw e;
+        }
+        return job.toVO();
+    }
+
+    /**
+     * 在当前线程中执行重放任务
+     */
+    public DlqReplayVO replay(DlqReplayRequest request) {
+        ReplayJob job = newJob(request);
+        run(job);
+        return job.toVO();
+    }
+
+    public DlqReplayVO getJob(String jobId) {
+        ReplayJob job = jobId == null ? null : jobs.getIfPresent(jobId);
+        if (job == null) {
+            throw new BusinessException(HttpStatus.NOT_FOUND.value(), Constant.DLQ_REPLAY_NOT_FOUND);
+        }
+        return job.toVO();
+    }
+
+    /**
+     * 正在执行的任务，没有时返回null
+     */
+    public DlqReplayVO getRunningJob() {
+        ReplayJob job = runningJob.get();
+        return job == null ? null : job.toVO();
+    }
+
+    private ReplayJob newJob(DlqReplayRequest request) {
+        Source source;
+        try {
+            source = Source.valueOf(request.getSource());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), Constant.DLQ_REPLAY_INVALID_PARAMS);
+        }
+        Path filePath = null;
+        if (source == Source.FILE) {
+            filePath = resolveDlqFile(request.getFilePath());
+            if (filePath == null) {
+                throw new BusinessException(HttpStatus.BAD_REQUEST.value(), Constant.DLQ_REPLAY_INVALID_PARAMS);
+            }
+        }
+        ReplayJob job = new ReplayJob(IdUtil.fastSimpleUUID(), source, filePath == null ? null : filePath.toString(),
+                request.getFromTime() == null ? 0 : request.getFromTime(), Boolean.TRUE.equals(request.getDryRun()));
+        if (!runningJob.compareAndSet(null, job)) {
+            throw new BusinessException(HttpStatus.CONFLICT.value(), Constant.DLQ_REPLAY_RUNNING);
+        }
+        jobs.put(job.jobId, job);
+        return job;
+    }
+
+    /**
+     * 死信文件只能位于死信文件目录（thumb.dlq.sink.dir）下，相对路径按该目录解析。
+     * 解析符号链接后比较，不在目录下或不是普通文件时返回null
+     */
+    private Path resolveDlqFile(String filePath) {
+        if (filePath == null || filePath.isBlank()) {
+            return null;
+        }
+        try {
+            Path dir = Path.of(dlqSinkDir).toRealPath();
+            Path file = dir.resolve(filePath).toRealPath();
+            return file.startsWith(dir) && Files.isRegularFile(file) ? file : null;
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private void run(ReplayJob job) {
+        log.info("DlqReplay {}: Start, source {} {}, from {}, dry run {}...", job.jobId, job.source, job.filePath, job.fromTime, job.dryRun);
+        try {
+            Map<ReplayKey, Integer> keys = job.source == Source.TOPIC ? readTopic(job) : readFile(job);
+            job.keys.set(keys.size());
+            log.info("DlqReplay {}: Read {} dead letters, {} keys...", job.jobId, job.read.get(), keys.size());
+            // 按blogId划分分区，各分区并发写入
+            List<List<Map.Entry<ReplayKey, Integer>>> partitionList = new ArrayList<>();
+            for (int i = 0; i < Math.max(partitions, 1); i++) {
+                partitionList.add(new ArrayList<>());
+            }
+            for (Map.Entry<ReplayKey, Integer> entry : keys.entrySet()) {
+                partitionList.get(Math.floorMod(Long.hashCode(entry.getKey().blogId()), partitionList.size())).add(entry);
+            }
+            TokenBucket rateLimiter = new TokenBucket(permitsPerSecond, Math.max(batchSize, 1));
+            try (ExecutorService partitionExecutor = Executors.newFixedThreadPool(partitionList.size())) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (List<Map.Entry<ReplayKey, Integer>> partition : partitionList) {
+                    futures.add(partitionExecutor.submit(() -> {
+                        replayPartition(job, partition, rateLimiter);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            job.finish("COMPLETED", null);
+        } catch (Exception e) {
+            log.error("DlqReplay {}: Failed...", job.jobId, e);
+            job.finish("FAILED", e.getMessage());
+        } finally {
+            runningJob.compareAndSet(job, null);
+        }
+        log.info("DlqReplay {}: {}", job.jobId, job.toVO());
+    }
+
+    private void replayPartition(ReplayJob job, List<Map.Entry<ReplayKey, Integer>> partition, TokenBucket rateLimiter)
+            throws InterruptedException {
+        for (List<Map.Entry<ReplayKey, Integer>> batch : ListUtil.partition(partition, Math.max(batchSize, 1))) {
+            // 校验blog存在
+            Set<Long> blogIds = batch.stream().map(entry -> entry.getKey().blogId()).collect(Collectors.toSet());
+            Set<Long> existingBlogIds = blogMapper.selectBatchIds(blogIds).stream().map(Blog::getId).collect(Collectors.toSet());
+            // 查询用户当前的点赞状态，每个用户一次请求
+            Map<Long, List<ReplayKey>> userKeys = new HashMap<>();
+            for (Map.Entry<ReplayKey, Integer> entry : batch) {
+                if (existingBlogIds.contains(entry.getKey().blogId())) {
+                    userKeys.computeIfAbsent(entry.getKey().userId(), id -> new ArrayList<>()).add(entry.getKey());
+                } else {
+                    job.invalid.incrementAndGet();
+                    count("invalid", 1);
+                }
+            }
+            Map<ReplayKey, Integer> typeMap = batch.stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+            Map<Long, List<Thumb>> thumbedMap = new HashMap<>();
+            Map<Long, List<Thumb>> unthumbedMap = new HashMap<>();
+            int applying = 0;
+            for (Map.Entry<Long, List<ReplayKey>> entry : userKeys.entrySet()) {
+                List<Boolean> thumbedList = userThumbIndex.contains(entry.getKey(), entry.getValue().stream().map(ReplayKey::blogId).toList());
+                for (int i = 0; i < entry.getValue().size(); i++) {
+                    ReplayKey key = entry.getValue().get(i);
+                    boolean thumbed = thumbedList.get(i);
+                    ThumbEvent.EventType latestType = thumbed ? ThumbEvent.EventType.INCR : ThumbEvent.EventType.DECR;
+                    if ((typeMap.get(key) & typeBit(latestType)) == 0) {
+                        job.stale.incrementAndGet();
+                        count("stale", 1);
+                        continue;
+                    }
+                    Thumb thumb = new Thumb();
+                    thumb.setUserId(key.userId());
+                    thumb.setBlogId(key.blogId());
+                    (thumbed ? thumbedMap : unthumbedMap).computeIfAbsent(key.blogId(), id -> new ArrayList<>()).add(thumb);
+                    applying++;
+                }
+            }
+            if (applying == 0) {
+                continue;
+            }
+            rateLimiter.acquire(applying);
+            if (job.dryRun) {
+                job.applied.addAndGet(applying);
+                continue;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> thumbFlushEngine.flush(thumbedMap, unthumbedMap));
+                job.applied.addAndGet(applying);
+                count("applied", applying);
+            } catch (RuntimeException e) {
+                log.error("DlqReplay {}: Write {} keys failed...", job.jobId, applying, e);
+                job.failed.addAndGet(applying);
+                count("failed", applying);
+            }
+        }
+    }
+
+    /**
+     * 从死信主题的最早位置读取到当前的最后一条消息，不影响死信主题的订阅
+     */
+    private Map<ReplayKey, Integer> readTopic(ReplayJob job) throws Exception {
+        Map<ReplayKey, Integer> keys = new HashMap<>();
+        try (Reader<ThumbEvent> reader = pulsarClient.newReader(ThumbEventSchema.INSTANCE)
+                .topic(Constant.MQ_DEAD_LETTER_TOPIC)
+                .startMessageId(MessageId.earliest)
+                .create()) {
+            while (reader.hasMessageAvailable()) {
+                Message<ThumbEvent> message = reader.readNext(readTimeoutMs, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    break;
+                }
+                if (message.getPublishTime() >= job.fromTime) {
+                    addEvent(job, keys, message.getValue());
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 读取死信文件：DlqFileSink写入的csv文件，或之前导出的xlsx文件
+     */
+    private Map<ReplayKey, Integer> readFile(ReplayJob job) throws IOException {
+        Map<ReplayKey, Integer> keys = new HashMap<>();
+        Consumer<ThumbExcelElement> elementConsumer = element -> {
+            LocalDateTime eventTime = element.getEventTime();
+            if (eventTime == null || eventTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() >= job.fromTime) {
+                addEvent(job, keys, new ThumbEvent(element.getUserId(), element.getBlogId(), element.getType(), eventTime));
+            }
+        };
+        if (job.filePath.endsWith(DlqFileSink.FILE_SUFFIX)) {
+            DlqFileSink.read(Path.of(job.filePath), elementConsumer);
+            return keys;
+        }
+        EasyExcel.read(job.filePath, ThumbExcelElement.class, new PageReadListener<ThumbExcelElement>(elements -> elements.forEach(elementConsumer)))
+                .registerConverter(ThumbEventTypeConverter.INSTANCE)
+                .sheet()
+                .doRead();
+        return keys;
+    }
+
+    private void addEvent(ReplayJob job, Map<ReplayKey, Integer> keys, ThumbEvent thumbEvent) {
+        job.read.incrementAndGet();
+        if (thumbEvent == null || thumbEvent.getUserId() == null || thumbEvent.getBlogId() == null || thumbEvent.getType() == null) {
+            job.invalid.incrementAndGet();
+            count("invalid", 1);
+            return;
+        }
+        keys.merge(new ReplayKey(thumbEvent.getUserId(), thumbEvent.getBlogId()), typeBit(thumbEvent.getType()), (a, b) -> a | b);
+    }
+
+    private static int typeBit(ThumbEvent.EventType type) {
+        return type == ThumbEvent.EventType.INCR ? 1 : 2;
+    }
+
+    private void count(String result, long amount) {
+        resultCounters.computeIfAbsent(result, r -> Counter.builder("thumb.dlq.replay.keys")
+                .description("Dead letter keys processed by replay")
+                .tag("result", r)
+                .register(meterRegistry)).increment(amount);
+    }
+
+    private record ReplayKey(long userId, long blogId) {
+    }
+
+    private static class ReplayJob {
+        private final String jobId;
+        private final Source source;
+        private final String filePath;
+        private final long fromTime;
+        private final boolean dryRun;
+        private final LocalDateTime startTime = LocalDateTime.now();
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong keys = new AtomicLong();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong stale = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile String status = "RUNNING";
+        private volatile String message;
+        private volatile LocalDateTime endTime;
+        private volatile long endNanos;
+
+        private ReplayJob(String jobId, Source source, String filePath, long fromTime, boolean dryRun) {
+            this.jobId = jobId;
+            this.source = source;
+            this.filePath = filePath;
+            this.fromTime = fromTime;
+            this.dryRun = dryRun;
+        }
+
+        private void finish(String status, String message) {
+            this.endNanos = System.nanoTime();
+            this.endTime = LocalDateTime.now();
+            this.message = message;
+            this.status = status;
+        }
+
+        private DlqReplayVO toVO() {
+            DlqReplayVO vo = new DlqReplayVO();
+            vo.setJobId(jobId);
+            vo.setSource(source.name());
+            vo.setDryRun(dryRun);
+            vo.setStatus(status);
+            vo.setRead(read.get());
+            vo.setKeys(keys.get());
+            vo.setApplied(applied.get());
+            vo.setStale(stale.get());
+            vo.setInvalid(invalid.get());
+            vo.setFailed(failed.get());
+            long processed = applied.get() + stale.get() + invalid.get() + failed.get();
+            long elapsedNanos = (endTime == null ? System.nanoTime() : endNanos) - startNanos;
+            vo.setThroughput(elapsedNanos <= 0 ? 0 : processed / (elapsedNanos / (double) Duration.ofSeconds(1).toNanos()));
+            vo.setMessage(message);
+            vo.setStartTime(startTime);
+            vo.setEndTime(endTime);
+            return vo;
+        }
+    }
+
+}
@@ -1,133 +1,199 @@
 package com.bread.breadthumb.mq;
 
 import cn.hutool.core.bean.BeanUtil;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.bread.breadthumb.constant.Constant;
-import com.bread.breadthumb.excel.ExportService;
 import com.bread.breadthumb.excel.ThumbExcelElement;
-import com.bread.breadthumb.mapper.BlogMapper;
 import com.bread.breadthumb.model.entity.Thumb;
-import com.bread.breadthumb.service.ThumbService;
+import com.bread.breadthumb.monitor.ThumbPipelineMetrics;
+import com.bread.breadthumb.util.ThumbFlushEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.SubscriptionType;
-import org.apache.pulsar.common.schema.SchemaType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.pulsar.annotation.PulsarListener;
+import org.springframework.pulsar.listener.AckMode;
+import org.springframework.pulsar.listener.Acknowledgement;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.LocalDate;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class ThumbConsumer {
 
-    private final BlogMapper blogMapper;
-    private final ThumbService thumbService;
-    private final ExportService exportService;
+    private final ThumbFlushEngine thumbFlushEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final AdaptiveFlushController flushController;
+    private final ThumbPipelineMetrics pipelineMetrics;
+
+    @Value("${thumb.consumer.partitions:4}") // 每批消息按blogId划分的分区数，分区并发写入数据库
+    private int partitionCount;
+    @Value("${thumb.consumer.flush-threads:8}") // 所有消费者共用的分区写入线程数
+    private int flushThreads;
+    @Value("${thumb.consumer.partition-retries:2}") // 分区写入失败时的重试次数
+    private int partitionRetries;
+    @Value("${thumb.consumer.buffer.max-flush-attempts:3}") // 缓冲区连续写入失败的次数达到该值时阻塞消费者，重试直到写入成功
+    private int bufferMaxFlushAttempts;
+    @Value("${thumb.consumer.buffer.retry-backoff-ms:100}") // 阻塞时重试写入的初始间隔，每次失败翻倍，最长为初始间隔的50倍
+    private long bufferRetryBackoffMs;
+    @Value("${thumb.dlq.sink.dir:" + Constant.MQ_DLQ_EXCEL_FILE_PATH_PREFIX + "}") // 死信文件目录，每天一个文件
+    private String dlqSinkDir;
+    @Value("${thumb.dlq.sink.max-batch:1000}") // 死信数达到该值时写入文件
+    private int dlqSinkMaxBatch;
+    @Value("${thumb.dlq.sink.flush-interval-ms:1000}") // 死信写入文件的最长间隔
+    private long dlqSinkFlushIntervalMs;
+    @Value("${thumb.dlq.sink.capacity:10000}") // 等待写入文件的死信数上限，达到上限时阻塞死信消费者
+    private int dlqSinkCapacity;
+
+    private ThreadPoolExecutor thumbFlushExecutor;
+    private ScheduledExecutorService bufferFlushScheduler;
+    private ThumbWriteBuffer writeBuffer;
+    private DlqFileSink dlqFileSink;
+
+    @PostConstruct
+    public void init() {
+        // 有界队列，线程池满时由消费者线程自己写入
+        AtomicInteger threadIndex = new AtomicInteger();
+        thumbFlushExecutor = new ThreadPoolExecutor(flushThreads, flushThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(flushThreads * 4),
+                runnable -> new Thread(runnable, "thumb-flush-" + threadIndex.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        writeBuffer = new ThumbWriteBuffer(this::writeFinalStates, flushController, bufferMaxFlushAttempts, bufferRetryBackoffMs,
+                pipelineMetrics, meterRegistry);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, "thumb-buffer-flush"));
+        // 关闭时不等待下一次定时写入，剩余的消息由destroy写入
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        bufferFlushScheduler = scheduler;
+        scheduleBufferFlush();
+        dlqFileSink = new DlqFileSink(Path.of(dlqSinkDir), dlqSinkMaxBatch, dlqSinkFlushIntervalMs, dlqSinkCapacity, meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        bufferFlushScheduler.shutdown();
+        bufferFlushScheduler.awaitTermination(30, TimeUnit.SECONDS);
+        // 写入剩余的消息，失败时消息未确认，由broker重新投递
+        flushBuffer();
+        thumbFlushExecutor.shutdown();
+        thumbFlushExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        dlqFileSink.close();
+    }
 
     @PulsarListener(
             topics = Constant.MQ_THUMB_TOPIC,
             subscriptionName = Constant.MQ_THUMB_SUBSCRIPTION,
             subscriptionType = SubscriptionType.Key_Shared,
             concurrency = Constant.MQ_CONSUMER_CONCURRENCY,
-            schemaType = SchemaType.JSON,
             batch = true,
+            ackMode = AckMode.MANUAL,
             consumerCustomizer = "thumbConsumerCustomizer"
     )
-    @Transactional(rollbackFor = Exception.class)
-    public void consumeMessageBatch(List<Message<ThumbEvent>> messages) {
-        String consumerName = Thread.currentThread().getName();
-        log.info("ThumbConsumer {}: processBatch {}...", consumerName, messages.size());
-        // 过滤无效消息，按照key（userId-blogId）进行分组，分组后收集成ThumbEvent列表并按照时间排序，取最后一个事件作为等效最终事件
-        // key是userId-blogId，value是一个ThumbEvent，表示userId对blogId一系列点赞/取消点赞行为的最终效果
-        Map<String, ThumbEvent> lastEventMap = messages.stream()
-                .filter(Objects::nonNull)
-                .collect(Collectors.groupingBy(
-                        // 按照key分组
-                        Message::getKey, Collectors.mapping(
-                                // 组中对每个Message进行映射，获取ThumbEvent
-                                Message::getValue, Collectors.filtering(
-                                        // 对每个ThumbEvent进行过滤并收集
-                                        Objects::nonNull, Collectors.collectingAndThen(
-                                                Collectors.toList(), list -> {
-                                                    // 如果集合长度为偶数，则表示点赞/取消点赞行为抵消，返回null
-                                                    if (list.size() % 2 == 0) {
-                                                        return null;
-                                                    }
-                                                    // 按照时间升序排序，取最后一个Event作为最终事件
-                                                    list.sort(Comparator.comparing(ThumbEvent::getEventTime));
-                                                    return list.getLast();
-                                                }
-                                        )
-                                )
-                        )
-                ));
-        // thumbList记录需要插入数据库的Thumb，deleteWrapper记录需要删除的Thumb，countMap记录每个blogId的点赞数变化量.
-        // 使用ConcurrentHashMap保证map单个操作的并发安全性
-        List<Thumb> thumbList = new ArrayList<>();
-        AtomicBoolean needDelete = new AtomicBoolean(false);
-        LambdaQueryWrapper<Thumb> deleteWrapper = new LambdaQueryWrapper<>();
-        Map<Long, Long> countMap = new ConcurrentHashMap<>();
-        // 对每个最终事件进行处理
-        lastEventMap.forEach((userIdBlogId, finalEvent) -> {
-            if (finalEvent == null){
-                // 点赞/取消点赞行为抵消，忽略
-                log.info("ThumbConsumer {}: {} 点赞行为抵消，忽略...", consumerName, userIdBlogId);
-                return;
-            }
-            ThumbEvent.EventType finalAction = finalEvent.getType();
-            Long userId = finalEvent.getUserId();
-            Long blogId = finalEvent.getBlogId();
-            if (finalAction == ThumbEvent.EventType.INCR){
-                log.info("ThumbConsumer {}: {} 点赞...", consumerName, userIdBlogId);
-                Thumb thumb = new Thumb();
-                thumb.setUserId(userId);
-                thumb.setBlogId(blogId);
-                thumb.setCreateTime(finalEvent.getEventTime());
-                thumbList.add(thumb);
-                countMap.merge(blogId, 1L, Long::sum);
-            }else {
-                log.info("ThumbConsumer {}: {} 取消点赞...", consumerName, userIdBlogId);
-                needDelete.set(true);
-                deleteWrapper.or().eq(Thumb::getUserId, userId).eq(Thumb::getBlogId, blogId);
-                countMap.merge(blogId, -1L, Long::sum);
-            }
-        });
-        // 批量更新数据库
-        if (needDelete.get()){
-            thumbService.remove(deleteWrapper);
-        }
-        batchUpdateBlogs(countMap);
-        batchUpdateThumbs(thumbList);
-        log.info("ThumbConsumer {}: processBatch {} done.", consumerName, messages.size());
+    public void consumeMessageBatch(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+        log.info("ThumbConsumer {}: processBatch {}...", Thread.currentThread().getName(), messages.size());
+        // 消息加入写缓冲区，与其他批次一起归约后写入数据库，写入提交后确认
+        writeBuffer.add(messages, acknowledgement);
     }
 
-    @PulsarListener(topics = Constant.MQ_DEAD_LETTER_TOPIC)
-    public void consumeDlq(Message<ThumbEvent> message){
+    @PulsarListener(topics = Constant.MQ_DEAD_LETTER_TOPIC, ackMode = AckMode.MANUAL)
+    public void consumeDlq(Message<ThumbEvent> message, Acknowledgement acknowledgement) throws InterruptedException {
         ThumbExcelElement excelElement = BeanUtil.copyProperties(message.getValue(), ThumbExcelElement.class);
         excelElement.setMessageId(message.getMessageId().toString());
-        // 将死信消息写入excel文件
-        exportService.exportData(Constant.MQ_DLQ_EXCEL_FILE_PATH_PREFIX + LocalDate.now() + ".xlsx",
-                "Dead Letters", List.of(excelElement), ThumbExcelElement.class);
+        // 将死信追加到当天的死信文件，由写入线程批量写入，写入后确认
+        MessageId messageId = message.getMessageId();
+        dlqFileSink.append(excelElement, () -> acknowledgement.acknowledge(messageId), () -> acknowledgement.nack(messageId));
+    }
+
+    private void flushBuffer() {
+        try {
+            writeBuffer.flush();
+        } catch (Exception e) {
+            log.error("ThumbConsumer: Flush buffer failed...", e);
+        }
+    }
+
+    /**
+     * 写入间隔会被调整，每次写入后按当前的间隔重新调度
+     */
+    private void scheduleBufferFlush() {
+        try {
+            bufferFlushScheduler.schedule(() -> {
+                flushBuffer();
+                scheduleBufferFlush();
+            }, flushController.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.info("ThumbConsumer: Buffer flush scheduler stopped...");
+        }
     }
 
-    public void batchUpdateBlogs(Map<Long, Long> countMap){
-        if (!countMap.isEmpty()){
-            blogMapper.batchUpdateThumbCount(countMap);
+    /**
+     * 将归约后的最终状态写入数据库，失败时抛出异常
+     */
+    private void writeFinalStates(ThumbEventReducer reducer) {
+        // 按blogId将最终状态划分到不同的分区，同一个blog的点赞记录和点赞数只在一个分区中修改，分区之间没有行锁冲突
+        ThumbWritePartition[] partitions = new ThumbWritePartition[Math.max(partitionCount, 1)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new ThumbWritePartition();
+        }
+        reducer.forEachFinalState((userId, blogId, thumbed, lastEvent) -> {
+            ThumbWritePartition partition = partitions[Math.floorMod(Long.hashCode(blogId), partitions.length)];
+            Thumb thumb = new Thumb();
+            thumb.setUserId(userId);
+            thumb.setBlogId(blogId);
+            thumb.setCreateTime(lastEvent.getEventTime());
+            (thumbed ? partition.thumbedMap : partition.unthumbedMap).computeIfAbsent(blogId, id -> new ArrayList<>()).add(thumb);
+        });
+        // 各分区在线程池中并发写入数据库，每个分区一个事务。任意分区失败时整个缓冲区重新写入
+        List<CompletableFuture<Void>> futures = new ArrayList<>(partitions.length);
+        for (ThumbWritePartition partition : partitions) {
+            if (!partition.isEmpty()) {
+                futures.add(CompletableFuture.runAsync(() -> flushPartition(partition), thumbFlushExecutor));
+            }
         }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        log.info("ThumbConsumer: Write {} keys, {} partitions.", reducer.size(), futures.size());
     }
 
-    public void batchUpdateThumbs(List<Thumb> thumbList){
-        if (!thumbList.isEmpty()){
-            // 分批次插入
-            thumbService.saveBatch(thumbList, 500);
+    /**
+     * 在一个事务中将一个分区中的点赞记录修改为最终状态。失败时重试，减少整批重新投递时已提交的分区被重复执行。
+     * 消息可能重新投递，最终状态可能已经写入数据库：ThumbFlushEngine跳过已存在的点赞记录，只删除存在的记录，点赞数按实际影响的行数计算
+     */
+    private void flushPartition(ThumbWritePartition partition) {
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                transactionTemplate.executeWithoutResult(status -> thumbFlushEngine.flush(partition.thumbedMap, partition.unthumbedMap));
+                pipelineMetrics.recordPartitionFlush(System.nanoTime() - start, true);
+                return;
+            } catch (RuntimeException e) {
+                pipelineMetrics.recordPartitionFlush(System.nanoTime() - start, false);
+                if (attempt >= partitionRetries) {
+                    throw e;
+                }
+                log.warn("ThumbConsumer: Flush partition failed, retry {}...", attempt + 1, e);
+            }
+        }
+    }
+
+    /**
+     * 一个分区中需要写入数据库的数据：按blogId分组的最终为点赞、取消点赞的记录
+     */
+    private static class ThumbWritePartition {
+        private final Map<Long, List<Thumb>> thumbedMap = new HashMap<>();
+        private final Map<Long, List<Thumb>> unthumbedMap = new HashMap<>();
+
+        private boolean isEmpty() {
+            return thumbedMap.isEmpty() && unthumbedMap.isEmpty();
         }
     }
 
@@ -0,0 +1,130 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.constant.Constant;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.Reader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 每个节点通过Reader读取点赞主题的全部消息（不创建订阅，不影响ThumbConsumer的确认），用于维护节点本地的派生数据，
+ * 如LocalThumbBloomFilter：其他节点的点赞在消息发布后很快（毫秒级）被本节点读取。
+ * 1. start：后台线程从指定时间之前开始持续读取，出错后从最近一次追上的位置之前重新读取
+ * 2. replay：从指定时间之前读取到当前的最后一条消息，在调用线程中执行
+ * syncedAt为已读取到的位置：读取超时（没有新消息）时为当前时间，否则为最近一条消息的发布时间。
+ */
+@Component
+@Slf4j
+public class ThumbEventFollower {
+
+    @Autowired
+    private PulsarClient pulsarClient;
+
+    @Value("${thumb.local-bloom.follower.read-timeout-ms:100}") // 读取消息的超时时间，超时视为已读取到最新的消息
+    private int readTimeoutMs;
+    @Value("${thumb.local-bloom.follower.retry-interval-ms:1000}") // 读取出错后重新创建Reader的间隔
+    private long retryIntervalMs;
+
+    private volatile boolean running;
+    private volatile long syncedAt;
+    private Thread thread;
+
+    /**
+     * 在后台线程中持续读取
+     * @param rollbackMs 从当前时间之前多久开始读取
+     * @param listener 每条消息的回调，在读取线程中执行
+     */
+    public synchronized void start(long rollbackMs, Consumer<ThumbEvent> listener) {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(() -> follow(rollbackMs, listener), "thumb-event-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 最近一次读取到的位置（毫秒时间戳），还没有开始读取时为0
+     */
+    public long getSyncedAt() {
+        return syncedAt;
+    }
+
+    private void follow(long rollbackMs, Consumer<ThumbEvent> listener) {
+        long rollback = rollbackMs;
+        while (running) {
+            try (Reader<ThumbEvent> reader = newReader(rollback)) {
+                log.info("ThumbEventFollower: Following {} from {}ms ago...", Constant.MQ_THUMB_TOPIC, rollback);
+                while (running) {
+                    Message<ThumbEvent> message = reader.readNext(readTimeoutMs, TimeUnit.MILLISECONDS);
+                    if (message == null) {
+                        syncedAt = System.currentTimeMillis();
+                        continue;
+                    }
+                    if (message.getValue() != null) {
+                        listener.accept(message.getValue());
+                    }
+                    syncedAt = Math.max(syncedAt, message.getPublishTime());
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("ThumbEventFollower: Read {} failed, retry in {}ms...", Constant.MQ_THUMB_TOPIC, retryIntervalMs, e);
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // 从最近一次读取到的位置之前重新读取，不遗漏出错期间的消息
+                if (syncedAt > 0) {
+                    rollback = Math.max(rollbackMs, System.currentTimeMillis() - syncedAt + retryIntervalMs);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从当前时间之前rollbackMs开始读取到当前的最后一条消息
+     */
+    public void replay(long rollbackMs, Consumer<ThumbEvent> listener) throws IOException {
+        try (Reader<ThumbEvent> reader = newReader(rollbackMs)) {
+            while (reader.hasMessageAvailable()) {
+                Message<ThumbEvent> message = reader.readNext(readTimeoutMs, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    break;
+                }
+                if (message.getValue() != null) {
+                    listener.accept(message.getValue());
+                }
+            }
+        }
+    }
+
+    private Reader<ThumbEvent> newReader(long rollbackMs) throws PulsarClientException {
+        return pulsarClient.newReader(ThumbEventSchema.INSTANCE)
+                .topic(Constant.MQ_THUMB_TOPIC)
+                .startMessageFromRollbackDuration(rollbackMs, TimeUnit.MILLISECONDS)
+                .create();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+}
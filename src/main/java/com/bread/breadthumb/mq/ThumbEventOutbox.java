@@ -0,0 +1,419 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.constant.Constant;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.MessageId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * ThumbEvent本地发件箱。
+ * 消息发送失败时不再回滚redis，而是把消息追加写入本地的内存映射日志文件，由后台任务在broker恢复后按写入顺序重新发送。
+ * 发件箱中还有未发送的消息时，新的消息也先写入发件箱，保证同一个 userId-blogId 的消息顺序。
+ * 直接发送的消息在结果确定之前（可能失败后写入发件箱），同一个key的新消息排在它之后，结果确定后再决定直接发送还是写入发件箱，
+ * 避免新消息先于发送失败的旧消息到达broker。
+ * <p>
+ * 文件格式：header(8字节，已发送到的位置) + 记录。每条记录为 length(4) + crc32(4) + ThumbEventSchema编码的消息，
+ * 每次追加后在末尾写入length=0作为结束标记，重启时从已发送位置扫描到结束标记或crc校验失败处恢复写入位置。
+ * 所有消息发送完后从头开始写；一直有少量未发送的消息时，写入位置超过一半或文件写满时把未发送的记录搬到文件开头（压缩已发送的部分），
+ * 只在已发送部分不小于未发送部分时压缩，搬移的目标区域与原记录不重叠，搬移完成前header仍指向原记录，中途宕机不会丢失消息。
+ * 压缩后仍然写不下时写入失败，由调用方回滚redis。
+ * 发件箱中有未发送的消息时，每秒在 thumb:outbox:pending（zset，score为过期时间）中续期本节点的标记，
+ * 其他节点的LocalThumbBloomFilter在标记有效期间不使用布隆过滤器（这些点赞已写入redis，但还没有发布到点赞主题）。
+ */
+@Component
+@Slf4j
+public class ThumbEventOutbox {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    @Autowired
+    private ThumbEventProducer thumbEventProducer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${thumb.outbox.path:data/thumb-outbox.journal}")
+    private String path;
+    @Value("${thumb.outbox.capacity-mb:64}")
+    private int capacityMb;
+    @Value("${thumb.outbox.drain-batch-size:500}")
+    private int drainBatchSize;
+    @Value("${thumb.outbox.force-on-append:false}") // 每次写入都刷盘，防止机器宕机丢失消息
+    private boolean forceOnAppend;
+    @Value("${thumb.outbox.pending-ttl-ms:5000}") // thumb:outbox:pending 中本节点标记的有效时间，每秒续期
+    private long pendingTtlMs;
+
+    // thumb:outbox:pending 中本节点的标记
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+    private volatile boolean advertised;
+    private ScheduledExecutorService advertiseExecutor;
+
+    // 使用ReentrantLock而不是synchronized，虚拟线程等待锁时不会占用载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    // 下一条待发送记录的位置
+    private int readPosition;
+    // 下一条记录的写入位置
+    private int writePosition;
+    // 结果还未确定的直接发送，key为 userId-blogId，value在发送成功或写入发件箱（或回滚）后完成
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> unresolvedSends = new ConcurrentHashMap<>();
+
+    public enum AppendResult {
+        // 写入了发件箱
+        APPENDED,
+        // 发件箱中没有未发送的消息，没有写入
+        NOT_PENDING,
+        // 发件箱中有未发送的消息，但已满，没有写入
+        FULL
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path journalPath = Path.of(path);
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacityMb * 1024 * 1024);
+        readPosition = (int) buffer.getLong(0);
+        if (readPosition < HEADER_SIZE || readPosition >= buffer.capacity()) {
+            readPosition = HEADER_SIZE;
+        }
+        // 从已发送的位置扫描，恢复写入位置
+        writePosition = readPosition;
+        while (readRecord(writePosition) != null) {
+            writePosition += RECORD_HEADER_SIZE + buffer.getInt(writePosition);
+        }
+        Gauge.builder("thumb.outbox.pending.bytes", this, outbox -> outbox.pendingBytes())
+                .description("Bytes of thumb events waiting in local outbox")
+                .register(meterRegistry);
+        log.info("ThumbEventOutbox opened {}, pending bytes {}...", journalPath.toAbsolutePath(), writePosition - readPosition);
+        advertiseExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "thumb-outbox-advertise");
+            thread.setDaemon(true);
+            return thread;
+        });
+        advertiseExecutor.scheduleAtFixedRate(this::advertisePending, 0, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        advertiseExecutor.shutdownNow();
+        lock.lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean hasPending() {
+        lock.lock();
+        try {
+            return writePosition > readPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int pendingBytes() {
+        lock.lock();
+        try {
+            return writePosition - readPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发件箱中还有未发送的消息时，将消息追加到发件箱末尾
+     */
+    public AppendResult appendIfPending(ThumbEvent thumbEvent) {
+        lock.lock();
+        try {
+            if (!hasPending()) {
+                return AppendResult.NOT_PENDING;
+            }
+            return append(thumbEvent) ? AppendResult.APPENDED : AppendResult.FULL;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发送redis中已生效的点赞/取消点赞消息，保证同一个key的消息按调用顺序到达broker：
+     * 1. 同一个key有结果还未确定的直接发送时，排在它之后，结果确定后再按2、3处理；此后写入发件箱失败时在后台执行rollback
+     * 2. 发件箱中有未发送的消息时写入发件箱，发件箱已满时返回false，由调用方回滚redis并返回429
+     * 3. 否则直接发送，发送失败时写入发件箱，发件箱已满时执行rollback
+     * @param rollback 消息无法发送也无法写入发件箱时回滚redis
+     * @return 发件箱已满时返回false，消息没有发送，调用方需要回滚redis
+     */
+    public boolean publish(ThumbEvent thumbEvent, Runnable rollback) {
+        String key = ThumbEventProducer.getMessageKey(thumbEvent);
+        CompletableFuture<Void> resolved = new CompletableFuture<>();
+        CompletableFuture<Void> previous = unresolvedSends.put(key, resolved);
+        if (previous != null) {
+            previous.whenComplete((ignored, throwable) -> {
+                try {
+                    if (!route(thumbEvent, key, resolved, rollback)) {
+                        log.error("ThumbEventOutbox: Outbox is full, rollback thumb event {}...", key);
+                        rollback.run();
+                    }
+                } catch (Exception e) {
+                    log.error("ThumbEventOutbox: Publish thumb event {} failed...", key, e);
+                }
+            });
+            return true;
+        }
+        return route(thumbEvent, key, resolved, rollback);
+    }
+
+    /**
+     * 写入发件箱或直接发送。发件箱已满时返回false；直接发送失败后写入发件箱也失败时执行rollback
+     */
+    private boolean route(ThumbEvent thumbEvent, String key, CompletableFuture<Void> resolved, Runnable rollback) {
+        AppendResult appendResult;
+        try {
+            appendResult = appendIfPending(thumbEvent);
+        } catch (RuntimeException e) {
+            resolve(key, resolved);
+            throw e;
+        }
+        if (appendResult != AppendResult.NOT_PENDING) {
+            resolve(key, resolved);
+            return appendResult == AppendResult.APPENDED;
+        }
+        thumbEventProducer.sendAsync(thumbEvent).whenComplete((messageId, throwable) -> {
+            try {
+                if (throwable == null) {
+                    log.info("ThumbEventOutbox: Send thumb event {} successfully. Message {}...", key, messageId);
+                    return;
+                }
+                log.error("ThumbEventOutbox: Send thumb event {} failed. Write to outbox...", key, throwable);
+                boolean appended;
+                try {
+                    appended = append(thumbEvent);
+                } catch (Exception e) {
+                    log.error("ThumbEventOutbox: Write thumb event {} to outbox failed...", key, e);
+                    appended = false;
+                }
+                if (!appended) {
+                    log.error("ThumbEventOutbox: Thumb event {} not written to outbox. Rollback redis...", key);
+                    rollback.run();
+                }
+            } catch (Exception e) {
+                log.error("ThumbEventOutbox: Rollback thumb event {} failed...", key, e);
+            } finally {
+                resolve(key, resolved);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 消息的结果已确定，排在之后的同一个key的消息开始处理；没有排队的消息时移除
+     */
+    private void resolve(String key, CompletableFuture<Void> resolved) {
+        unresolvedSends.remove(key, resolved);
+        resolved.complete(null);
+    }
+
+    /**
+     * 追加写入一条消息
+     * @return 写入是否成功，发件箱已满时返回false
+     */
+    public boolean append(ThumbEvent thumbEvent) {
+        byte[] payload = ThumbEventSchema.INSTANCE.encode(thumbEvent);
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        lock.lock();
+        try {
+            // 预留结束标记的位置
+            if (writePosition + recordSize + 4 > buffer.capacity()) {
+                compact();
+            }
+            if (writePosition + recordSize + 4 > buffer.capacity()) {
+                log.error("ThumbEventOutbox is full, pending bytes {}...", writePosition - readPosition);
+                return false;
+            }
+            // 先写结束标记和数据，最后写length，保证写了一半的记录在重启时不会被读取
+            buffer.putInt(writePosition + recordSize, 0);
+            buffer.putInt(writePosition + 4, crc(payload));
+            buffer.put(writePosition + RECORD_HEADER_SIZE, payload);
+            buffer.putInt(writePosition, payload.length);
+            writePosition += recordSize;
+            if (forceOnAppend) {
+                buffer.force();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发件箱中有未发送的消息时续期本节点的标记，全部发送完后删除。redis不可用时下次重试。
+     * 在单独的线程中执行，不受drain等待发送结果的影响
+     */
+    private void advertisePending() {
+        try {
+            if (hasPending()) {
+                redisTemplate.opsForZSet().add(Constant.REDIS_OUTBOX_PENDING_KEY, nodeId, System.currentTimeMillis() + pendingTtlMs);
+                advertised = true;
+            } else if (advertised) {
+                redisTemplate.opsForZSet().remove(Constant.REDIS_OUTBOX_PENDING_KEY, nodeId);
+                advertised = false;
+            }
+        } catch (Exception e) {
+            log.warn("ThumbEventOutbox: Advertise pending events failed...", e);
+        }
+    }
+
+    /**
+     * 按写入顺序重新发送发件箱中的消息。一批消息中有发送失败的，只确认失败之前的消息，剩余的下次重试
+     */
+    @Scheduled(initialDelay = 1000, fixedDelay = 1000)
+    public void drain() {
+        List<ThumbEvent> events = new ArrayList<>();
+        List<Integer> endPositions = new ArrayList<>();
+        int startPosition;
+        lock.lock();
+        try {
+            startPosition = readPosition;
+            int position = readPosition;
+            while (position < writePosition && events.size() < drainBatchSize) {
+                ThumbEvent thumbEvent = readRecord(position);
+                if (thumbEvent == null) {
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + buffer.getInt(position);
+                events.add(thumbEvent);
+                endPositions.add(position);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        log.info("ThumbEventOutbox: Resend {} thumb events...", events.size());
+        // 同一个producer按发送顺序投递，前一条失败时后续的消息也会失败
+        List<CompletableFuture<MessageId>> futures = events.stream().map(thumbEventProducer::sendAsync).toList();
+        int sent = 0;
+        for (CompletableFuture<MessageId> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+                sent++;
+            } catch (Exception e) {
+                log.warn("ThumbEventOutbox: Resend thumb event failed, retry later...", e);
+                break;
+            }
+        }
+        if (sent > 0) {
+            commit(startPosition, endPositions.get(sent - 1));
+            log.info("ThumbEventOutbox: Resend {} thumb events successfully...", sent);
+        }
+    }
+
+    /**
+     * @param startPosition 读取这批消息时的readPosition，发送期间append压缩了文件时，记录整体前移了 startPosition - readPosition
+     * @param endPosition 最后一条发送成功的记录的结束位置
+     */
+    private void commit(int startPosition, int endPosition) {
+        lock.lock();
+        try {
+            readPosition = endPosition - (startPosition - readPosition);
+            if (readPosition == writePosition) {
+                // 消息全部发送完，从头开始写
+                readPosition = HEADER_SIZE;
+                writePosition = HEADER_SIZE;
+                buffer.putInt(HEADER_SIZE, 0);
+            }
+            buffer.putLong(0, readPosition);
+            if (writePosition > buffer.capacity() / 2) {
+                compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把未发送的记录搬到文件开头。已发送部分小于未发送部分（加结束标记）时不压缩，避免搬移的目标区域覆盖原记录
+     */
+    private void compact() {
+        int pending = writePosition - readPosition;
+        if (readPosition == HEADER_SIZE || pending + 4 > readPosition - HEADER_SIZE) {
+            return;
+        }
+        byte[] records = new byte[pending];
+        buffer.get(readPosition, records);
+        buffer.put(HEADER_SIZE, records);
+        buffer.putInt(HEADER_SIZE + pending, 0);
+        if (forceOnAppend) {
+            buffer.force();
+        }
+        // 最后修改header，之前宕机时仍从原位置恢复
+        buffer.putLong(0, HEADER_SIZE);
+        log.info("ThumbEventOutbox: Compacted {} drained bytes, pending bytes {}...", readPosition - HEADER_SIZE, pending);
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE + pending;
+    }
+
+    /**
+     * 读取position处的记录，没有记录或记录损坏时返回null
+     */
+    private ThumbEvent readRecord(int position) {
+        if (position + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(position + RECORD_HEADER_SIZE, payload);
+        if (crc(payload) != buffer.getInt(position + 4)) {
+            log.error("ThumbEventOutbox: Broken record at {}...", position);
+            return null;
+        }
+        return ThumbEventSchema.INSTANCE.decode(payload);
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return (int) crc32.getValue();
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.constant.Constant;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThumbEvent专用的生产者。
+ * 采用Key_Shared订阅模式时，消费者按key分配消息，默认的批量发送会把不同key的消息打包进同一批次，
+ * 批次只能整体投递给一个消费者，破坏按key分配。这里使用KEY_BASED批量发送，相同key的消息才会进入同一批次。
+ * 待发送队列有上限，队列满时直接失败而不是阻塞，调用方在写redis之前通过isBusy()判断，返回429。
+ */
+@Component
+@Slf4j
+public class ThumbEventProducer {
+
+    @Autowired
+    private PulsarClient pulsarClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.producer.batching-max-publish-delay-ms:5}")
+    private long batchingMaxPublishDelayMs;
+    @Value("${thumb.producer.batching-max-messages:500}")
+    private int batchingMaxMessages;
+    @Value("${thumb.producer.compression-type:LZ4}")
+    private CompressionType compressionType;
+    @Value("${thumb.producer.max-pending-messages:10000}")
+    private int maxPendingMessages;
+    @Value("${thumb.producer.event-format:JSON}")
+    private ThumbEventSchema.Format eventFormat;
+    @Value("${thumb.producer.send-timeout-ms:30000}") // 发送超时，超时后消息写入发件箱
+    private long sendTimeoutMs;
+
+    private Producer<ThumbEvent> producer;
+    // 已发送但还未收到broker确认的消息数
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private Counter sentCounter;
+    private Counter failedCounter;
+    private DistributionSummary batchSizeSummary;
+
+    @PostConstruct
+    public void init() throws PulsarClientException {
+        // BINARY格式使用紧凑的二进制编码，JSON格式与旧版本消费者兼容
+        Schema<ThumbEvent> schema = eventFormat == ThumbEventSchema.Format.BINARY
+                ? ThumbEventSchema.INSTANCE : Schema.JSON(ThumbEvent.class);
+        producer = pulsarClient.newProducer(schema)
+                .topic(Constant.MQ_THUMB_TOPIC)
+                .enableBatching(true)
+                .batcherBuilder(BatcherBuilder.KEY_BASED)
+                .batchingMaxPublishDelay(batchingMaxPublishDelayMs, TimeUnit.MILLISECONDS)
+                .batchingMaxMessages(batchingMaxMessages)
+                .compressionType(compressionType)
+                .maxPendingMessages(maxPendingMessages)
+                .blockIfQueueFull(false)
+                .sendTimeout((int) sendTimeoutMs, TimeUnit.MILLISECONDS)
+                .create();
+        sentCounter = Counter.builder("thumb.producer.sent")
+                .description("Thumb events acknowledged by broker")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("thumb.producer.failed")
+                .description("Thumb events failed to send")
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("thumb.producer.batch.size")
+                .description("Number of thumb events per batch sent to broker")
+                .register(meterRegistry);
+        Gauge.builder("thumb.producer.pending", pendingCount, AtomicInteger::get)
+                .description("Thumb events waiting for broker acknowledgement")
+                .register(meterRegistry);
+        log.info("ThumbEventProducer created, topic {}, format {}, batching delay {}ms, max messages {}, compression {}, max pending {}...",
+                Constant.MQ_THUMB_TOPIC, eventFormat, batchingMaxPublishDelayMs, batchingMaxMessages, compressionType, maxPendingMessages);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (producer != null) {
+            producer.closeAsync().join();
+        }
+    }
+
+    /**
+     * 待发送队列是否已满，满时应拒绝新的点赞请求
+     */
+    public boolean isBusy() {
+        return pendingCount.get() >= maxPendingMessages;
+    }
+
+    /**
+     * 异步发送ThumbEvent，key为 userId-blogId
+     */
+    public CompletableFuture<MessageId> sendAsync(ThumbEvent thumbEvent) {
+        pendingCount.incrementAndGet();
+        CompletableFuture<MessageId> future;
+        try {
+            future = producer.newMessage()
+                    .key(getMessageKey(thumbEvent))
+                    .value(thumbEvent)
+                    .sendAsync();
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((messageId, throwable) -> {
+            pendingCount.decrementAndGet();
+            if (throwable != null) {
+                failedCounter.increment();
+                return;
+            }
+            sentCounter.increment();
+            // 同一批次的消息只在批次内第一条消息上记录一次批次大小
+            if (messageId instanceof MessageIdAdv messageIdAdv && messageIdAdv.getBatchIndex() <= 0) {
+                batchSizeSummary.record(Math.max(messageIdAdv.getBatchSize(), 1));
+            }
+        });
+    }
+
+    /**
+     * 采用Key_Shared订阅模式，严格保证相同 Key 的消息按顺序投递给同一个消费者，确保消息的顺序性
+     * Key的格式为 userId-blogId
+     */
+    public static String getMessageKey(ThumbEvent thumbEvent) {
+        return thumbEvent.getUserId() + "-" + thumbEvent.getBlogId();
+    }
+
+}
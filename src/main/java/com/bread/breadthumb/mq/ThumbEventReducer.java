@@ -0,0 +1,142 @@
+package com.bread.breadthumb.mq;
+
+/**
+ * 将一批ThumbEvent按 userId-blogId 归约为最终状态。
+ * <p>
+ * 每个key只记录最后一个事件（状态机：已点赞/未点赞），每条消息O(1)，不需要分组、排序。
+ * 事件的先后以接收的顺序为准：Key_Shared订阅保证同一个key的消息按顺序投递给同一个消费者。
+ * 不使用消息的publishTime、sequenceId（由不同节点的生产者生成，时钟不同步），也不使用客户端生成的eventTime。
+ * 最终状态由最后一个事件决定：INCR为已点赞，DECR为未点赞。
+ * <p>
+ * 不能根据事件数的奇偶或首尾事件推断"抵消"：消息重新投递时，批次中的一部分事件可能已经在之前的批次中写入数据库，
+ * 数据库中的状态不一定是第一个事件之前的状态。因此每个key都输出最终状态，由写入方幂等地把数据库修改为该状态，
+ * 点赞数的变化量按实际修改的行计算。
+ * <p>
+ * 使用开放寻址（线性探测）的哈希表，key直接以两个long存放在数组中。非线程安全。
+ */
+public class ThumbEventReducer {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] userIds;
+    private long[] blogIds;
+    // 每个key的最后一个事件，为null表示该位置为空
+    private ThumbEvent[] lastEvents;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize 预计的事件数，用于确定哈希表的初始容量
+     */
+    public ThumbEventReducer(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 16) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * 按接收的顺序归约一个事件，之后加入的事件更新
+     */
+    public void add(ThumbEvent thumbEvent) {
+        if (thumbEvent == null || thumbEvent.getUserId() == null || thumbEvent.getBlogId() == null || thumbEvent.getType() == null) {
+            return;
+        }
+        int slot = findSlot(thumbEvent.getUserId(), thumbEvent.getBlogId());
+        if (lastEvents[slot] == null) {
+            insert(slot, thumbEvent.getUserId(), thumbEvent.getBlogId(), thumbEvent);
+            return;
+        }
+        lastEvents[slot] = thumbEvent;
+    }
+
+    /**
+     * 合并更早接收的事件，用于将写入失败的批次放回缓冲区：已有的key保留当前的最后一个事件
+     */
+    public void mergeOlder(ThumbEventReducer older) {
+        for (int i = 0; i < older.lastEvents.length; i++) {
+            if (older.lastEvents[i] != null) {
+                int slot = findSlot(older.userIds[i], older.blogIds[i]);
+                if (lastEvents[slot] == null) {
+                    insert(slot, older.userIds[i], older.blogIds[i], older.lastEvents[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 遍历每个key的最终状态
+     */
+    public void forEachFinalState(FinalStateConsumer consumer) {
+        for (int i = 0; i < lastEvents.length; i++) {
+            if (lastEvents[i] != null) {
+                consumer.accept(userIds[i], blogIds[i], lastEvents[i].getType() == ThumbEvent.EventType.INCR, lastEvents[i]);
+            }
+        }
+    }
+
+    /**
+     * 归约后的key数量
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @FunctionalInterface
+    public interface FinalStateConsumer {
+        /**
+         * @param thumbed 最终是否点赞
+         * @param lastEvent 最后一个事件
+         */
+        void accept(long userId, long blogId, boolean thumbed, ThumbEvent lastEvent);
+    }
+
+    private void insert(int slot, long userId, long blogId, ThumbEvent lastEvent) {
+        userIds[slot] = userId;
+        blogIds[slot] = blogId;
+        lastEvents[slot] = lastEvent;
+        if (++size > lastEvents.length * LOAD_FACTOR) {
+            resize();
+        }
+    }
+
+    private int findSlot(long userId, long blogId) {
+        int slot = hash(userId, blogId) & mask;
+        while (lastEvents[slot] != null && (userIds[slot] != userId || blogIds[slot] != blogId)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldUserIds = userIds;
+        long[] oldBlogIds = blogIds;
+        ThumbEvent[] oldLastEvents = lastEvents;
+        allocate(oldLastEvents.length << 1);
+        for (int i = 0; i < oldLastEvents.length; i++) {
+            if (oldLastEvents[i] != null) {
+                int slot = findSlot(oldUserIds[i], oldBlogIds[i]);
+                userIds[slot] = oldUserIds[i];
+                blogIds[slot] = oldBlogIds[i];
+                lastEvents[slot] = oldLastEvents[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        userIds = new long[capacity];
+        blogIds = new long[capacity];
+        lastEvents = new ThumbEvent[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long userId, long blogId) {
+        long h = userId * 0x9E3779B97F4A7C15L + blogId;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.bread.breadthumb.mq;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SchemaSerializationException;
+import org.apache.pulsar.common.schema.SchemaInfo;
+import org.apache.pulsar.common.schema.SchemaType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * ThumbEvent的紧凑二进制编码，替代JSON。
+ * 版本1为定长26字节：version(1) + userId(8) + blogId(8) + type(1) + eventTime毫秒时间戳(8)，JSON编码约100字节。
+ * 版本演进：新版本只能在末尾追加字段并递增version，解码时只读取已知的字段，多余的字节忽略，因此旧消费者可以读取新版本消息。
+ * 解码时兼容JSON格式（首字节为'{'），灰度期间消费者可以同时读取两种格式的消息。
+ * schema类型声明为BYTES，生产者和消费者都不向broker注册JSON schema。
+ */
+public class ThumbEventSchema implements Schema<ThumbEvent> {
+
+    public static final ThumbEventSchema INSTANCE = new ThumbEventSchema();
+
+    static final byte VERSION_1 = 1;
+    static final int VERSION_1_LENGTH = 1 + 8 + 8 + 1 + 8;
+
+    private static final byte TYPE_INCR = 1;
+    private static final byte TYPE_DECR = 2;
+    private static final byte JSON_START = '{';
+    private static final ZoneId ZONE_ID = ZoneId.systemDefault();
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final SchemaInfo SCHEMA_INFO = SchemaInfo.builder()
+            .name("ThumbEvent")
+            .type(SchemaType.BYTES)
+            .schema(new byte[0])
+            .build();
+
+    /**
+     * 生产者发送消息的格式。灰度时先升级所有消费者，再将生产者从JSON切换为BINARY
+     */
+    public enum Format {
+        JSON,
+        BINARY
+    }
+
+    @Override
+    public byte[] encode(ThumbEvent thumbEvent) {
+        return ByteBuffer.allocate(VERSION_1_LENGTH)
+                .put(VERSION_1)
+                .putLong(thumbEvent.getUserId())
+                .putLong(thumbEvent.getBlogId())
+                .put(encodeType(thumbEvent.getType()))
+                .putLong(thumbEvent.getEventTime().atZone(ZONE_ID).toInstant().toEpochMilli())
+                .array();
+    }
+
+    @Override
+    public ThumbEvent decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == JSON_START) {
+            return decodeJson(bytes);
+        }
+        return decodeBinary(bytes);
+    }
+
+    @Override
+    public ThumbEvent decode(byte[] bytes, byte[] schemaVersion) {
+        return decode(bytes);
+    }
+
+    @Override
+    public SchemaInfo getSchemaInfo() {
+        return SCHEMA_INFO;
+    }
+
+    @Override
+    public Schema<ThumbEvent> clone() {
+        // 无状态，可以共享
+        return this;
+    }
+
+    private ThumbEvent decodeBinary(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        if (version < VERSION_1 || bytes.length < VERSION_1_LENGTH) {
+            throw new SchemaSerializationException("Invalid thumb event, version " + version + ", length " + bytes.length);
+        }
+        // 版本1的字段，更高版本追加的字段在此之后
+        return ThumbEvent.builder()
+                .userId(buffer.getLong())
+                .blogId(buffer.getLong())
+                .type(decodeType(buffer.get()))
+                .eventTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZONE_ID))
+                .build();
+    }
+
+    private ThumbEvent decodeJson(byte[] bytes) {
+        try {
+            return JSON_MAPPER.readValue(bytes, ThumbEvent.class);
+        } catch (IOException e) {
+            throw new SchemaSerializationException(e);
+        }
+    }
+
+    private static byte encodeType(ThumbEvent.EventType type) {
+        return switch (type) {
+            case INCR -> TYPE_INCR;
+            case DECR -> TYPE_DECR;
+        };
+    }
+
+    private static ThumbEvent.EventType decodeType(byte type) {
+        return switch (type) {
+            case TYPE_INCR -> ThumbEvent.EventType.INCR;
+            case TYPE_DECR -> ThumbEvent.EventType.DECR;
+            default -> throw new SchemaSerializationException("Unknown thumb event type " + type);
+        };
+    }
+
+}
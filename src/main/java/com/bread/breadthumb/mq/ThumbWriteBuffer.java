@@ -0,0 +1,233 @@
+package com.bread.breadthumb.mq;
+
+import com.bread.breadthumb.monitor.ThumbPipelineMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.springframework.pulsar.listener.Acknowledgement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 跨批次的写缓冲：多个消费者的多批消息归约到同一个ThumbEventReducer中，定时或消息数达到批次大小时一次写入数据库，
+ * 同一个blog在一次写入中只更新一次点赞数。消息在写入提交后才确认。批次大小和写入间隔由AdaptiveFlushController调整。
+ * <p>
+ * 写入由flushLock串行执行：写入时先换出当前的缓冲区，新的消息写入新的缓冲区。
+ * 写入失败时，换出的事件合并回缓冲区，与之后的消息一起重试，保证同一个key的旧事件不会在新事件之后写入；
+ * 连续失败达到上限后，消费者线程阻塞在add中退避重试，直到写入成功，不再接收新的消息（背压）。
+ * 不NACK消息：Key_Shared下，broker先投递已在接收队列中的新消息，NACK重新投递的旧事件会覆盖新事件的结果。
+ */
+@Slf4j
+public class ThumbWriteBuffer {
+
+    // 阻塞时重试写入的最大间隔是初始间隔的倍数
+    private static final int MAX_RETRY_BACKOFF_MULTIPLIER = 50;
+
+    private final Consumer<ThumbEventReducer> writer;
+    private final AdaptiveFlushController flushController;
+    private final ThumbPipelineMetrics pipelineMetrics;
+    private final int maxFlushAttempts;
+    private final long retryBackoffMs;
+
+    // 保护缓冲区
+    private final ReentrantLock bufferLock = new ReentrantLock();
+    // 保证同一时间只有一次写入
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ThumbEventReducer reducer;
+    private List<PendingAck> pendingAcks = new ArrayList<>();
+    private volatile int pendingMessages;
+    private volatile int failedFlushes;
+
+    private final Timer flushTimer;
+    private final DistributionSummary coalescingRatioSummary;
+    private final Counter flushedMessageCounter;
+    private final Counter flushedKeyCounter;
+    private final Counter failedFlushCounter;
+
+    /**
+     * @param writer 将归约后的最终状态写入数据库，失败时抛出异常
+     * @param flushController 决定批次大小：缓冲的消息数达到批次大小时，由消费者线程直接写入，同时作为背压
+     * @param maxFlushAttempts 连续写入失败的次数达到该值时，阻塞消费者线程直到写入成功
+     * @param retryBackoffMs 阻塞时重试写入的初始间隔，每次失败翻倍，最长为初始间隔的50倍
+     * @param pipelineMetrics 记录消息从接收到确认的积压，以及从eventTime到写入提交的端到端延迟
+     */
+    public ThumbWriteBuffer(Consumer<ThumbEventReducer> writer, AdaptiveFlushController flushController, int maxFlushAttempts,
+                            long retryBackoffMs, ThumbPipelineMetrics pipelineMetrics, MeterRegistry meterRegistry) {
+        this.writer = writer;
+        this.flushController = flushController;
+        this.pipelineMetrics = pipelineMetrics;
+        this.maxFlushAttempts = Math.max(maxFlushAttempts, 1);
+        this.retryBackoffMs = Math.max(retryBackoffMs, 1);
+        this.reducer = new ThumbEventReducer(flushController.getBatchMessages());
+        flushTimer = Timer.builder("thumb.consumer.flush.latency")
+                .description("Time to write one coalesced thumb buffer to database")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+        coalescingRatioSummary = DistributionSummary.builder("thumb.consumer.flush.coalescing.ratio")
+                .description("Messages per userId-blogId key written in one flush")
+                .register(meterRegistry);
+        flushedMessageCounter = Counter.builder("thumb.consumer.flush.messages")
+                .description("Messages acknowledged after a coalesced flush")
+                .register(meterRegistry);
+        flushedKeyCounter = Counter.builder("thumb.consumer.flush.keys")
+                .description("userId-blogId keys written by coalesced flushes")
+                .register(meterRegistry);
+        failedFlushCounter = Counter.builder("thumb.consumer.flush.failures")
+                .description("Coalesced flushes failed and merged back into the buffer")
+                .register(meterRegistry);
+        Gauge.builder("thumb.consumer.buffer.blocked", this, buffer -> buffer.failedFlushes >= buffer.maxFlushAttempts ? 1 : 0)
+                .description("1 while consumers are blocked until the buffer is written")
+                .register(meterRegistry);
+        Gauge.builder("thumb.consumer.buffer.messages", this, buffer -> buffer.pendingMessages)
+                .description("Messages buffered and not yet acknowledged")
+                .register(meterRegistry);
+        Gauge.builder("thumb.consumer.buffer.keys", this, ThumbWriteBuffer::bufferedKeys)
+                .description("userId-blogId keys buffered")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 将一批消息加入缓冲区，消息在写入提交后确认。缓冲的消息数达到上限时，在当前线程中写入；
+     * 连续写入失败达到上限时，阻塞直到写入成功
+     */
+    public void add(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+        List<MessageId> messageIds = new ArrayList<>(messages.size());
+        ThumbPipelineMetrics.InFlightBatch inFlightBatch = pipelineMetrics.onReceived(messages);
+        int buffered;
+        bufferLock.lock();
+        try {
+            for (Message<ThumbEvent> message : messages) {
+                if (message != null) {
+                    reducer.add(message.getValue());
+                    messageIds.add(message.getMessageId());
+                }
+            }
+            pendingAcks.add(new PendingAck(acknowledgement, messageIds, inFlightBatch));
+            buffered = pendingMessages += messageIds.size();
+        } finally {
+            bufferLock.unlock();
+        }
+        if (buffered >= flushController.getBatchMessages()) {
+            flush();
+        }
+        awaitFlushSucceeded();
+    }
+
+    /**
+     * 连续写入失败达到上限时退避重试，消费者线程不返回，broker不再向它投递新的消息。
+     * 被中断时（消费者关闭）直接返回，未确认的消息由broker重新投递
+     */
+    private void awaitFlushSucceeded() {
+        // 在写入回调中接收消息时（当前线程持有flushLock）不重试：重入的写入会在换出的旧事件提交之前写入新事件
+        if (flushLock.isHeldByCurrentThread()) {
+            return;
+        }
+        long backoffMs = retryBackoffMs;
+        while (failedFlushes >= maxFlushAttempts) {
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+            backoffMs = Math.min(backoffMs * 2, retryBackoffMs * MAX_RETRY_BACKOFF_MULTIPLIER);
+        }
+    }
+
+    /**
+     * 将缓冲区写入数据库，成功后确认消息
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            ThumbEventReducer flushing;
+            List<PendingAck> acks;
+            int messageCount;
+            bufferLock.lock();
+            try {
+                if (pendingAcks.isEmpty()) {
+                    return;
+                }
+                flushing = reducer;
+                acks = pendingAcks;
+                messageCount = pendingMessages;
+                reducer = new ThumbEventReducer(flushController.getBatchMessages());
+                pendingAcks = new ArrayList<>();
+                pendingMessages = 0;
+            } finally {
+                bufferLock.unlock();
+            }
+            long start = System.nanoTime();
+            try {
+                writer.accept(flushing);
+            } catch (RuntimeException e) {
+                flushController.onFlushFailed();
+                onFlushFailed(flushing, acks, messageCount, e);
+                return;
+            }
+            long latencyNanos = System.nanoTime() - start;
+            flushTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+            flushController.onFlushSucceeded(messageCount, latencyNanos);
+            failedFlushes = 0;
+            for (PendingAck ack : acks) {
+                if (!ack.messageIds().isEmpty()) {
+                    ack.acknowledgement().acknowledge(ack.messageIds());
+                }
+                pipelineMetrics.onCommitted(ack.inFlightBatch());
+            }
+            flushedMessageCounter.increment(messageCount);
+            flushedKeyCounter.increment(flushing.size());
+            if (!flushing.isEmpty()) {
+                coalescingRatioSummary.record((double) messageCount / flushing.size());
+            }
+            log.info("ThumbWriteBuffer: Flush {} messages, {} keys...", messageCount, flushing.size());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void onFlushFailed(ThumbEventReducer flushing, List<PendingAck> acks, int messageCount, RuntimeException e) {
+        bufferLock.lock();
+        try {
+            // 失败的事件更早接收，合并回缓冲区时不会覆盖之后的事件
+            reducer.mergeOlder(flushing);
+            acks.addAll(pendingAcks);
+            pendingAcks = acks;
+            pendingMessages += messageCount;
+            failedFlushCounter.increment();
+            if (++failedFlushes < maxFlushAttempts) {
+                log.warn("ThumbWriteBuffer: Flush {} messages failed {} times, retry with next flush...", messageCount, failedFlushes, e);
+                return;
+            }
+            // 不NACK：重新投递的旧事件排在broker已投递的新消息之后，会覆盖它们的结果。消费者阻塞在add中重试，直到写入成功
+            log.error("ThumbWriteBuffer: Flush {} messages failed {} times, block consumers until {} buffered messages are written...",
+                    messageCount, failedFlushes, pendingMessages, e);
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    private int bufferedKeys() {
+        bufferLock.lock();
+        try {
+            return reducer.size();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    private record PendingAck(Acknowledgement acknowledgement, List<MessageId> messageIds,
+                              ThumbPipelineMetrics.InFlightBatch inFlightBatch) {
+    }
+
+}
@@ -1,8 +1,10 @@
 package com.bread.breadthumb.service;
 
 import com.bread.breadthumb.model.dto.DoThumbRequest;
+import com.bread.breadthumb.model.dto.ThumbStatusRequest;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
 import jakarta.servlet.http.HttpServletRequest;
 
 import java.util.List;
@@ -45,4 +47,12 @@ public interface ThumbService extends IService<Thumb> {
      * @return ThumbId列表
      */
     List<Object> hasThumbRedis(List<Long> blogIds, Long userId);
+
+    /**
+     * 批量查询当前用户的点赞状态
+     * @param thumbStatusRequest
+     * @param request
+     * @return 与blogIds一一对应的点赞状态位图
+     */
+    ThumbStatusVO getThumbStatus(ThumbStatusRequest thumbStatusRequest, HttpServletRequest request);
 }
@@ -13,24 +13,17 @@ import com.bread.breadthumb.mapper.BlogMapper;
 import com.bread.breadthumb.service.ThumbService;
 import com.bread.breadthumb.service.UserService;
 import com.bread.breadthumb.util.BlogCacheManager;
-import com.bread.breadthumb.util.RedisKeyUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.dao.DataAccessException;
-import org.springframework.data.redis.core.RedisOperations;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
 * @author huang
@@ -48,9 +41,6 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements Bl
     @Lazy
     private ThumbService thumbService;
 
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
-
     @Autowired
     @Lazy
     private BlogCacheManager blogCacheManager;
@@ -72,26 +62,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements Bl
                 .orderByDesc(Blog::getThumbCount).page(Page.of(1, number));
         List<Blog> blogList = page.getRecords();
         log.info("Scheduled Task：Got {} blogs...", blogList.size());
-        // 采用hash结构存储blog数据，key为blog:blogId，field为字段名，value为字段值
-        Map<String, Map<String, Object>> map = blogList.stream().collect(Collectors.toMap(
-                blog -> RedisKeyUtil.getBlogKey(blog.getId()),
-                blog -> BeanUtil.beanToMap(blog, false, false)
-        ));
-        // 使用redisTemplate.execute方法执行批量操作
-        redisTemplate.execute(new SessionCallback<List<Object>>() {
-            @Override
-            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
-                operations.multi();
-                for (Map.Entry<String, Map<String, Object>> entry : map.entrySet()) {
-                    String key = entry.getKey();
-                    Map<String, Object> blogEntries = entry.getValue();
-                    operations.opsForHash().putAll((K) key, blogEntries);
-                    // 设置过期时间
-                    operations.expire((K) key, expire + (int)(Math.random()*1000), TimeUnit.SECONDS);
-                }
-                return operations.exec();
-            }
-        });
+        // 采用hash结构存储blog数据，key为blog:blogId，field为data（BlogRedisCodec编码）和thumbCount
+        // 点赞数被数据库中的值覆盖，同一个脚本中删除分片中的增量
+        if (!blogCacheManager.writeBlogs(blogList, expire, 1000)) {
+            log.warn("Scheduled Task: Load yesterday most thumbed blogs to redis failed...");
+            return;
+        }
         log.info("Scheduled Task: Load yesterday most thumbed blogs to redis successfully...");
     }
 
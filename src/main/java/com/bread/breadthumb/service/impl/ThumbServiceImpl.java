@@ -4,12 +4,17 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.bread.breadthumb.constant.Constant;
 import com.bread.breadthumb.exception.BusinessException;
 import com.bread.breadthumb.model.dto.DoThumbRequest;
+import com.bread.breadthumb.model.dto.ThumbStatusRequest;
 import com.bread.breadthumb.model.entity.Blog;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.bread.breadthumb.model.entity.User;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
 import com.bread.breadthumb.service.BlogService;
 import com.bread.breadthumb.service.ThumbService;
 import com.bread.breadthumb.mapper.ThumbMapper;
+import com.bread.breadthumb.util.KeyedLockManager;
+import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.ThumbStatusManager;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
@@ -34,6 +39,8 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService{
 
+    private static final String THUMB_LOCK_NAME = "thumb";
+
     @Autowired
     private TransactionTemplate transactionTemplate;
 
@@ -43,17 +50,23 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private KeyedLockManager keyedLockManager;
+
+    @Autowired
+    private ThumbStatusManager thumbStatusManager;
+
     @Override
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
         // 校验参数和用户登录态
-        // 加锁，当前登录用户的id作为锁对象，确保只有一个线程在操作当前对象
+        // 加锁，当前登录用户的id作为锁的key，确保只有一个线程在操作当前对象
         // 使用编程式事务执行逻辑。事务要在锁内开启，确保下一个线程获取到锁时事务已经完成提交。
         User loginUser = (User) request.getSession().getAttribute(Constant.LOGIN_USER);
         if (loginUser == null || doThumbRequest == null || doThumbRequest.getBlogId() == null){
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_INVALID_PARAMS);
         }
-        synchronized (loginUser.getId().toString().intern()){
-            return transactionTemplate.execute(status -> {
+        return keyedLockManager.executeWithLock(THUMB_LOCK_NAME, loginUser.getId(), () ->
+            transactionTemplate.execute(status -> {
                 // 判断是否已经点赞，基于redis实现
                 Long blogId = doThumbRequest.getBlogId();
                 Long userId = loginUser.getId();
@@ -71,33 +84,34 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
                 thumb.setBlogId(blogId);
                 boolean success = update && save(thumb);
                 if (success) {
-                    redisTemplate.opsForHash().put(Constant.REDIS_USER_THUMB_KEY_PREFIX + userId, blogId.toString(), thumb.getId());
-                    Object thumbCount = redisTemplate.opsForHash().get(Constant.REDIS_BLOG_KEY_PREFIX + blogId, "thumbCount");
+                    redisTemplate.opsForHash().put(RedisKeyUtil.getUserThumbKey(userId), blogId.toString(), thumb.getId());
+                    thumbStatusManager.invalidate(userId);
+                    Object thumbCount = redisTemplate.opsForHash().get(RedisKeyUtil.getBlogKey(blogId), "thumbCount");
                     if (thumbCount != null){
                         log.info("Redis Blog {} thumb count add...", blogId);
-                        redisTemplate.opsForHash().put(Constant.REDIS_BLOG_KEY_PREFIX + blogId, "thumbCount", Long.parseLong(thumbCount.toString()) + 1);
+                        redisTemplate.opsForHash().put(RedisKeyUtil.getBlogKey(blogId), "thumbCount", Long.parseLong(thumbCount.toString()) + 1);
                     }
                 }
                 return success;
-            });
-        }
+            })
+        );
     }
 
     @Override
     public Boolean undoThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
         // 校验参数和用户登录态
-        // 加锁，当前登录用户的id作为锁对象，确保只有一个线程在操作当前对象
+        // 加锁，当前登录用户的id作为锁的key，确保只有一个线程在操作当前对象
         // 使用编程式事务执行逻辑。事务要在锁内开启，确保下一个线程获取到锁时事务已经完成提交。
         User loginUser = (User) request.getSession().getAttribute(Constant.LOGIN_USER);
         if (loginUser == null || doThumbRequest == null || doThumbRequest.getBlogId() == null){
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_INVALID_PARAMS);
         }
-        synchronized (loginUser.getId().toString().intern()){
-            return transactionTemplate.execute(status -> {
+        return keyedLockManager.executeWithLock(THUMB_LOCK_NAME, loginUser.getId(), () ->
+            transactionTemplate.execute(status -> {
                 // 判断是否已经点赞，基于redis实现
                 Long blogId = doThumbRequest.getBlogId();
                 Long userId = loginUser.getId();
-                Object thumbIdObj = redisTemplate.opsForHash().get(Constant.REDIS_USER_THUMB_KEY_PREFIX + userId, blogId.toString());
+                Object thumbIdObj = redisTemplate.opsForHash().get(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
                 if (thumbIdObj == null) {
                     throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_NOT_THUMBED);
                 }
@@ -107,16 +121,17 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
                 boolean success = update && removeById(thumbId);
                 // 删除redis中的点赞数据，若是热点blog则更新redis中的blog点赞数
                 if (success) {
-                    redisTemplate.opsForHash().delete(Constant.REDIS_USER_THUMB_KEY_PREFIX + userId, blogId.toString());
-                    Object thumbCount = redisTemplate.opsForHash().get(Constant.REDIS_BLOG_KEY_PREFIX + blogId, "thumbCount");
+                    redisTemplate.opsForHash().delete(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+                    thumbStatusManager.invalidate(userId);
+                    Object thumbCount = redisTemplate.opsForHash().get(RedisKeyUtil.getBlogKey(blogId), "thumbCount");
                     if (thumbCount != null){
                         log.info("Redis Blog {} thumb count minus...", blogId);
-                        redisTemplate.opsForHash().put(Constant.REDIS_BLOG_KEY_PREFIX + blogId, "thumbCount", Long.parseLong(thumbCount.toString()) - 1);
+                        redisTemplate.opsForHash().put(RedisKeyUtil.getBlogKey(blogId), "thumbCount", Long.parseLong(thumbCount.toString()) - 1);
                     }
                 }
                 return success;
-            });
-        }
+            })
+        );
     }
 
     /**
@@ -128,7 +143,7 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
     @Override
     public Boolean hasThumbRedis(Long blogId, Long userId) {
         log.info("Check thumb using redis.Blog {}, User {}...", blogId, userId);
-        return redisTemplate.opsForHash().hasKey(Constant.REDIS_USER_THUMB_KEY_PREFIX + userId, blogId.toString());
+        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
     }
 
     /**
@@ -141,10 +156,16 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
     public List<Object> hasThumbRedis(List<Long> blogIds, Long userId) {
         log.info("Check thumbs using redis.Blog ids {}, User {}...", blogIds, userId);
         List<Object> list = blogIds.stream().map(Object::toString).collect(Collectors.toList());
-        return redisTemplate.opsForHash().multiGet(Constant.REDIS_USER_THUMB_KEY_PREFIX + userId, list);
+        return redisTemplate.opsForHash().multiGet(RedisKeyUtil.getUserThumbKey(userId), list);
     }
-}
-
-
-
 
+    @Override
+    public ThumbStatusVO getThumbStatus(ThumbStatusRequest thumbStatusRequest, HttpServletRequest request) {
+        // 校验参数和用户登录态
+        User loginUser = (User) request.getSession().getAttribute(Constant.LOGIN_USER);
+        if (loginUser == null || thumbStatusRequest == null){
+            throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_STATUS_INVALID_PARAMS);
+        }
+        return thumbStatusManager.getThumbStatus(loginUser.getId(), thumbStatusRequest.getBlogIds());
+    }
+}
@@ -7,27 +7,37 @@ import com.bread.breadthumb.exception.BusinessException;
 import com.bread.breadthumb.mapper.ThumbMapper;
 import com.bread.breadthumb.model.dto.DoThumbRequest;
 import com.bread.breadthumb.model.dto.LuaScriptResult;
+import com.bread.breadthumb.model.dto.ThumbStatusRequest;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.bread.breadthumb.model.entity.User;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
 import com.bread.breadthumb.model.enums.LuaStatusEnum;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
 import com.bread.breadthumb.mq.ThumbEvent;
+import com.bread.breadthumb.mq.ThumbEventOutbox;
+import com.bread.breadthumb.mq.ThumbEventProducer;
 import com.bread.breadthumb.service.ThumbService;
 import com.bread.breadthumb.service.UserService;
+import com.bread.breadthumb.util.IdempotencyManager;
+import com.bread.breadthumb.util.LocalThumbBloomFilter;
 import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.RedisScriptManager;
+import com.bread.breadthumb.util.ShardedThumbCounter;
+import com.bread.breadthumb.util.ThumbAdmissionManager;
+import com.bread.breadthumb.util.ThumbScriptBatcher;
+import com.bread.breadthumb.util.ThumbStatusManager;
+import com.bread.breadthumb.util.UserThumbIndex;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.pulsar.core.PulsarTemplate;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author huang
@@ -38,12 +48,28 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService {
 
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
     @Autowired
     private UserService userService;
     @Autowired
-    private PulsarTemplate<ThumbEvent> pulsarTemplate;
+    private ThumbEventProducer thumbEventProducer;
+    @Autowired
+    private ThumbEventOutbox thumbEventOutbox;
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+    @Autowired
+    private ThumbScriptBatcher thumbScriptBatcher;
+    @Autowired
+    private IdempotencyManager idempotencyManager;
+    @Autowired
+    private ThumbStatusManager thumbStatusManager;
+    @Autowired
+    private ThumbAdmissionManager thumbAdmissionManager;
+    @Autowired
+    private ShardedThumbCounter shardedThumbCounter;
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+    @Autowired
+    private LocalThumbBloomFilter localThumbBloomFilter;
 
     // 1.修改lua脚本的返回类型，返回一个list集合{}
     // 2.修改ThumbMQ.lua和UnthumbMQ.lue脚本，添加点赞记录时，hashvalue设置为点赞时间，删除点赞记录时，要将上次点赞的时间返回
@@ -55,25 +81,34 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
         if (loginUser == null || doThumbRequest == null || doThumbRequest.getBlogId() == null) {
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_INVALID_PARAMS);
         }
-        // 准备redis的key
-        Long userId = loginUser.getId();
-        Long blogId = doThumbRequest.getBlogId();
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(userId);
-        String blogKey = RedisKeyUtil.getBlogKey(blogId);
+        // 携带幂等键的重复请求直接返回第一次请求的结果
+        return idempotencyManager.execute(loginUser.getId(), "do", doThumbRequest.getIdempotencyKey(),
+                () -> doThumbOnce(loginUser.getId(), doThumbRequest.getBlogId()));
+    }
+
+    private Boolean doThumbOnce(Long userId, Long blogId) {
+        // 准入控制：用户点赞过于频繁或热点blog超过限流，在访问redis之前拒绝
+        thumbAdmissionManager.admit(userId, blogId);
+        // 消息待发送队列已满，拒绝请求，避免写入redis后消息发送失败
+        if (thumbEventProducer.isBusy()) {
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+        // 准备redis的key：用户点赞索引的key放在最前面，然后是点赞数的key（热点blog为随机选择的分片）
+        ShardedThumbCounter.CounterTarget counterTarget = shardedThumbCounter.getCounterTarget(blogId);
+        List<String> luaKeys = buildLuaKeys(userId, counterTarget);
+        long shardTtl = counterTarget.shardTtlSeconds();
         // 执行lua脚本：判断是否点赞，若已点赞返回-1；若未点赞，添加点赞记录，更新热点blog的点赞数+1
         log.info("DoThumb: Lua add thumb record to redis...");
-        List<String> luaKeys = List.of(userThumbKey, blogKey);
         LocalDateTime thumbTime = LocalDateTime.now();
-        List<Object> resultList = redisTemplate.execute(
-                RedisScript.of(new ClassPathResource("templates/ThumbMQ.lua"), List.class),
-                luaKeys, blogId, thumbTime
-        );
-        // 处理返回值
-        LuaScriptResult result = convertLuaResultList(resultList);
+        LuaScriptResult result = executeThumbScript(userThumbIndex.getThumbScript(), userId, luaKeys, blogId, thumbTime, shardTtl);
         if (result.getStatus() == LuaStatusEnum.FAIL.getValue()) {
             // 用户已经点赞
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_ALREADY_THUMBED);
         }
+        incrClusterThumbCount(blogId, 1);
+        thumbStatusManager.invalidate(userId);
+        // 本节点的点赞立即加入本地布隆过滤器，其他节点从消息队列中读取
+        localThumbBloomFilter.put(userId, blogId);
         // 用户点赞记录已存入redis，准备消息发送至消息队列
         ThumbEvent thumbEvent = ThumbEvent.builder()
                 .userId(userId)
@@ -81,27 +116,24 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
                 .type(ThumbEvent.EventType.INCR)
                 .eventTime(thumbTime)
                 .build();
-        // 发送消息，发送失败则回滚redis
-        // 若对数据重要性没有太高要求，可以考虑异步发送
-        // 直接返回true给用户，但是异步发送失败时回滚redis，导致用户得到的反馈（以为成功）和实际数据（实则因发送失败回滚）不一致
+        // 异步发送消息，发送失败则写入本地发件箱，由后台任务重新发送，保证返回给用户的结果和实际数据一致
+        // 发件箱中还有未发送的消息、或同一个key有结果未确定的消息时，排在它们之后，保证同一个key的消息顺序
+        // 采用Key_Shared订阅模式，严格保证相同 Key 的消息按顺序投递给同一个消费者，Key的格式为 userId-blogId
         log.info("DoThumb: Send thumb event to MQ...");
-        // 采用Key_Shared订阅模式，严格保证相同 Key 的消息按顺序投递给同一个消费者，确保消息的顺序性
-        // Key的格式为 userId-blogId
-        pulsarTemplate.newMessage(thumbEvent)
-                .withMessageCustomizer(builder -> builder.key(getThumbMessageKey(thumbEvent)))
-                .withTopic(Constant.MQ_THUMB_TOPIC)
-                .sendAsync()
-                .handle((messageId, throwable) -> {
-                    if (throwable != null) {
-                        log.error("DoThumb: Send thumb event to MQ failed. Rollback redis...", throwable);
-                        // 回滚redis，执行UnthumbMQ.lua脚本
-                        redisTemplate.execute(RedisScript.of(new ClassPathResource("templates/UnthumbMQ.lua"), List.class), luaKeys, blogId);
-                        return null;
-                    } else {
-                        log.info("DoThumb: Send thumb event to MQ successfully. Message {}...", messageId);
-                        return messageId;
-                    }
-                });
+        Runnable rollback = () -> {
+            // 回滚redis，执行取消点赞脚本
+            List<Object> rollbackResult = redisScriptManager.execute(userThumbIndex.getUnthumbScript(), luaKeys, userThumbIndex.getScriptArgs(userId, blogId, shardTtl));
+            if (Long.parseLong(rollbackResult.getFirst().toString()) == LuaStatusEnum.SUCCESS.getValue()) {
+                incrClusterThumbCount(blogId, -1);
+            }
+            thumbStatusManager.invalidate(userId);
+        };
+        if (!thumbEventOutbox.publish(thumbEvent, rollback)) {
+            // 发件箱中有未发送的消息但已满，不能越过它们直接发送
+            log.error("DoThumb: Outbox is full. Rollback redis...");
+            rollback.run();
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
         log.info("DoThumb: return true");
         return true;
     }
@@ -113,23 +145,31 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
         if (loginUser == null || doThumbRequest == null || doThumbRequest.getBlogId() == null) {
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_INVALID_PARAMS);
         }
-        // 准备redis的key
-        Long userId = loginUser.getId();
-        Long blogId = doThumbRequest.getBlogId();
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(userId);
-        String blogKey = RedisKeyUtil.getBlogKey(blogId);
+        // 携带幂等键的重复请求直接返回第一次请求的结果
+        return idempotencyManager.execute(loginUser.getId(), "undo", doThumbRequest.getIdempotencyKey(),
+                () -> undoThumbOnce(loginUser.getId(), doThumbRequest.getBlogId()));
+    }
+
+    private Boolean undoThumbOnce(Long userId, Long blogId) {
+        // 准入控制：用户点赞过于频繁或热点blog超过限流，在访问redis之前拒绝
+        thumbAdmissionManager.admit(userId, blogId);
+        // 消息待发送队列已满，拒绝请求，避免写入redis后消息发送失败
+        if (thumbEventProducer.isBusy()) {
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+        // 准备redis的key：用户点赞索引的key放在最前面，然后是点赞数的key（热点blog为随机选择的分片）
+        ShardedThumbCounter.CounterTarget counterTarget = shardedThumbCounter.getCounterTarget(blogId);
+        List<String> luaKeys = buildLuaKeys(userId, counterTarget);
+        long shardTtl = counterTarget.shardTtlSeconds();
         // 执行lua脚本：判断是否点赞，若未点赞返回-1；若点赞，取消点赞记录，更新热点blog的点赞数-1
         log.info("UndoThumbLua: Lua delete thumb record in redis...");
-        List<String> luaKeys = List.of(userThumbKey, blogKey);
-        List<Object> resultList = redisTemplate.execute(
-                RedisScript.of(new ClassPathResource("templates/UnthumbMQ.lua"), List.class),
-                luaKeys, blogId
-        );
-        LuaScriptResult result = convertLuaResultList(resultList);
+        LuaScriptResult result = executeThumbScript(userThumbIndex.getUnthumbScript(), userId, luaKeys, blogId, shardTtl);
         // 处理返回值
         if (result.getStatus() == LuaStatusEnum.FAIL.getValue()) {
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_NOT_THUMBED);
         }
+        incrClusterThumbCount(blogId, -1);
+        thumbStatusManager.invalidate(userId);
         // 准备消息
         ThumbEvent thumbEvent = ThumbEvent.builder()
                 .userId(userId)
@@ -137,27 +177,22 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
                 .type(ThumbEvent.EventType.DECR)
                 .eventTime(LocalDateTime.now())
                 .build();
-        // 发送消息，发送失败则回滚redis
+        // 发送消息，发送失败则写入本地发件箱，发件箱不可用时回滚redis
         log.info("UndoThumbLua: Send delete thumb event to MQ...");
-        // 采用Key_Shared订阅模式，严格保证相同 Key 的消息按顺序投递给同一个消费者，确保消息的顺序性
-        // Key的格式为 userId-blogId
-        pulsarTemplate.newMessage(thumbEvent)
-                .withMessageCustomizer(builder -> builder.key(getThumbMessageKey(thumbEvent)))
-                .withTopic(Constant.MQ_THUMB_TOPIC)
-                .sendAsync()
-                .handle((messageId, throwable) -> {
-                    if (throwable != null) {
-                        log.error("UndoThumbLua: Send delete thumb event to MQ failed. Rollback redis...", throwable);
-                        // 回滚redis，执行thumbMQ.lua脚本，需要传入最初的点赞时间
-                        LocalDateTime thumbTime =  result.getThumbTime();
-                        redisTemplate.execute(RedisScript.of(new ClassPathResource("templates/ThumbMQ.lua"), List.class),
-                                luaKeys, blogId, thumbTime);
-                        return null;
-                    } else {
-                        log.info("UndoThumbLua: Send delete thumb event to MQ successfully. Message {}...", messageId);
-                        return messageId;
-                    }
-                });
+        Runnable rollback = () -> {
+            // 回滚redis，执行点赞脚本，需要传入最初的点赞时间（位图索引中没有点赞时间，为null）
+            LocalDateTime thumbTime = result.getThumbTime();
+            List<Object> rollbackResult = redisScriptManager.execute(userThumbIndex.getThumbScript(), luaKeys, userThumbIndex.getScriptArgs(userId, blogId, thumbTime, shardTtl));
+            if (Long.parseLong(rollbackResult.getFirst().toString()) == LuaStatusEnum.SUCCESS.getValue()) {
+                incrClusterThumbCount(blogId, 1);
+            }
+            thumbStatusManager.invalidate(userId);
+        };
+        if (!thumbEventOutbox.publish(thumbEvent, rollback)) {
+            log.error("UndoThumbLua: Outbox is full. Rollback redis...");
+            rollback.run();
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
         log.info("UndoThumbLua: return true");
         return true;
     }
@@ -171,8 +206,12 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
      */
     @Override
     public Boolean hasThumbRedis(Long blogId, Long userId) {
+        // 本地布隆过滤器判断一定没有点赞时不查询redis
+        if (Boolean.FALSE.equals(localThumbBloomFilter.mightContain(userId, blogId))) {
+            return false;
+        }
         log.info("Check thumb using redis.Blog {}, User {}...", blogId, userId);
-        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return userThumbIndex.contains(userId, blogId);
     }
 
     /**
@@ -184,13 +223,82 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb> implemen
      */
     @Override
     public List<Object> hasThumbRedis(List<Long> blogIds, Long userId) {
-        log.info("Check thumbs using redis.Blog ids {}, User {}...", blogIds, userId);
-        List<Object> hashFields = blogIds.stream().map(Object::toString).collect(Collectors.toList());
-        return redisTemplate.opsForHash().multiGet(RedisKeyUtil.getUserThumbKey(userId), hashFields);
+        // 本地布隆过滤器判断一定没有点赞的blog不查询redis，未点赞的位置为null
+        List<Boolean> maybeList = localThumbBloomFilter.mightContain(userId, blogIds);
+        List<Long> candidates = blogIds;
+        if (maybeList != null) {
+            candidates = new ArrayList<>(blogIds.size());
+            for (int i = 0; i < blogIds.size(); i++) {
+                if (maybeList.get(i)) {
+                    candidates.add(blogIds.get(i));
+                }
+            }
+        }
+        List<Object> result = new ArrayList<>(Collections.nCopies(blogIds.size(), null));
+        if (candidates.isEmpty()) {
+            return result;
+        }
+        log.info("Check thumbs using redis.Blog ids {}, User {}...", candidates, userId);
+        List<Boolean> thumbedList = userThumbIndex.contains(userId, candidates);
+        for (int i = 0, j = 0; i < blogIds.size(); i++) {
+            if (maybeList == null || maybeList.get(i)) {
+                result.set(i, thumbedList.get(j++) ? Boolean.TRUE : null);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ThumbStatusVO getThumbStatus(ThumbStatusRequest thumbStatusRequest, HttpServletRequest request) {
+        // 校验参数和用户登录态
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || thumbStatusRequest == null){
+            throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_STATUS_INVALID_PARAMS);
+        }
+        return thumbStatusManager.getThumbStatus(loginUser.getId(), thumbStatusRequest.getBlogIds());
+    }
+
+    private List<String> buildLuaKeys(Long userId, ShardedThumbCounter.CounterTarget counterTarget) {
+        // 集群模式下脚本只访问用户点赞索引所在的slot
+        if (RedisKeyUtil.isClusterEnabled()) {
+            return userThumbIndex.getKeys(userId);
+        }
+        return Stream.of(userThumbIndex.getKeys(userId).stream(), Stream.of(counterTarget.key()), userThumbIndex.getTierKeys().stream())
+                .flatMap(keys -> keys)
+                .toList();
+    }
+
+    /**
+     * 集群模式下点赞脚本不更新blog的点赞数（blog与用户点赞索引不在同一个slot），脚本执行成功后单独更新
+     */
+    private void incrClusterThumbCount(Long blogId, long delta) {
+        if (RedisKeyUtil.isClusterEnabled()) {
+            shardedThumbCounter.incrThumbCount(blogId, delta);
+        }
     }
 
-    private String getThumbMessageKey(ThumbEvent thumbEvent) {
-        return thumbEvent.getUserId() + "-" + thumbEvent.getBlogId();
+    /**
+     * 执行点赞/取消点赞脚本。开启微批处理时，与并发请求合并到同一个管道中执行。
+     * 用户的点赞索引已从redis淘汰时，从数据库加载回redis后重试一次
+     */
+    private LuaScriptResult executeThumbScript(LuaScriptEnum luaScript, Long userId, List<String> luaKeys, Object... args) {
+        LuaScriptResult result = convertLuaResultList(executeThumbScript(luaScript, luaKeys, userThumbIndex.getScriptArgs(userId, args)));
+        if (result.getStatus() == LuaStatusEnum.COLD.getValue()) {
+            log.info("Thumb: User {} thumb index evicted from redis, warm from database...", userId);
+            userThumbIndex.warm(userId);
+            result = convertLuaResultList(executeThumbScript(luaScript, luaKeys, userThumbIndex.getScriptArgs(userId, args)));
+            if (result.getStatus() == LuaStatusEnum.COLD.getValue()) {
+                throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+            }
+        }
+        return result;
+    }
+
+    private List<Object> executeThumbScript(LuaScriptEnum luaScript, List<String> luaKeys, Object... args) {
+        if (thumbScriptBatcher.isEnabled()) {
+            return thumbScriptBatcher.execute(luaScript, luaKeys, args);
+        }
+        return redisScriptManager.execute(luaScript, luaKeys, args);
     }
 
     private LuaScriptResult convertLuaResultList(List<Object> luaResultList){
@@ -5,20 +5,24 @@ import com.bread.breadthumb.constant.Constant;
 import com.bread.breadthumb.exception.BusinessException;
 import com.bread.breadthumb.mapper.ThumbMapper;
 import com.bread.breadthumb.model.dto.DoThumbRequest;
+import com.bread.breadthumb.model.dto.ThumbStatusRequest;
 import com.bread.breadthumb.model.entity.Thumb;
 import com.bread.breadthumb.model.entity.User;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
 import com.bread.breadthumb.model.enums.LuaStatusEnum;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
 import com.bread.breadthumb.service.BlogService;
 import com.bread.breadthumb.service.ThumbService;
 import com.bread.breadthumb.service.UserService;
 import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.RedisScriptManager;
+import com.bread.breadthumb.util.ShardedThumbCounter;
+import com.bread.breadthumb.util.ThumbStatusManager;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -40,6 +44,12 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
     private RedisTemplate<String, Object> redisTemplate;
     @Autowired
     private UserService userService;
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+    @Autowired
+    private ThumbStatusManager thumbStatusManager;
+    @Autowired
+    private ShardedThumbCounter shardedThumbCounter;
 
     @Override
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
@@ -53,19 +63,21 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         Long blogId = doThumbRequest.getBlogId();
         String tempThumbKey = RedisKeyUtil.getTempThumbKey(RedisKeyUtil.getTimeSlice());
         String userThumbKey = RedisKeyUtil.getUserThumbKey(userId);
-        String blogKey = RedisKeyUtil.getBlogKey(blogId);
         // 执行lua脚本：判断是否点赞，若已点赞返回-1；若未点赞，添加点赞记录，添加临时点赞数据，更新热点blog的点赞数+1
         log.info("DoThumb using lua...");
-        long result = redisTemplate.execute(
-                RedisScript.of(new ClassPathResource("templates/Thumb.lua"), Long.class),
-                List.of(tempThumbKey, userThumbKey, blogKey),
+        ShardedThumbCounter.CounterTarget counterTarget = shardedThumbCounter.getCounterTarget(blogId);
+        long result = redisScriptManager.execute(
+                LuaScriptEnum.THUMB,
+                List.of(tempThumbKey, userThumbKey, counterTarget.key()),
                 userId,
-                blogId
+                blogId,
+                counterTarget.shardTtlSeconds()
         );
         // 处理返回值
         if (result == LuaStatusEnum.FAIL.getValue()){
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_ALREADY_THUMBED);
         }
+        thumbStatusManager.invalidate(userId);
         return result == LuaStatusEnum.SUCCESS.getValue();
     }
 
@@ -81,19 +93,21 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         Long blogId = doThumbRequest.getBlogId();
         String tempThumbKey = RedisKeyUtil.getTempThumbKey(RedisKeyUtil.getTimeSlice());
         String userThumbKey = RedisKeyUtil.getUserThumbKey(userId);
-        String blogKey = RedisKeyUtil.getBlogKey(blogId);
         // 执行lua脚本：判断是否点赞，若未点赞返回-1；若点赞，取消点赞记录，取消临时点赞数据，更新热点blog的点赞数-1
         log.info("UndoThumb using lua...");
-        long result = redisTemplate.execute(
-                RedisScript.of(new ClassPathResource("templates/Unthumb.lua"), Long.class),
-                List.of(tempThumbKey, userThumbKey, blogKey),
+        ShardedThumbCounter.CounterTarget counterTarget = shardedThumbCounter.getCounterTarget(blogId);
+        long result = redisScriptManager.execute(
+                LuaScriptEnum.UNTHUMB,
+                List.of(tempThumbKey, userThumbKey, counterTarget.key()),
                 userId,
-                blogId
+                blogId,
+                counterTarget.shardTtlSeconds()
         );
         // 处理返回值
         if (result == LuaStatusEnum.FAIL.getValue()){
             throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_DOTHUMB_NOT_THUMBED);
         }
+        thumbStatusManager.invalidate(userId);
         return result == LuaStatusEnum.SUCCESS.getValue();
     }
 
@@ -121,8 +135,15 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         List<Object> hashFields = blogIds.stream().map(Object::toString).collect(Collectors.toList());
         return redisTemplate.opsForHash().multiGet(RedisKeyUtil.getUserThumbKey(userId), hashFields);
     }
-}
-
-
 
+    @Override
+    public ThumbStatusVO getThumbStatus(ThumbStatusRequest thumbStatusRequest, HttpServletRequest request) {
+        // 校验参数和用户登录态
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || thumbStatusRequest == null){
+            throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_STATUS_INVALID_PARAMS);
+        }
+        return thumbStatusManager.getThumbStatus(loginUser.getId(), thumbStatusRequest.getBlogIds());
+    }
 
+}
@@ -1,27 +1,23 @@
 package com.bread.breadthumb.util;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.bread.breadthumb.common.HeavyKeeper;
 import com.bread.breadthumb.constant.Constant;
 import com.bread.breadthumb.model.entity.Blog;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
 import com.bread.breadthumb.model.enums.LuaStatusEnum;
 import com.bread.breadthumb.service.BlogService;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -36,11 +32,17 @@ public class BlogCacheManager {
             .build();
 
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private RedisTemplate<String, byte[]> hotRedisTemplate;
 
     @Autowired
     private BlogService blogService;
 
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private ShardedThumbCounter shardedThumbCounter;
+
     // 使用定时任务，每5分钟向redis中写入这个时刻Top K的blog，设置过期时间为10分钟
     //@Scheduled(initialDelay = 1000 * 10, fixedRate = 1000 * 60 * 1)
     public void syncHotBlog2Redis(){
@@ -54,32 +56,78 @@ public class BlogCacheManager {
         List<Long> blogIds = topK.stream().map(item -> Long.parseLong(item.getKey())).toList();
         List<Blog> blogList = blogService.lambdaQuery().in(Blog::getId, blogIds).list();
         log.info("Scheduled Task: Got {} Hot Blogs...", blogList.size());
-        // 采用hash结构，key为blog:blogId，field为字段名，value为字段值
-        Map<String, List<String>> arg = blogList.stream().collect(Collectors.toMap(
-                blog -> RedisKeyUtil.getBlogKey(blog.getId()),
-                blog -> {
-                    List<String> fieldList = new ArrayList<>();
-                    Map<String, Object> fieldMap = BeanUtil.beanToMap(blog, false, false);
-                    fieldMap.forEach((fieldName, fieldValue) -> {
-                        fieldList.add(fieldName);
-                        fieldList.add(fieldValue.toString());
-                    });
-                    return fieldList;
-                }
-        ));
-        List<String> keys = new ArrayList<>(arg.keySet());
-        // 使用redisTemplate.execute执行事务保证操作的原子性
-        long result = redisTemplate.execute(
-                RedisScript.of(new ClassPathResource("templates/SyncHotBlog.lua"), Long.class),
-                keys, arg, 600, 120
-        );
-        if (result == LuaStatusEnum.SUCCESS.getValue()){
+        if (writeBlogs(blogList, 600, 120)){
             log.info("Scheduled Task: load HotBlog to redis successfully...");
         }else {
             log.error("Scheduled Task: load HotBlog to redis failed...");
         }
     }
 
+    /**
+     * 用数据库中的blog覆盖redis中的 blog:{id}，并设置过期时间（SyncHotBlog.lua）。
+     * 采用hash结构，key为blog:blogId，field为data（BlogRedisCodec编码）和thumbCount，二进制数据不经过JSON序列化。
+     * 点赞数被数据库中的值覆盖，同一个脚本中删除点赞数分片。
+     * 集群模式下每个blog及其分片在自己的slot，每个blog一次脚本调用，所有调用在一个管道中执行
+     * @param baseExpireSeconds 基础过期时间，已有的过期时间更长时在其基础上延长
+     * @param randomExpireSeconds 过期时间随机增加的上限
+     * @return 是否全部写入成功
+     */
+    public boolean writeBlogs(List<Blog> blogList, long baseExpireSeconds, long randomExpireSeconds) {
+        if (blogList.isEmpty()) {
+            return true;
+        }
+        byte[] baseExpire = BlogRedisCodec.encodeLong(baseExpireSeconds);
+        byte[] randomExpire = BlogRedisCodec.encodeLong(randomExpireSeconds);
+        byte[] shards = BlogRedisCodec.encodeLong(shardedThumbCounter.getShards());
+        if (RedisKeyUtil.isClusterEnabled()) {
+            List<List<String>> keysList = new ArrayList<>(blogList.size());
+            List<byte[][]> argsList = new ArrayList<>(blogList.size());
+            for (Blog blog : blogList) {
+                List<Blog> blogs = List.of(blog);
+                keysList.add(buildKeys(blogs));
+                argsList.add(buildArgs(blogs, baseExpire, randomExpire, shards));
+            }
+            List<Object> results = redisScriptManager.executeRawPipelined(LuaScriptEnum.SYNC_HOT_BLOG, keysList, argsList);
+            boolean success = true;
+            for (int i = 0; i < results.size(); i++) {
+                if (!(results.get(i) instanceof Long result) || result != LuaStatusEnum.SUCCESS.getValue()) {
+                    log.warn("Write blog {} to redis failed: {}...", blogList.get(i).getId(), results.get(i));
+                    success = false;
+                }
+            }
+            return success;
+        }
+        Long result = redisScriptManager.executeRaw(LuaScriptEnum.SYNC_HOT_BLOG, buildKeys(blogList),
+                buildArgs(blogList, baseExpire, randomExpire, shards));
+        return result != null && result == LuaStatusEnum.SUCCESS.getValue();
+    }
+
+    /**
+     * SyncHotBlog.lua的KEYS：所有blog的key，之后依次是每个blog的点赞数分片
+     */
+    private List<String> buildKeys(List<Blog> blogList) {
+        List<String> keys = new ArrayList<>(blogList.size() * (shardedThumbCounter.getShards() + 1));
+        for (Blog blog : blogList) {
+            keys.add(RedisKeyUtil.getBlogKey(blog.getId()));
+        }
+        for (Blog blog : blogList) {
+            keys.addAll(shardedThumbCounter.getShardKeys(blog.getId()));
+        }
+        return keys;
+    }
+
+    private byte[][] buildArgs(List<Blog> blogList, byte[] baseExpire, byte[] randomExpire, byte[] shards) {
+        List<byte[]> args = new ArrayList<>(3 + blogList.size() * 2);
+        args.add(baseExpire);
+        args.add(randomExpire);
+        args.add(shards);
+        for (Blog blog : blogList) {
+            args.add(BlogRedisCodec.encode(blog));
+            args.add(BlogRedisCodec.encodeLong(blog.getThumbCount() == null ? 0 : blog.getThumbCount()));
+        }
+        return args.toArray(new byte[0][]);
+    }
+
     public Blog getBlog(Long blogId){
         String cacheKey = buildCacheKey(Constant.CACHE_BLOG_KEY_PREFIX, blogId.toString());
         // 该blog访问次数+1
@@ -92,11 +140,14 @@ public class BlogCacheManager {
         }
         // 本地缓存未命中，从redis中获取。redis中保留了近10分钟的热点blog
         String redisBlogKey = RedisKeyUtil.getBlogKey(blogId);
-        Map<Object, Object> entries = redisTemplate.opsForHash().entries(redisBlogKey);
-        if (!entries.isEmpty()){
+        blog = getRedisBlog(redisBlogKey);
+        if (blog != null){
             log.info("redis命中{}...", cacheKey);
-            blog = new Blog();
-            BeanUtil.fillBeanWithMap(entries, blog, false);
+            // 热点blog的点赞数加上分片中的增量
+            long shardedDelta = shardedThumbCounter.getShardedDelta(blogId);
+            if (shardedDelta != 0 && blog.getThumbCount() != null) {
+                blog.setThumbCount((int) (blog.getThumbCount() + shardedDelta));
+            }
             if (isHotBlog){
                 // 当前blog是此刻的热点blog，放入本地缓存
                 log.info("{} 放入本地缓存...", cacheKey);
@@ -111,14 +162,32 @@ public class BlogCacheManager {
             log.info("{} 此刻为Hot Blog，异步写入本地缓存和redis...", cacheKey);
             Thread.startVirtualThread(() -> {
                 blogLocalCache.put(cacheKey, currentBlog);
-                Map<String, Object> map = BeanUtil.beanToMap(currentBlog, false, false);
-                redisTemplate.opsForHash().putAll(redisBlogKey, map);
-                redisTemplate.expire(redisBlogKey, 60 * 10 + ThreadLocalRandom.current().nextInt(120), TimeUnit.SECONDS);
+                writeBlogs(List.of(currentBlog), 60 * 10, 120);
             });
         }
         return currentBlog;
     }
 
+    /**
+     * 从redis读取blog，没有data（不存在、旧格式或无法解码）时返回null
+     */
+    private Blog getRedisBlog(String redisBlogKey) {
+        List<byte[]> values = hotRedisTemplate.<String, byte[]>opsForHash().multiGet(redisBlogKey, BlogRedisCodec.FIELDS);
+        try {
+            return BlogRedisCodec.fromHash(values);
+        } catch (SerializationException e) {
+            log.warn("Decode {} failed, load from database...", redisBlogKey, e);
+            return null;
+        }
+    }
+
+    /**
+     * 当前Top K的blog
+     */
+    public List<HeavyKeeper.Item> getHotBlogs() {
+        return hotBlogDetector.getTopK();
+    }
+
     private String buildCacheKey(String keyPrefix, String key){
         return keyPrefix + ":" + key;
     }
@@ -0,0 +1,197 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.model.entity.Blog;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * redis中blog:{blogId}的紧凑编码，替代Jackson（带类型信息的JSON，每个字段一个hash field）。
+ * hash只有两个field，通过hotRedisTemplate（值为byte[]）读写：
+ * 1. data：除点赞数外的所有字段，二进制编码
+ *    版本1：version(1) + 字段存在标记(1) + id(8) + userId(8) + createTime(8) + updateTime(8) + title/coverImg/content（长度(4) + UTF-8），
+ *    为null的字段不写入。新版本只能在末尾追加字段并递增version，解码时多余的字节忽略
+ * 2. thumbCount：十进制数字字符串，点赞脚本直接对该field执行HINCRBY
+ * 没有data的hash（旧格式，或只有点赞脚本写入的thumbCount）视为未命中。
+ */
+public class BlogRedisCodec {
+
+    public static final String DATA_FIELD = "data";
+    public static final String THUMB_COUNT_FIELD = "thumbCount";
+    // HMGET的field顺序，与fromHash的参数一致
+    public static final List<String> FIELDS = List.of(DATA_FIELD, THUMB_COUNT_FIELD);
+
+    static final byte VERSION_1 = 1;
+
+    private static final int ID = 1;
+    private static final int USER_ID = 1 << 1;
+    private static final int CREATE_TIME = 1 << 2;
+    private static final int UPDATE_TIME = 1 << 3;
+    private static final int TITLE = 1 << 4;
+    private static final int COVER_IMG = 1 << 5;
+    private static final int CONTENT = 1 << 6;
+
+    private BlogRedisCodec() {
+    }
+
+    /**
+     * blog对应的hash，点赞数为null时不写入thumbCount
+     */
+    public static Map<String, byte[]> toHash(Blog blog) {
+        Map<String, byte[]> hash = new LinkedHashMap<>(4);
+        hash.put(DATA_FIELD, encode(blog));
+        if (blog.getThumbCount() != null) {
+            hash.put(THUMB_COUNT_FIELD, encodeLong(blog.getThumbCount()));
+        }
+        return hash;
+    }
+
+    /**
+     * @param values HMGET FIELDS的结果
+     * @return 没有data时返回null
+     */
+    public static Blog fromHash(List<byte[]> values) {
+        if (values == null || values.isEmpty() || values.getFirst() == null) {
+            return null;
+        }
+        Blog blog = decode(values.getFirst());
+        if (values.size() > 1 && values.get(1) != null) {
+            blog.setThumbCount((int) decodeLong(values.get(1)));
+        }
+        return blog;
+    }
+
+    public static byte[] encode(Blog blog) {
+        byte[] title = encodeString(blog.getTitle());
+        byte[] coverImg = encodeString(blog.getCoverImg());
+        byte[] content = encodeString(blog.getContent());
+        int flags = 0;
+        int length = 2;
+        if (blog.getId() != null) {
+            flags |= ID;
+            length += 8;
+        }
+        if (blog.getUserId() != null) {
+            flags |= USER_ID;
+            length += 8;
+        }
+        if (blog.getCreateTime() != null) {
+            flags |= CREATE_TIME;
+            length += 8;
+        }
+        if (blog.getUpdateTime() != null) {
+            flags |= UPDATE_TIME;
+            length += 8;
+        }
+        if (title != null) {
+            flags |= TITLE;
+            length += 4 + title.length;
+        }
+        if (coverImg != null) {
+            flags |= COVER_IMG;
+            length += 4 + coverImg.length;
+        }
+        if (content != null) {
+            flags |= CONTENT;
+            length += 4 + content.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length)
+                .put(VERSION_1)
+                .put((byte) flags);
+        if (blog.getId() != null) {
+            buffer.putLong(blog.getId());
+        }
+        if (blog.getUserId() != null) {
+            buffer.putLong(blog.getUserId());
+        }
+        if (blog.getCreateTime() != null) {
+            buffer.putLong(blog.getCreateTime().getTime());
+        }
+        if (blog.getUpdateTime() != null) {
+            buffer.putLong(blog.getUpdateTime().getTime());
+        }
+        putBytes(buffer, title);
+        putBytes(buffer, coverImg);
+        putBytes(buffer, content);
+        return buffer.array();
+    }
+
+    public static Blog decode(byte[] bytes) {
+        if (bytes.length < 2 || bytes[0] < VERSION_1) {
+            throw new SerializationException("Invalid blog data, length " + bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        int flags = buffer.get();
+        Blog blog = new Blog();
+        try {
+            // 版本1的字段，更高版本追加的字段在此之后
+            if ((flags & ID) != 0) {
+                blog.setId(buffer.getLong());
+            }
+            if ((flags & USER_ID) != 0) {
+                blog.setUserId(buffer.getLong());
+            }
+            if ((flags & CREATE_TIME) != 0) {
+                blog.setCreateTime(new Date(buffer.getLong()));
+            }
+            if ((flags & UPDATE_TIME) != 0) {
+                blog.setUpdateTime(new Date(buffer.getLong()));
+            }
+            if ((flags & TITLE) != 0) {
+                blog.setTitle(getString(buffer));
+            }
+            if ((flags & COVER_IMG) != 0) {
+                blog.setCoverImg(getString(buffer));
+            }
+            if ((flags & CONTENT) != 0) {
+                blog.setContent(getString(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Invalid blog data, length " + bytes.length, e);
+        }
+        return blog;
+    }
+
+    /**
+     * 数字编码为十进制字符串，redis的INCRBY/HINCRBY可以直接操作
+     */
+    public static byte[] encodeLong(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static long decodeLong(byte[] bytes) {
+        try {
+            return Long.parseLong(new String(bytes, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new SerializationException("Invalid number " + new String(bytes, StandardCharsets.US_ASCII), e);
+        }
+    }
+
+    private static byte[] encodeString(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes != null) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int position = buffer.position();
+        buffer.position(position + length);
+        return new String(buffer.array(), position, length, StandardCharsets.UTF_8);
+    }
+
+}
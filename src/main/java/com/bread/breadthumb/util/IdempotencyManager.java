@@ -0,0 +1,169 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.exception.BusinessException;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 点赞请求的幂等处理。客户端超时重试时携带相同的幂等键，直接返回第一次请求的结果，不再执行lua脚本，也不会发送第二条消息。
+ * <p>
+ * redis中按时间片存储：key为 thumb:idem:{时间片}，field为 userId:操作:幂等键，value为结果，读写都通过lua脚本。
+ * 每个时间片一个hash，整个hash设置过期时间，不需要为每个幂等键单独设置过期时间。查询时检查覆盖ttl的所有时间片。
+ * 请求开始前写入处理中标记，并发的重复请求返回409；请求完成后写入结果。
+ * 本地Caffeine缓存已完成的结果，同一节点上的重试不访问redis。
+ * <p>
+ * 结果编码：S:{返回值} 成功；E:{code}:{message} 业务失败（如已经点赞）。
+ * 429等可重试的失败和未知异常不记录结果，删除处理中标记，允许客户端重试。
+ */
+@Component
+@Slf4j
+public class IdempotencyManager {
+
+    private static final String PENDING_PREFIX = "P:";
+    private static final String SUCCESS_PREFIX = "S:";
+    private static final String ERROR_PREFIX = "E:";
+    private static final int MAX_KEY_LENGTH = 64;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.idempotency.ttl-seconds:600}") // 幂等键的有效时间
+    private long ttlSeconds;
+    @Value("${thumb.idempotency.slot-seconds:60}") // 时间片长度
+    private long slotSeconds;
+    @Value("${thumb.idempotency.pending-timeout-ms:10000}") // 处理中标记的超时时间
+    private long pendingTimeoutMs;
+    @Value("${thumb.idempotency.local-cache-size:100000}")
+    private long localCacheSize;
+
+    private Cache<String, String> localCache;
+    private Counter localReplayCounter;
+    private Counter redisReplayCounter;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localCacheSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        localReplayCounter = buildReplayCounter("local");
+        redisReplayCounter = buildReplayCounter("redis");
+    }
+
+    /**
+     * 幂等执行action。幂等键为空时直接执行
+     * @param userId 当前用户
+     * @param operation 操作名，不同操作使用相同的幂等键互不影响
+     * @param idempotencyKey 客户端传入的幂等键
+     * @return action的返回值，重复请求返回第一次请求的返回值
+     */
+    public Boolean execute(Long userId, String operation, String idempotencyKey, Supplier<Boolean> action) {
+        if (idempotencyKey == null) {
+            return action.get();
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), Constant.THUMB_IDEMPOTENCY_KEY_INVALID);
+        }
+        String field = userId + ":" + operation + ":" + idempotencyKey;
+        String cached = localCache.getIfPresent(field);
+        if (cached != null) {
+            localReplayCounter.increment();
+            return replay(field, cached);
+        }
+        long now = System.currentTimeMillis();
+        long slot = now / 1000 / slotSeconds;
+        List<String> slotKeys = getSlotKeys(userId, slot);
+        // 当前时间片在 时间片结束 + ttl 后过期
+        long expireSeconds = (slot + 1) * slotSeconds + ttlSeconds - now / 1000;
+        Object existing = redisScriptManager.execute(LuaScriptEnum.IDEMPOTENCY_RESERVE, slotKeys,
+                field, PENDING_PREFIX + now, now, pendingTimeoutMs, expireSeconds);
+        if (existing != null) {
+            redisReplayCounter.increment();
+            return replay(field, existing.toString());
+        }
+        String slotKey = slotKeys.getFirst();
+        Boolean result;
+        try {
+            result = action.get();
+        } catch (BusinessException e) {
+            if (e.getCode() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                release(slotKey, field);
+            } else {
+                complete(slotKey, field, ERROR_PREFIX + e.getCode() + ":" + e.getMessage());
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            release(slotKey, field);
+            throw e;
+        }
+        complete(slotKey, field, SUCCESS_PREFIX + result);
+        return result;
+    }
+
+    private void complete(String slotKey, String field, String value) {
+        redisScriptManager.execute(LuaScriptEnum.IDEMPOTENCY_COMPLETE, List.of(slotKey), field, value);
+        localCache.put(field, value);
+    }
+
+    /**
+     * 删除处理中标记，允许客户端重试
+     */
+    private void release(String slotKey, String field) {
+        redisScriptManager.execute(LuaScriptEnum.IDEMPOTENCY_COMPLETE, List.of(slotKey), field);
+    }
+
+    private Boolean replay(String field, String value) {
+        log.info("Idempotency: Replay {} -> {}...", field, value);
+        if (value.startsWith(SUCCESS_PREFIX)) {
+            localCache.put(field, value);
+            return Boolean.valueOf(value.substring(SUCCESS_PREFIX.length()));
+        }
+        if (value.startsWith(ERROR_PREFIX)) {
+            localCache.put(field, value);
+            String codeAndMessage = value.substring(ERROR_PREFIX.length());
+            int separator = codeAndMessage.indexOf(':');
+            throw new BusinessException(Integer.parseInt(codeAndMessage.substring(0, separator)),
+                    codeAndMessage.substring(separator + 1));
+        }
+        // 第一次请求还在处理中
+        throw new BusinessException(HttpStatus.CONFLICT.value(), Constant.THUMB_REQUEST_IN_PROGRESS);
+    }
+
+    /**
+     * 当前时间片在前，之后是ttl内更早的时间片
+     */
+    private List<String> getSlotKeys(Long userId, long slot) {
+        long slotCount = (ttlSeconds + slotSeconds - 1) / slotSeconds + 1;
+        List<String> slotKeys = new ArrayList<>((int) slotCount);
+        for (long i = 0; i < slotCount; i++) {
+            slotKeys.add(RedisKeyUtil.getIdempotencyKey(userId, slot - i));
+        }
+        return slotKeys;
+    }
+
+    private Counter buildReplayCounter(String source) {
+        return Counter.builder("thumb.idempotency.replay")
+                .description("Thumb requests answered from idempotency store")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+}
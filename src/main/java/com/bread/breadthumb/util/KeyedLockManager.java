@@ -0,0 +1,21 @@
+package com.bread.breadthumb.util;
+
+import java.util.function.Supplier;
+
+/**
+ * 按key加锁执行。相同name和key的操作互斥执行，不同key之间可以并发。
+ * 获取锁超时时抛出BusinessException(429)。
+ * 实现：StripedKeyedLockManager（单机，锁分段）、RedisKeyedLockManager（多节点部署，基于redis的分布式锁），
+ * 通过 thumb.lock.type 切换。
+ */
+public interface KeyedLockManager {
+
+    /**
+     * 持有 name + key 对应的锁执行action，action执行完成后释放锁
+     * @param name 锁的用途，同时作为监控指标的标签，如 thumb
+     * @param key 加锁的对象，如 userId
+     * @return action的返回值
+     */
+    <T> T executeWithLock(String name, Object key, Supplier<T> action);
+
+}
@@ -0,0 +1,356 @@
+package com.bread.breadthumb.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.bread.breadthumb.common.BloomFilter;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.mapper.ThumbMapper;
+import com.bread.breadthumb.model.entity.Thumb;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.bread.breadthumb.mq.ThumbEvent;
+import com.bread.breadthumb.mq.ThumbEventFollower;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 节点本地的点赞布隆过滤器，元素为 (userId, blogId)。信息流中大部分blog都没有被当前用户点赞，
+ * 布隆过滤器判断一定没有点赞的blog不需要访问redis（hasThumbRedis）。
+ * 1. 构建：从数据库thumb表按id顺序读取所有点赞记录，SCAN redis中所有用户的点赞索引，并从点赞主题读取最近 replay-ms 内的消息。
+ *    查询点赞状态以redis中的点赞索引为准，已写入redis、还没有写入数据库的点赞（死信、消费延迟超过 replay-ms、
+ *    其他节点发件箱中的消息）都在点赞索引中；开启冷热分层时已淘汰用户的点赞都已写入数据库
+ * 2. 更新：本节点的点赞写入redis后立即加入；其他节点的点赞由ThumbEventFollower从点赞主题读取后加入
+ * 3. 取消点赞不删除元素，只增加误判；定期（或写入次数超过容量时）重新构建，容量按当前点赞数 * growth 扩容
+ * 构建期间的点赞同时写入新旧两个过滤器。还没有构建完成，或ThumbEventFollower落后超过 max-staleness-ms 时
+ * 不使用布隆过滤器，全部查询redis。
+ * ThumbEventFollower只能读取已发布的点赞：其他节点发件箱中的点赞已写入redis，但还不在过滤器中。
+ * 任意节点的发件箱中有未发送的消息（thumb:outbox:pending 中有未过期的标记，见ThumbEventOutbox）时同样不使用布隆过滤器；
+ * 判断为一定没有点赞的误判窗口不超过消息的发送超时 + 标记的刷新间隔 + outbox-check-interval-ms + max-staleness-ms。
+ */
+@Component
+@Slf4j
+public class LocalThumbBloomFilter {
+
+    // thumb:{userId}、thumb:bm:{userId}，集群模式下userId带hash tag
+    private static final Pattern INDEX_KEY_PATTERN = Pattern.compile(
+            Pattern.quote(Constant.REDIS_USER_THUMB_KEY_PREFIX) + "(?:bm:)?\\{?(\\d+)}?");
+
+    @Autowired
+    private ThumbMapper thumbMapper;
+
+    @Autowired
+    private ThumbEventFollower thumbEventFollower;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.local-bloom.enabled:false}")
+    private boolean enabled;
+    @Value("${thumb.local-bloom.fpp:0.01}") // 误判率
+    private double fpp;
+    @Value("${thumb.local-bloom.min-capacity:1000000}") // 最小容量
+    private long minCapacity;
+    @Value("${thumb.local-bloom.growth:2.0}") // 构建时容量为当前点赞数的倍数
+    private double growth;
+    @Value("${thumb.local-bloom.rebuild-interval-ms:21600000}") // 重新构建的间隔
+    private long rebuildIntervalMs;
+    @Value("${thumb.local-bloom.rebuild-batch-size:5000}") // 构建时每次从数据库读取的点赞记录数，每个管道读取的用户点赞索引数为其1/10
+    private int rebuildBatchSize;
+    @Value("${thumb.local-bloom.replay-ms:300000}") // 构建时从点赞主题读取的时间范围
+    private long replayMs;
+    // ThumbEventFollower落后超过该时间时不使用布隆过滤器。其他节点正在发送（最长为发送超时 thumb.producer.send-timeout-ms）
+    // 或刚写入发件箱（标记最长1s后可见）的点赞仍可能被判断为一定没有点赞，误判窗口见类注释
+    @Value("${thumb.local-bloom.max-staleness-ms:1000}")
+    private long maxStalenessMs;
+    @Value("${thumb.local-bloom.outbox-check-interval-ms:1000}") // 检查 thumb:outbox:pending 的间隔
+    private long outboxCheckIntervalMs;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter rebuilding;
+    private volatile long builtAt;
+    // 最近一次检查时没有节点的发件箱中有未发送的消息的时间，检查失败或有未发送的消息时不更新
+    private volatile long outboxClearAt;
+    private ScheduledExecutorService rebuildExecutor;
+    private ScheduledExecutorService outboxCheckExecutor;
+    private Counter negativeCounter;
+    private Counter positiveCounter;
+    private Counter bypassCounter;
+
+    @PostConstruct
+    public void init() {
+        negativeCounter = buildLookupCounter("negative");
+        positiveCounter = buildLookupCounter("positive");
+        bypassCounter = buildLookupCounter("bypass");
+        Gauge.builder("thumb.local-bloom.insertions", this, filter -> filter.current == null ? 0 : filter.current.getInsertions())
+                .description("Insertions into the local thumb bloom filter since it was built")
+                .register(meterRegistry);
+        Gauge.builder("thumb.local-bloom.expected.fpp", this, filter -> filter.current == null ? 1 : filter.current.expectedFpp())
+                .description("Expected false positive rate of the local thumb bloom filter")
+                .register(meterRegistry);
+        Gauge.builder("thumb.local-bloom.staleness", this, filter -> System.currentTimeMillis() - thumbEventFollower.getSyncedAt())
+                .description("Time since the thumb event follower last caught up, in ms")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        thumbEventFollower.start(replayMs, this::onEvent);
+        rebuildExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-thumb-bloom-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuildExecutor.scheduleWithFixedDelay(this::rebuildIfDue, 0, 1, TimeUnit.MINUTES);
+        // 单独的线程，构建期间仍然检查
+        outboxCheckExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-thumb-bloom-outbox-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outboxCheckExecutor.scheduleWithFixedDelay(this::checkOutboxes, 0, outboxCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+        if (outboxCheckExecutor != null) {
+            outboxCheckExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 本节点的点赞写入redis后调用
+     */
+    public void put(Long userId, Long blogId) {
+        // 先读取rebuilding：构建完成时先替换current再清空rebuilding，两者至少有一个是新的过滤器
+        BloomFilter rebuildingFilter = rebuilding;
+        BloomFilter currentFilter = current;
+        if (rebuildingFilter != null) {
+            rebuildingFilter.put(userId, blogId);
+        }
+        if (currentFilter != null && currentFilter != rebuildingFilter) {
+            currentFilter.put(userId, blogId);
+        }
+    }
+
+    /**
+     * 用户是否可能点赞了blog
+     * @return false表示一定没有点赞；布隆过滤器不可用时返回null，需要查询redis
+     */
+    public Boolean mightContain(Long userId, Long blogId) {
+        List<Boolean> maybeList = mightContain(userId, List.of(blogId));
+        return maybeList == null ? null : maybeList.getFirst();
+    }
+
+    /**
+     * 批量查询用户是否可能点赞
+     * @return 与blogIds一一对应，false表示一定没有点赞；布隆过滤器不可用时返回null，需要查询redis
+     */
+    public List<Boolean> mightContain(Long userId, List<Long> blogIds) {
+        BloomFilter filter = current;
+        long now = System.currentTimeMillis();
+        if (!enabled || filter == null || now - thumbEventFollower.getSyncedAt() > maxStalenessMs
+                || now - outboxClearAt > outboxCheckIntervalMs * 2) {
+            bypassCounter.increment(blogIds.size());
+            return null;
+        }
+        List<Boolean> maybeList = new ArrayList<>(blogIds.size());
+        int negatives = 0;
+        for (Long blogId : blogIds) {
+            boolean maybe = filter.mightContain(userId, blogId);
+            maybeList.add(maybe);
+            if (!maybe) {
+                negatives++;
+            }
+        }
+        negativeCounter.increment(negatives);
+        positiveCounter.increment(blogIds.size() - negatives);
+        return maybeList;
+    }
+
+    private void onEvent(ThumbEvent thumbEvent) {
+        if (isThumb(thumbEvent)) {
+            put(thumbEvent.getUserId(), thumbEvent.getBlogId());
+        }
+    }
+
+    private static boolean isThumb(ThumbEvent thumbEvent) {
+        return thumbEvent.getType() == ThumbEvent.EventType.INCR && thumbEvent.getUserId() != null && thumbEvent.getBlogId() != null;
+    }
+
+    /**
+     * 检查是否有节点的发件箱中有未发送的消息，同时删除已过期的标记（节点宕机）
+     */
+    private void checkOutboxes() {
+        try {
+            long now = System.currentTimeMillis();
+            redisTemplate.opsForZSet().removeRangeByScore(Constant.REDIS_OUTBOX_PENDING_KEY, Double.NEGATIVE_INFINITY, now);
+            Long pendingNodes = redisTemplate.opsForZSet().count(Constant.REDIS_OUTBOX_PENDING_KEY, now, Double.POSITIVE_INFINITY);
+            if (pendingNodes != null && pendingNodes == 0) {
+                outboxClearAt = now;
+            }
+        } catch (Exception e) {
+            log.warn("LocalThumbBloomFilter: Check outboxes failed...", e);
+        }
+    }
+
+    private void rebuildIfDue() {
+        BloomFilter filter = current;
+        if (filter != null && System.currentTimeMillis() - builtAt < rebuildIntervalMs && filter.getInsertions() <= filter.getCapacity()) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            rebuilding = null;
+            log.error("LocalThumbBloomFilter: Rebuild failed, retry in 1 minute...", e);
+        }
+    }
+
+    private void rebuild() throws Exception {
+        long start = System.nanoTime();
+        long count = thumbMapper.selectCount(null);
+        BloomFilter filter = new BloomFilter(Math.max(minCapacity, (long) (count * growth)), fpp);
+        log.info("LocalThumbBloomFilter: Rebuild start, {} thumbs, capacity {}, {} MB...",
+                count, filter.getCapacity(), filter.getBits() >>> 23);
+        // 此后读取到的点赞同时写入新的过滤器
+        rebuilding = filter;
+        // 已发布、可能还没有写入数据库的点赞
+        thumbEventFollower.replay(replayMs, thumbEvent -> {
+            if (isThumb(thumbEvent)) {
+                filter.put(thumbEvent.getUserId(), thumbEvent.getBlogId());
+            }
+        });
+        // 已写入redis、可能还没有写入数据库的点赞
+        long users = putUserThumbIndexes(filter);
+        long lastId = 0;
+        while (true) {
+            List<Thumb> thumbList = thumbMapper.selectList(new LambdaQueryWrapper<Thumb>()
+                    .select(Thumb::getId, Thumb::getUserId, Thumb::getBlogId)
+                    .gt(Thumb::getId, lastId)
+                    .orderByAsc(Thumb::getId)
+                    .last("LIMIT " + Math.max(rebuildBatchSize, 1)));
+            if (thumbList.isEmpty()) {
+                break;
+            }
+            for (Thumb thumb : thumbList) {
+                filter.put(thumb.getUserId(), thumb.getBlogId());
+            }
+            lastId = thumbList.getLast().getId();
+        }
+        current = filter;
+        rebuilding = null;
+        builtAt = System.currentTimeMillis();
+        log.info("LocalThumbBloomFilter: Rebuild finished, {} insertions, {} users from redis in {}s...",
+                filter.getInsertions(), users, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    /**
+     * SCAN所有用户点赞索引（集群模式下逐个扫描主节点），每批用户一个管道读取索引中的blog加入过滤器
+     * @return 读取的用户数
+     */
+    private long putUserThumbIndexes(BloomFilter filter) {
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(Constant.REDIS_USER_THUMB_KEY_PREFIX + "*").count(1000).build();
+        int batchSize = Math.max(rebuildBatchSize / 10, 1);
+        Long users = redisTemplate.execute((RedisCallback<Long>) connection -> {
+            List<Cursor<byte[]>> cursors = new ArrayList<>();
+            if (connection instanceof RedisClusterConnection clusterConnection) {
+                for (RedisClusterNode node : clusterConnection.clusterGetNodes()) {
+                    if (node.isMaster()) {
+                        cursors.add(clusterConnection.scan(node, scanOptions));
+                    }
+                }
+            } else {
+                cursors.add(connection.keyCommands().scan(scanOptions));
+            }
+            long count = 0;
+            // 位图模式下同一个用户可能同时有hash索引和位图索引，一批内去重
+            Set<Long> userIds = new LinkedHashSet<>();
+            for (Cursor<byte[]> cursor : cursors) {
+                try (cursor) {
+                    while (cursor.hasNext()) {
+                        Matcher matcher = INDEX_KEY_PATTERN.matcher(new String(cursor.next(), StandardCharsets.UTF_8));
+                        if (matcher.matches()) {
+                            userIds.add(Long.valueOf(matcher.group(1)));
+                        }
+                        if (userIds.size() >= batchSize) {
+                            count += putUserThumbIndexes(filter, userIds);
+                        }
+                    }
+                }
+            }
+            return count + putUserThumbIndexes(filter, userIds);
+        });
+        return users == null ? 0 : users;
+    }
+
+    private int putUserThumbIndexes(BloomFilter filter, Set<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        List<Long> userIdList = new ArrayList<>(userIds);
+        userIds.clear();
+        List<List<String>> keysList = new ArrayList<>(userIdList.size());
+        List<Object[]> argsList = new ArrayList<>(userIdList.size());
+        for (Long userId : userIdList) {
+            keysList.add(List.of(RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbBitmapKey(userId)));
+            argsList.add(new Object[0]);
+        }
+        List<Object> results = redisScriptManager.executePipelined(LuaScriptEnum.LIST_USER_THUMB_INDEX, keysList, argsList);
+        for (int i = 0; i < userIdList.size(); i++) {
+            if (results.get(i) instanceof List<?> blogIds) {
+                for (Object blogId : blogIds) {
+                    filter.put(userIdList.get(i), Long.valueOf(blogId.toString()));
+                }
+            } else if (results.get(i) instanceof Throwable e) {
+                // 漏掉的点赞会被判断为一定没有点赞，构建失败，稍后重试
+                throw new IllegalStateException("Read user " + userIdList.get(i) + " thumb index failed", e);
+            }
+        }
+        return userIdList.size();
+    }
+
+    private Counter buildLookupCounter(String result) {
+        return Counter.builder("thumb.local-bloom.lookups")
+                .description("Thumb status lookups answered by the local bloom filter, negative ones skip redis")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+}
@@ -6,10 +6,54 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * redis key的生成。
+ * 集群模式（thumb.redis.cluster.enabled）下id使用hash tag：thumb:{userId}、thumb:bm:{userId}、thumb:idem:{userId}:{时间片}
+ * 在同一个slot，blog:{blogId}及其分片在同一个slot，每个lua脚本只访问一个slot（见RedisConfig）。
+ * 非集群模式下key不变（如 thumb:123），已有数据不需要迁移。
+ */
 public class RedisKeyUtil {
 
+    private static volatile boolean clusterEnabled;
+
+    /**
+     * 由RedisKeyLayoutInitializer在创建任何bean之前根据 thumb.redis.cluster.enabled 设置，运行期间不变
+     */
+    public static void setClusterEnabled(boolean enabled) {
+        clusterEnabled = enabled;
+    }
+
+    public static boolean isClusterEnabled() {
+        return clusterEnabled;
+    }
+
+    /**
+     * 集群模式下返回 {id}，相同id的key分配到同一个slot
+     */
+    public static String hashTag(Object id) {
+        return clusterEnabled ? "{" + id + "}" : String.valueOf(id);
+    }
+
     public static String getUserThumbKey(Long userId) {
-        return Constant.REDIS_USER_THUMB_KEY_PREFIX + userId;
+        return Constant.REDIS_USER_THUMB_KEY_PREFIX + hashTag(userId);
+    }
+
+    /**
+     * 获取用户点赞位图索引的key
+     */
+    public static String getUserThumbBitmapKey(Long userId) {
+        return Constant.REDIS_USER_THUMB_BITMAP_KEY_PREFIX + hashTag(userId);
+    }
+
+    /**
+     * 获取幂等键时间片的key。集群模式下每个用户一组时间片，与用户的点赞索引在同一个slot
+     * @param slot 时间片
+     */
+    public static String getIdempotencyKey(Long userId, long slot) {
+        if (clusterEnabled) {
+            return Constant.REDIS_IDEMPOTENCY_KEY_PREFIX + hashTag(userId) + ":" + slot;
+        }
+        return Constant.REDIS_IDEMPOTENCY_KEY_PREFIX + slot;
     }
 
     /**
@@ -21,7 +65,15 @@ public class RedisKeyUtil {
     }
 
     public static String getBlogKey(Long blogId){
-        return Constant.REDIS_BLOG_KEY_PREFIX + blogId;
+        return Constant.REDIS_BLOG_KEY_PREFIX + hashTag(blogId);
+    }
+
+    /**
+     * 获取热点blog点赞数分片的key
+     * @param shard 分片编号
+     */
+    public static String getBlogCounterShardKey(Long blogId, int shard){
+        return Constant.REDIS_BLOG_COUNTER_SHARD_KEY.formatted(hashTag(blogId), shard);
     }
 
     public static String getTimeSlice(){
@@ -0,0 +1,111 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.exception.BusinessException;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 基于redis的分布式锁，多节点部署时使用。
+ * 加锁：SET lock:{name}:{key} token NX PX leaseMs，失败时指数退避重试直到超时；
+ * 解锁：lua脚本比较token后删除。lease时间应大于action的最长执行时间，否则锁提前过期。
+ * 监控指标与StripedKeyedLockManager相同。
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "thumb.lock.type", havingValue = "redis")
+public class RedisKeyedLockManager implements KeyedLockManager {
+
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final long MIN_BACKOFF_MS = 1;
+    private static final long MAX_BACKOFF_MS = 50;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.lock.timeout-ms:3000}") // 获取锁的超时时间，小于等于0时一直等待
+    private long timeoutMs;
+    @Value("${thumb.lock.lease-ms:10000}") // 锁的过期时间
+    private long leaseMs;
+
+    private final Map<String, StripedKeyedLockManager.LockMeters> metersMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        log.info("RedisKeyedLockManager created, timeout {}ms, lease {}ms...", timeoutMs, leaseMs);
+    }
+
+    @Override
+    public <T> T executeWithLock(String name, Object key, Supplier<T> action) {
+        String lockKey = LOCK_KEY_PREFIX + name + ":" + key;
+        String token = UUID.randomUUID().toString();
+        lock(lockKey, token, name);
+        try {
+            return action.get();
+        } finally {
+            Long released = redisScriptManager.execute(LuaScriptEnum.UNLOCK, List.of(lockKey), token);
+            if (released == null || released == 0) {
+                log.warn("Redis lock {} expired before release...", lockKey);
+            }
+        }
+    }
+
+    private void lock(String lockKey, String token, String name) {
+        StripedKeyedLockManager.LockMeters meters = metersMap.computeIfAbsent(name,
+                lockName -> StripedKeyedLockManager.buildMeters(meterRegistry, lockName));
+        if (tryLock(lockKey, token)) {
+            meters.waitTimer().record(0, TimeUnit.NANOSECONDS);
+            return;
+        }
+        meters.contendedCounter().increment();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long backoffMs = MIN_BACKOFF_MS;
+        boolean locked = false;
+        try {
+            while (timeoutMs <= 0 || System.nanoTime() < deadline) {
+                Thread.sleep(backoffMs);
+                if (tryLock(lockKey, token)) {
+                    locked = true;
+                    break;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        meters.waitTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!locked) {
+            meters.timeoutCounter().increment();
+            log.warn("Acquire redis lock {} timeout after {}ms...", lockKey, timeoutMs);
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+    }
+
+    private boolean tryLock(String lockKey, String token) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lockKey, token, Duration.ofMillis(leaseMs)));
+    }
+
+}
@@ -0,0 +1,336 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.DefaultScriptExecutor;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Response;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * lua脚本管理器。
+ * 启动时一次性读取templates目录下的所有lua脚本并SCRIPT LOAD到redis，之后统一通过EVALSHA执行，
+ * 避免每次请求都从classpath读取脚本、重新计算sha1。
+ * 哨兵主从切换后新master上没有脚本缓存，EVALSHA返回NOSCRIPT时重新加载脚本并重试。
+ * 脚本可以通过 -- #include 引入templates/lib目录下的公共函数，加载时展开。
+ * 集群模式下SCRIPT LOAD到所有节点，EVALSHA路由到第一个key所在的节点，同一次调用的所有key必须在同一个slot；
+ * 批量执行时使用Jedis的ClusterPipeline，调用按所在的节点分组，每个节点一个管道。
+ */
+@Component
+@Slf4j
+public class RedisScriptManager {
+
+    private static final String SCRIPT_LOCATION_PATTERN = "classpath:templates/*.lua";
+    private static final String NO_SCRIPT_ERROR = "NOSCRIPT";
+    private static final String INCLUDE_LOCATION = "classpath:templates/lib/";
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("(?m)^-- #include (\\S+)$");
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // key为脚本文件名，value为脚本（脚本内容和sha1只计算一次）
+    private final Map<String, RedisScript<?>> scriptMap = new HashMap<>();
+    // key为脚本sha1，value为EVALSHA命中/未命中（NOSCRIPT）计数器
+    private final Map<String, Counter> hitCounterMap = new HashMap<>();
+    private final Map<String, Counter> missCounterMap = new HashMap<>();
+
+    private CountingScriptExecutor scriptExecutor;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(SCRIPT_LOCATION_PATTERN);
+        Map<String, LuaScriptEnum> enumMap = new HashMap<>();
+        for (LuaScriptEnum luaScript : LuaScriptEnum.values()) {
+            enumMap.put(luaScript.getFileName(), luaScript);
+        }
+        for (Resource resource : resources) {
+            String fileName = resource.getFilename();
+            String scriptText = resolveIncludes(resource.getContentAsString(StandardCharsets.UTF_8));
+            LuaScriptEnum luaScript = enumMap.get(fileName);
+            Class<?> resultType = luaScript == null ? Object.class : luaScript.getResultType();
+            RedisScript<?> script = new DefaultRedisScript<>(scriptText, resultType);
+            scriptMap.put(fileName, script);
+            hitCounterMap.put(script.getSha1(), buildCounter(fileName, "hit"));
+            missCounterMap.put(script.getSha1(), buildCounter(fileName, "miss"));
+        }
+        for (LuaScriptEnum luaScript : LuaScriptEnum.values()) {
+            if (!scriptMap.containsKey(luaScript.getFileName())) {
+                throw new IllegalStateException("Lua script not found: templates/" + luaScript.getFileName());
+            }
+        }
+        scriptExecutor = new CountingScriptExecutor(redisTemplate);
+        loadScripts();
+    }
+
+    /**
+     * 将脚本中的 -- #include 文件名 替换为templates/lib目录下对应文件的内容，多个脚本共用的lua函数放在lib目录中
+     */
+    private static String resolveIncludes(String scriptText) throws IOException {
+        Matcher matcher = INCLUDE_PATTERN.matcher(scriptText);
+        StringBuilder resolved = new StringBuilder();
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        while (matcher.find()) {
+            Resource library = resolver.getResource(INCLUDE_LOCATION + matcher.group(1));
+            if (!library.exists()) {
+                throw new IllegalStateException("Lua library not found: templates/lib/" + matcher.group(1));
+            }
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(library.getContentAsString(StandardCharsets.UTF_8)));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    /**
+     * 将所有脚本SCRIPT LOAD到redis中
+     */
+    public void loadScripts() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            scriptMap.forEach((fileName, script) -> {
+                String sha1 = connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                log.info("Load lua script {} to redis, sha1 {}...", fileName, sha1);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 通过EVALSHA执行lua脚本，keys和args的序列化方式与redisTemplate.execute一致
+     * @param luaScript 脚本
+     * @param keys 脚本的KEYS
+     * @param args 脚本的ARGV
+     * @return 脚本返回值，类型为luaScript.getResultType()
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(LuaScriptEnum luaScript, List<String> keys, Object... args) {
+        RedisScript<T> script = (RedisScript<T>) scriptMap.get(luaScript.getFileName());
+        return scriptExecutor.execute(script, keys, args);
+    }
+
+    /**
+     * 通过EVALSHA执行lua脚本，args不经过value序列化器（JSON），原样传入ARGV，用于二进制数据（如BlogRedisCodec）
+     * @param luaScript 脚本
+     * @param keys 脚本的KEYS
+     * @param args 脚本的ARGV
+     * @return 脚本返回值，类型为luaScript.getResultType()
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T executeRaw(LuaScriptEnum luaScript, List<String> keys, byte[]... args) {
+        RedisScript<T> script = (RedisScript<T>) scriptMap.get(luaScript.getFileName());
+        return scriptExecutor.execute(script, RedisSerializer.byteArray(),
+                (RedisSerializer<T>) redisTemplate.getValueSerializer(), keys, (Object[]) args);
+    }
+
+    /**
+     * 在一个管道中批量执行同一个lua脚本，多次脚本调用只需要一次网络往返。
+     * 管道中的脚本依次执行，同一批次中先提交的调用先执行。集群模式下每个节点一个管道，同一个节点上的调用按提交顺序执行。
+     * @param luaScript 脚本
+     * @param keysList 每次调用的KEYS
+     * @param argsList 每次调用的ARGV，与keysList一一对应
+     * @return 与keysList一一对应的返回值，执行失败的调用对应位置为异常对象
+     */
+    public List<Object> executePipelined(LuaScriptEnum luaScript, List<List<String>> keysList, List<Object[]> argsList) {
+        List<byte[][]> keysAndArgsList = new ArrayList<>(keysList.size());
+        for (int i = 0; i < keysList.size(); i++) {
+            keysAndArgsList.add(serializeKeysAndArgs(keysList.get(i), argsList.get(i)));
+        }
+        return executeSerializedPipelined(luaScript, keysList, keysAndArgsList);
+    }
+
+    /**
+     * 与executePipelined相同，args不经过value序列化器，原样传入ARGV，用于二进制数据（如BlogRedisCodec）
+     * @param argsList 每次调用的ARGV，与keysList一一对应
+     */
+    public List<Object> executeRawPipelined(LuaScriptEnum luaScript, List<List<String>> keysList, List<byte[][]> argsList) {
+        List<byte[][]> keysAndArgsList = new ArrayList<>(keysList.size());
+        for (int i = 0; i < keysList.size(); i++) {
+            byte[][] keysAndArgs = serializeKeysAndArgs(keysList.get(i), new Object[0]);
+            byte[][] args = argsList.get(i);
+            keysAndArgs = Arrays.copyOf(keysAndArgs, keysAndArgs.length + args.length);
+            System.arraycopy(args, 0, keysAndArgs, keysAndArgs.length - args.length, args.length);
+            keysAndArgsList.add(keysAndArgs);
+        }
+        return executeSerializedPipelined(luaScript, keysList, keysAndArgsList);
+    }
+
+    private List<Object> executeSerializedPipelined(LuaScriptEnum luaScript, List<List<String>> keysList, List<byte[][]> keysAndArgsList) {
+        RedisScript<?> script = scriptMap.get(luaScript.getFileName());
+        String sha1 = script.getSha1();
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        List<Object> results = new ArrayList<>(evalShaPipelined(sha1, returnType, keysList, keysAndArgsList));
+        // NOSCRIPT的调用没有执行，重新加载脚本后只重试这部分调用
+        List<Integer> noScriptIndexes = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) instanceof Throwable e && isNoScriptError(e)) {
+                noScriptIndexes.add(i);
+            }
+        }
+        hitCounterMap.get(sha1).increment(results.size() - noScriptIndexes.size());
+        if (!noScriptIndexes.isEmpty()) {
+            log.warn("Lua script {} not found in redis, reload and retry {} calls...", sha1, noScriptIndexes.size());
+            missCounterMap.get(sha1).increment(noScriptIndexes.size());
+            loadScripts();
+            List<List<String>> retryKeysList = new ArrayList<>(noScriptIndexes.size());
+            List<byte[][]> retryKeysAndArgsList = new ArrayList<>(noScriptIndexes.size());
+            for (int index : noScriptIndexes) {
+                retryKeysList.add(keysList.get(index));
+                retryKeysAndArgsList.add(keysAndArgsList.get(index));
+            }
+            List<Object> retryResults = evalShaPipelined(sha1, returnType, retryKeysList, retryKeysAndArgsList);
+            for (int i = 0; i < noScriptIndexes.size(); i++) {
+                results.set(noScriptIndexes.get(i), retryResults.get(i));
+            }
+        }
+        results.replaceAll(this::deserializeRawResult);
+        return results;
+    }
+
+    private List<Object> evalShaPipelined(String sha1, ReturnType returnType, List<List<String>> keysList, List<byte[][]> keysAndArgsList) {
+        return redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            if (connection.getNativeConnection() instanceof JedisCluster jedisCluster) {
+                return evalShaClusterPipelined(jedisCluster, sha1, keysList, keysAndArgsList);
+            }
+            connection.openPipeline();
+            for (int i = 0; i < keysAndArgsList.size(); i++) {
+                connection.scriptingCommands().evalSha(sha1, returnType, keysList.get(i).size(), keysAndArgsList.get(i));
+            }
+            try {
+                return connection.closePipeline();
+            } catch (RedisPipelineException e) {
+                // 部分调用失败，失败的位置为异常对象
+                return e.getPipelineResult();
+            }
+        });
+    }
+
+    /**
+     * 集群模式：spring的集群连接不支持管道，使用JedisCluster的ClusterPipeline，按第一个key所在的slot路由，
+     * 每个节点一个管道。返回值为Jedis的原始结果（Long、byte[]、List），执行失败的调用对应位置为异常对象
+     */
+    private List<Object> evalShaClusterPipelined(JedisCluster jedisCluster, String sha1, List<List<String>> keysList,
+                                                 List<byte[][]> keysAndArgsList) {
+        byte[] sha1Bytes = sha1.getBytes(StandardCharsets.UTF_8);
+        List<Response<Object>> responses = new ArrayList<>(keysAndArgsList.size());
+        try (ClusterPipeline pipeline = jedisCluster.pipelined()) {
+            for (int i = 0; i < keysAndArgsList.size(); i++) {
+                responses.add(pipeline.evalsha(sha1Bytes, keysList.get(i).size(), keysAndArgsList.get(i)));
+            }
+            pipeline.sync();
+        }
+        List<Object> results = new ArrayList<>(responses.size());
+        for (Response<Object> response : responses) {
+            try {
+                results.add(response.get());
+            } catch (Exception e) {
+                // 节点返回错误，或节点连接失败没有返回结果
+                results.add(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * keys采用key序列化器，args采用value序列化器，与redisTemplate.execute执行脚本时一致
+     */
+    @SuppressWarnings("unchecked")
+    private byte[][] serializeKeysAndArgs(List<String> keys, Object[] args) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = keySerializer.serialize(key);
+        }
+        for (Object arg : args) {
+            keysAndArgs[i++] = valueSerializer.serialize(arg);
+        }
+        return keysAndArgs;
+    }
+
+    private Object deserializeRawResult(Object raw) {
+        if (raw instanceof byte[] bytes) {
+            return redisTemplate.getValueSerializer().deserialize(bytes);
+        }
+        if (raw instanceof List<?> list) {
+            List<Object> deserialized = new ArrayList<>(list.size());
+            for (Object element : list) {
+                deserialized.add(deserializeRawResult(element));
+            }
+            return deserialized;
+        }
+        return raw;
+    }
+
+    private Counter buildCounter(String fileName, String result) {
+        return Counter.builder("thumb.redis.script.evalsha")
+                .description("EVALSHA hit/miss (NOSCRIPT) count of lua scripts")
+                .tag("script", fileName)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static boolean isNoScriptError(Throwable e) {
+        while (e != null) {
+            if (e.getMessage() != null && e.getMessage().contains(NO_SCRIPT_ERROR)) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * 只使用EVALSHA执行脚本。NOSCRIPT时重新SCRIPT LOAD后再次EVALSHA，不再传输完整脚本进行EVAL
+     */
+    private class CountingScriptExecutor extends DefaultScriptExecutor<String> {
+
+        CountingScriptExecutor(RedisTemplate<String, ?> template) {
+            super(template);
+        }
+
+        @Override
+        protected <T> T eval(RedisConnection connection, RedisScript<T> script, ReturnType returnType, int numKeys,
+                             byte[][] keysAndArgs, RedisSerializer<T> resultSerializer) {
+            String sha1 = script.getSha1();
+            Object result;
+            try {
+                result = connection.scriptingCommands().evalSha(sha1, returnType, numKeys, keysAndArgs);
+                hitCounterMap.get(sha1).increment();
+            } catch (Exception e) {
+                if (!isNoScriptError(e)) {
+                    throw e;
+                }
+                // redis中没有该脚本（如哨兵主从切换、SCRIPT FLUSH），重新加载
+                log.warn("Lua script {} not found in redis, reload...", sha1);
+                missCounterMap.get(sha1).increment();
+                connection.scriptingCommands().scriptLoad(scriptBytes(script));
+                result = connection.scriptingCommands().evalSha(sha1, returnType, numKeys, keysAndArgs);
+            }
+            return script.getResultType() == null ? null : deserializeResult(resultSerializer, result);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.common.HeavyKeeper;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 热点blog点赞数的分片计数。
+ * 所有点赞都对同一个 blog:{id} 执行HINCRBY，爆款blog的点赞全部落在redis的同一个key上。
+ * BlogCacheManager检测到的热点blog写入 blog:sharded（zset，score为最近一次被判定为热点的时间），各节点定时读取到本地。
+ * 是否写分片由调用方根据本地的分片blog集合判断（getCounterTarget），点赞脚本只访问随机选择的一个分片 blog:{id}:cnt:{shard}，
+ * 不访问 blog:sharded 和 blog:{id}（见templates/lib/BlogThumbCount.lua）。分片有自己的过期时间（shard-ttl-seconds），每次写入时延长。
+ * 读取点赞数时加上所有分片的增量（本地短时间缓存）。blog从数据库重新加载时，SyncHotBlog.lua在覆盖点赞数的同一个脚本中删除分片。
+ * blog冷却后，由定时任务将分片的增量合并回 blog:{id} 并删除分片。各节点在blog冷却一半时间后就不再写分片，
+ * 合并时其他节点的本地集合已经刷新，不会再有点赞写入已合并的分片。
+ * 集群模式下不支持分片（blog:sharded 与blog不在同一个slot），点赞数通过incrThumbCount更新。
+ */
+@Component
+@Slf4j
+public class ShardedThumbCounter {
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisTemplate<String, byte[]> hotRedisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    @Lazy
+    private BlogCacheManager blogCacheManager;
+
+    @Value("${thumb.counter.sharding.enabled:false}")
+    private boolean enabled;
+    @Value("${thumb.counter.sharding.shards:8}") // 每个热点blog的分片数
+    private int shards;
+    @Value("${thumb.counter.sharding.hot-threshold:1000}") // 访问次数达到该值的Top K blog开启分片
+    private int hotThreshold;
+    @Value("${thumb.counter.sharding.cool-down-ms:60000}") // 不再是热点超过该时间后合并分片
+    private long coolDownMs;
+    @Value("${thumb.counter.sharding.shard-ttl-seconds:900}") // 分片的过期时间，每次写入时延长，需要大于cool-down-ms
+    private long shardTtlSeconds;
+
+    // 本节点已知的分片blog，定时从 blog:sharded 刷新，用于判断读取时是否需要加上分片
+    private volatile Set<Long> shardedBlogIds = Set.of();
+    // 其中仍然是热点（冷却未超过一半时间）的blog，点赞写入分片
+    private volatile Set<Long> writeShardedBlogIds = Set.of();
+    private final Cache<Long, Long> shardedDeltaCache = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 点赞脚本更新点赞数的key和分片的过期时间
+     * @param key blog:{id}，或随机选择的分片 blog:{id}:cnt:{shard}
+     * @param shardTtlSeconds 分片的过期时间，key不是分片时为0
+     */
+    public record CounterTarget(String key, long shardTtlSeconds) {
+    }
+
+    /**
+     * 点赞脚本中计数的key：本地集合中的热点blog随机选择一个分片，否则为 blog:{id}
+     */
+    public CounterTarget getCounterTarget(Long blogId) {
+        if (!writeShardedBlogIds.contains(blogId)) {
+            return new CounterTarget(RedisKeyUtil.getBlogKey(blogId), 0);
+        }
+        int shard = ThreadLocalRandom.current().nextInt(shards);
+        return new CounterTarget(RedisKeyUtil.getBlogCounterShardKey(blogId, shard), shardTtlSeconds);
+    }
+
+    /**
+     * 获取blog在分片中的点赞数增量，blog没有分片时返回0
+     */
+    public long getShardedDelta(Long blogId) {
+        if (!shardedBlogIds.contains(blogId)) {
+            return 0;
+        }
+        return shardedDeltaCache.get(blogId, id -> {
+            // 分片为INCRBY写入的十进制数字，不经过JSON反序列化
+            List<byte[]> values = hotRedisTemplate.opsForValue().multiGet(getShardKeys(id));
+            long delta = 0;
+            if (values != null) {
+                for (byte[] value : values) {
+                    if (value != null) {
+                        delta += BlogRedisCodec.decodeLong(value);
+                    }
+                }
+            }
+            return delta;
+        });
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * 集群模式下点赞脚本只访问用户点赞索引所在的slot，点赞/取消点赞成功后由该方法在blog所在的slot更新点赞数。
+     * 与点赞脚本不是原子的：更新失败时只记录日志，redis中的点赞数相差1，直到blog过期或被数据库中的值覆盖
+     */
+    public void incrThumbCount(Long blogId, long delta) {
+        try {
+            redisScriptManager.execute(LuaScriptEnum.INCR_BLOG_THUMB_COUNT, List.of(RedisKeyUtil.getBlogKey(blogId)), delta);
+        } catch (Exception e) {
+            log.warn("ShardedThumbCounter: Update blog {} thumb count by {} failed...", blogId, delta, e);
+        }
+    }
+
+    /**
+     * 将本节点检测到的热点blog写入 blog:sharded，并刷新本地的分片blog集合
+     */
+    @Scheduled(initialDelay = 5000, fixedDelay = 5000)
+    public void refreshShardedBlogs() {
+        // 关闭分片后不再加入新的blog，已有的分片仍然参与读取，冷却后合并
+        if (enabled) {
+            long now = System.currentTimeMillis();
+            for (HeavyKeeper.Item item : blogCacheManager.getHotBlogs()) {
+                if (item.getCount() >= hotThreshold) {
+                    redisTemplate.opsForZSet().add(Constant.REDIS_SHARDED_BLOG_KEY, Long.parseLong(item.getKey()), now);
+                }
+            }
+        }
+        Set<ZSetOperations.TypedTuple<Object>> members = redisTemplate.opsForZSet().rangeWithScores(Constant.REDIS_SHARDED_BLOG_KEY, 0, -1);
+        if (members == null) {
+            members = Set.of();
+        }
+        long writeDeadline = System.currentTimeMillis() - coolDownMs / 2;
+        shardedBlogIds = members.stream()
+                .map(member -> Long.parseLong(String.valueOf(member.getValue())))
+                .collect(Collectors.toUnmodifiableSet());
+        writeShardedBlogIds = members.stream()
+                .filter(member -> member.getScore() != null && member.getScore() > writeDeadline)
+                .map(member -> Long.parseLong(String.valueOf(member.getValue())))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * 合并冷却的blog的分片
+     */
+    @Scheduled(initialDelay = 30000, fixedDelay = 30000)
+    public void foldCooledBlogs() {
+        long deadline = System.currentTimeMillis() - coolDownMs;
+        Set<Object> cooledBlogIds = redisTemplate.opsForZSet().rangeByScore(Constant.REDIS_SHARDED_BLOG_KEY, 0, deadline);
+        if (cooledBlogIds == null || cooledBlogIds.isEmpty()) {
+            return;
+        }
+        for (Object member : cooledBlogIds) {
+            Long blogId = Long.parseLong(member.toString());
+            List<String> keys = new ArrayList<>(shards + 2);
+            keys.add(RedisKeyUtil.getBlogKey(blogId));
+            keys.add(Constant.REDIS_SHARDED_BLOG_KEY);
+            keys.addAll(getShardKeys(blogId));
+            Long folded = redisScriptManager.execute(LuaScriptEnum.FOLD_BLOG_SHARDS, keys, blogId, deadline);
+            log.info("ShardedThumbCounter: Fold blog {} shards, thumb count delta {}...", blogId, folded);
+        }
+    }
+
+    /**
+     * blog的所有分片
+     */
+    public List<String> getShardKeys(Long blogId) {
+        List<String> shardKeys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            shardKeys.add(RedisKeyUtil.getBlogCounterShardKey(blogId, i));
+        }
+        return shardKeys;
+    }
+
+}
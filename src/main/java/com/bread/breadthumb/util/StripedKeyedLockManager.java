@@ -0,0 +1,130 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.exception.BusinessException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 单机的分段锁，替代 synchronized (userId.toString().intern())。
+ * 固定数量的ReentrantLock组成数组，key的hash决定使用哪一把锁，不同key可能共用同一把锁（只影响并发度，不影响正确性）。
+ * 不需要为每次调用创建字符串，也不会占用字符串常量池；ReentrantLock等待时虚拟线程可以从载体线程卸载。
+ * 监控指标：thumb.lock.wait（获取锁的等待时间）、thumb.lock.contended（锁已被占用需要等待的次数）、thumb.lock.timeout（超时次数）。
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "thumb.lock.type", havingValue = "local", matchIfMissing = true)
+public class StripedKeyedLockManager implements KeyedLockManager {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.lock.stripes:1024}") // 锁的数量，向上取整为2的幂
+    private int stripes;
+    @Value("${thumb.lock.timeout-ms:3000}") // 获取锁的超时时间，小于等于0时一直等待
+    private long timeoutMs;
+
+    private ReentrantLock[] locks;
+    private int mask;
+    private final Map<String, LockMeters> metersMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+        log.info("StripedKeyedLockManager created, stripes {}, timeout {}ms...", size, timeoutMs);
+    }
+
+    @Override
+    public <T> T executeWithLock(String name, Object key, Supplier<T> action) {
+        ReentrantLock lock = locks[stripe(name, key)];
+        lock(lock, name);
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void lock(ReentrantLock lock, String name) {
+        LockMeters meters = meters(name);
+        if (lock.tryLock()) {
+            meters.waitTimer().record(0, TimeUnit.NANOSECONDS);
+            return;
+        }
+        meters.contendedCounter().increment();
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            if (timeoutMs > 0) {
+                locked = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                lock.lockInterruptibly();
+                locked = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        meters.waitTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!locked) {
+            meters.timeoutCounter().increment();
+            log.warn("Acquire {} lock timeout after {}ms...", name, timeoutMs);
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+    }
+
+    private int stripe(String name, Object key) {
+        int hash = 31 * name.hashCode() + key.hashCode();
+        // 混合高位，避免连续的userId集中在低位相同的锁上
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & mask;
+    }
+
+    private LockMeters meters(String name) {
+        return metersMap.computeIfAbsent(name, lockName -> buildMeters(meterRegistry, lockName));
+    }
+
+    /**
+     * 两种实现使用相同的监控指标
+     */
+    static LockMeters buildMeters(MeterRegistry meterRegistry, String name) {
+        return new LockMeters(
+                Timer.builder("thumb.lock.wait")
+                        .description("Time waiting to acquire keyed lock")
+                        .tag("name", name)
+                        .register(meterRegistry),
+                Counter.builder("thumb.lock.contended")
+                        .description("Keyed lock acquisitions that had to wait")
+                        .tag("name", name)
+                        .register(meterRegistry),
+                Counter.builder("thumb.lock.timeout")
+                        .description("Keyed lock acquisitions that timed out")
+                        .tag("name", name)
+                        .register(meterRegistry));
+    }
+
+    record LockMeters(Timer waitTimer, Counter contendedCounter, Counter timeoutCounter) {
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.common.TokenBucket;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.exception.BusinessException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 点赞写入的准入控制，在执行lua脚本之前快速拒绝超限的请求，保护redis。
+ * 1. 每个用户一个令牌桶，限制单个用户的点赞/取消点赞频率
+ * 2. 每个blog在当前时间窗口内的点赞请求数用LongAdder计数，窗口结束时由定时任务（不在请求线程中）选出请求数达到阈值的Top K blog，
+ *    热点blog使用单独的令牌桶限流，避免大量请求在同一个 blog:{id} 上执行HINCRBY。非热点blog不经过blog令牌桶。
+ *    热点blog在窗口内的请求数低于阈值的一半时取消限流，避免在阈值附近反复切换
+ * 请求线程上只有令牌桶的CAS、LongAdder计数和ConcurrentHashMap的读取，不加锁。
+ * 每个窗口最多统计hot-max-tracked-blogs个blog，超过后新出现的blog在下一个窗口统计。
+ */
+@Component
+@Slf4j
+public class ThumbAdmissionManager {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.admission.enabled:true}")
+    private boolean enabled;
+    @Value("${thumb.admission.user-permits-per-second:5}") // 每个用户每秒的点赞/取消点赞次数
+    private double userPermitsPerSecond;
+    @Value("${thumb.admission.user-burst:10}")
+    private int userBurst;
+    @Value("${thumb.admission.hot-blog-permits-per-second:2000}") // 每个热点blog每秒的点赞/取消点赞次数
+    private double hotBlogPermitsPerSecond;
+    @Value("${thumb.admission.hot-blog-burst:500}")
+    private int hotBlogBurst;
+    @Value("${thumb.admission.hot-blog-threshold:100}") // 时间窗口内点赞数达到该值的Top K blog视为热点
+    private int hotBlogThreshold;
+    @Value("${thumb.admission.hot-blog-top-k:100}")
+    private int hotBlogTopK;
+    @Value("${thumb.admission.hot-max-tracked-blogs:100000}") // 每个时间窗口最多统计的blog数
+    private int maxTrackedBlogs;
+
+    // 当前时间窗口每个blog的请求数，窗口结束时整体替换
+    private volatile Map<Long, LongAdder> windowCounts = new ConcurrentHashMap<>();
+    private final Map<Long, TokenBucket> hotBlogBuckets = new ConcurrentHashMap<>();
+    private Cache<Long, TokenBucket> userBuckets;
+    private Counter userRejectedCounter;
+    private Counter hotBlogRejectedCounter;
+
+    @PostConstruct
+    public void init() {
+        // 用户一段时间没有点赞后，令牌桶已满，可以直接丢弃
+        long idleSeconds = Math.max((long) Math.ceil(userBurst / userPermitsPerSecond), 1);
+        userBuckets = Caffeine.newBuilder()
+                .expireAfterAccess(idleSeconds, TimeUnit.SECONDS)
+                .build();
+        userRejectedCounter = buildRejectedCounter("user");
+        hotBlogRejectedCounter = buildRejectedCounter("hot_blog");
+        Gauge.builder("thumb.admission.hot.blogs", hotBlogBuckets, Map::size)
+                .description("Blogs currently rate limited as hot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 判断点赞/取消点赞请求是否准入，超限时抛出429
+     */
+    public void admit(Long userId, Long blogId) {
+        if (!enabled) {
+            return;
+        }
+        TokenBucket userBucket = userBuckets.get(userId, id -> new TokenBucket(userPermitsPerSecond, userBurst));
+        if (!userBucket.tryAcquire()) {
+            userRejectedCounter.increment();
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+        countBlog(blogId);
+        TokenBucket blogBucket = hotBlogBuckets.get(blogId);
+        if (blogBucket != null && !blogBucket.tryAcquire()) {
+            hotBlogRejectedCounter.increment();
+            throw new BusinessException(HttpStatus.TOO_MANY_REQUESTS.value(), Constant.THUMB_TOO_MANY_REQUESTS);
+        }
+    }
+
+    private void countBlog(Long blogId) {
+        Map<Long, LongAdder> counts = windowCounts;
+        LongAdder count = counts.get(blogId);
+        if (count == null) {
+            if (counts.size() >= maxTrackedBlogs) {
+                return;
+            }
+            count = counts.computeIfAbsent(blogId, id -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * 时间窗口结束，根据上一个窗口的请求数更新热点blog：达到阈值的Top K blog开始限流，低于阈值一半的blog取消限流
+     */
+    @Scheduled(initialDelayString = "${thumb.admission.hot-window-ms:1000}", fixedRateString = "${thumb.admission.hot-window-ms:1000}")
+    public void rotateHotBlogWindow() {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, LongAdder> previous = windowCounts;
+        windowCounts = new ConcurrentHashMap<>();
+        Set<Long> hotBlogIds = previous.entrySet().stream()
+                .filter(entry -> entry.getValue().sum() >= hotBlogThreshold)
+                .sorted(Comparator.comparingLong((Map.Entry<Long, LongAdder> entry) -> entry.getValue().sum()).reversed())
+                .limit(hotBlogTopK)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        hotBlogBuckets.keySet().removeIf(blogId -> {
+            LongAdder count = previous.get(blogId);
+            return !hotBlogIds.contains(blogId) && (count == null || count.sum() < hotBlogThreshold / 2);
+        });
+        for (Long blogId : hotBlogIds) {
+            hotBlogBuckets.computeIfAbsent(blogId, id -> {
+                log.info("Admission: Blog {} becomes hot, rate limit {}/s...", id, hotBlogPermitsPerSecond);
+                return new TokenBucket(hotBlogPermitsPerSecond, hotBlogBurst);
+            });
+        }
+        if (!hotBlogBuckets.isEmpty()) {
+            log.info("Admission: Hot blogs {}...", hotBlogBuckets.keySet());
+        }
+    }
+
+    private Counter buildRejectedCounter(String reason) {
+        return Counter.builder("thumb.admission.rejected")
+                .description("Thumb requests rejected before touching redis")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.common.BloomFilter;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 冷数据（已从redis淘汰的用户点赞记录）的布隆过滤器，元素为 (userId, blogId)，存储在redis位图中，所有节点共用。
+ * 包含数据库thumb表中的所有点赞记录：ThumbBloomFilterRebuildJob定期从数据库重建，两次重建之间被淘汰的用户，
+ * 由UserThumbEvictionJob在淘汰前将其所有点赞记录加入。取消点赞不删除元素，只增加误判。
+ * "一定不存在"的blog不需要查询数据库。key中包含位数和哈希函数个数，参数修改后视为未建立（全部返回可能存在），重建后生效。
+ */
+@Component
+@Slf4j
+public class ThumbBloomFilter {
+
+    // redis字符串最大512MB
+    private static final long MAX_BITS = 1L << 32;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Value("${thumb.user-index.tier.bloom.expected-insertions:10000000}") // 预计的点赞记录数
+    private long expectedInsertions;
+    @Value("${thumb.user-index.tier.bloom.fpp:0.01}") // 误判率
+    private double fpp;
+
+    private long bits;
+    private int hashes;
+    private String bloomKey;
+    private String rebuildKey;
+
+    @PostConstruct
+    public void init() {
+        long n = Math.max(expectedInsertions, 1);
+        bits = Math.min(BloomFilter.optimalBits(n, fpp), MAX_BITS);
+        hashes = BloomFilter.optimalHashes(n, bits);
+        bloomKey = Constant.REDIS_THUMB_BLOOM_KEY.formatted(bits, hashes);
+        rebuildKey = Constant.REDIS_THUMB_BLOOM_REBUILD_KEY.formatted(bits, hashes);
+        log.info("ThumbBloomFilter: {} bits ({} MB), {} hashes, key {}...", bits, bits >>> 23, hashes, bloomKey);
+    }
+
+    public String getBloomKey() {
+        return bloomKey;
+    }
+
+    public String getRebuildKey() {
+        return rebuildKey;
+    }
+
+    /**
+     * 批量查询用户是否可能点赞了blog，一次请求
+     * @return 与blogIds一一对应，false表示一定没有点赞
+     */
+    public List<Boolean> mightContain(Long userId, List<Long> blogIds) {
+        Object[] offsets = offsets(userId, blogIds);
+        Object[] args = new Object[offsets.length + 1];
+        args[0] = hashes;
+        System.arraycopy(offsets, 0, args, 1, offsets.length);
+        List<Object> values = redisScriptManager.execute(LuaScriptEnum.BLOOM_CONTAINS, List.of(bloomKey), args);
+        List<Boolean> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            result.add(((Number) value).longValue() == 1);
+        }
+        return result;
+    }
+
+    /**
+     * 加入多个用户的点赞记录，一个管道。布隆过滤器还没有建立时不写入；正在重建时同时写入重建的过滤器
+     * @param userBlogIds userId -> 点赞的blogId
+     */
+    public void putAll(Map<Long, ? extends Collection<Long>> userBlogIds) {
+        List<List<String>> keysList = new ArrayList<>(userBlogIds.size());
+        List<Object[]> argsList = new ArrayList<>(userBlogIds.size());
+        userBlogIds.forEach((userId, blogIds) -> {
+            if (blogIds.isEmpty()) {
+                return;
+            }
+            keysList.add(List.of(bloomKey, rebuildKey));
+            argsList.add(offsets(userId, blogIds));
+        });
+        if (keysList.isEmpty()) {
+            return;
+        }
+        for (Object result : redisScriptManager.executePipelined(LuaScriptEnum.BLOOM_ADD, keysList, argsList)) {
+            if (result instanceof Throwable e) {
+                throw new IllegalStateException("Add thumbs to bloom filter failed", e);
+            }
+        }
+    }
+
+    /**
+     * 重建时写入重建中的过滤器（调用方已创建重建的key）
+     * @param userIds 与blogIds一一对应
+     */
+    public void putRebuild(List<Long> userIds, List<Long> blogIds) {
+        Object[] args = new Object[userIds.size() * hashes];
+        int i = 0;
+        for (int j = 0; j < userIds.size(); j++) {
+            for (long offset : BloomFilter.offsets(userIds.get(j), blogIds.get(j), bits, hashes)) {
+                args[i++] = offset;
+            }
+        }
+        redisScriptManager.execute(LuaScriptEnum.BLOOM_ADD, List.of(rebuildKey), args);
+    }
+
+    private Object[] offsets(Long userId, Collection<Long> blogIds) {
+        Object[] args = new Object[blogIds.size() * hashes];
+        int i = 0;
+        for (Long blogId : blogIds) {
+            for (long offset : BloomFilter.offsets(userId, blogId, bits, hashes)) {
+                args[i++] = offset;
+            }
+        }
+        return args;
+    }
+
+}
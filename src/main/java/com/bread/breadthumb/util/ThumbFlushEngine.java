@@ -0,0 +1,106 @@
+package com.bread.breadthumb.util;
+
+import cn.hutool.core.collection.ListUtil;
+import com.bread.breadthumb.mapper.BlogMapper;
+import com.bread.breadthumb.mapper.ThumbMapper;
+import com.bread.breadthumb.model.dto.ThumbBlogChange;
+import com.bread.breadthumb.model.entity.Thumb;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将点赞记录的插入、删除和blog点赞数的更新批量写入数据库，调用方负责开启事务。
+ * 插入使用 INSERT IGNORE，删除使用 (userId, blogId) 行构造器，重复写入不影响结果，点赞数按实际影响的行数计算。
+ * 1. MULTI_STATEMENT：插入/删除语句和对应的点赞数更新拼接为一个多语句请求（需要 allowMultiQueries=true），
+ *    点赞数的变化量在数据库中由 ROW_COUNT() 得到，一次往返写入 max-rows-per-request 条记录
+ * 2. STATEMENT：每个blog的插入/删除语句单独执行，由返回的影响行数计算点赞数，最后一条语句批量更新点赞数
+ * 没有使用 rewriteBatchedStatements：驱动把批量的INSERT改写为一条语句后，每条记录的影响行数返回 SUCCESS_NO_INFO，无法计算点赞数。
+ */
+@Component
+@Slf4j
+public class ThumbFlushEngine {
+
+    @Autowired
+    private ThumbMapper thumbMapper;
+
+    @Autowired
+    private BlogMapper blogMapper;
+
+    @Value("${thumb.flush.mode:MULTI_STATEMENT}")
+    private Mode mode;
+    @Value("${thumb.flush.chunk-size:500}") // 每条 INSERT IGNORE / DELETE 语句的最大记录数
+    private int chunkSize;
+    @Value("${thumb.flush.max-rows-per-request:5000}") // MULTI_STATEMENT 模式下每个请求的最大记录数
+    private int maxRowsPerRequest;
+
+    public enum Mode {
+        MULTI_STATEMENT,
+        STATEMENT
+    }
+
+    /**
+     * 写入点赞记录，需要在事务中调用
+     * @param thumbedMap 需要插入的点赞记录，key为blogId
+     * @param unthumbedMap 需要删除的点赞记录，key为blogId
+     */
+    public void flush(Map<Long, List<Thumb>> thumbedMap, Map<Long, List<Thumb>> unthumbedMap) {
+        if (mode == Mode.MULTI_STATEMENT) {
+            flushMultiStatement(thumbedMap, unthumbedMap);
+        } else {
+            flushStatement(thumbedMap, unthumbedMap);
+        }
+    }
+
+    private void flushMultiStatement(Map<Long, List<Thumb>> thumbedMap, Map<Long, List<Thumb>> unthumbedMap) {
+        List<ThumbBlogChange> changeList = new ArrayList<>();
+        thumbedMap.forEach((blogId, thumbList) -> ListUtil.partition(thumbList, chunkSize)
+                .forEach(chunk -> changeList.add(new ThumbBlogChange(blogId, true, chunk))));
+        unthumbedMap.forEach((blogId, thumbList) -> ListUtil.partition(thumbList, chunkSize)
+                .forEach(chunk -> changeList.add(new ThumbBlogChange(blogId, false, chunk))));
+        // 按记录数划分为多个请求
+        List<ThumbBlogChange> request = new ArrayList<>();
+        int rows = 0;
+        for (ThumbBlogChange change : changeList) {
+            if (!request.isEmpty() && rows + change.getThumbList().size() > maxRowsPerRequest) {
+                thumbMapper.applyChanges(request);
+                request = new ArrayList<>();
+                rows = 0;
+            }
+            request.add(change);
+            rows += change.getThumbList().size();
+        }
+        if (!request.isEmpty()) {
+            thumbMapper.applyChanges(request);
+        }
+    }
+
+    private void flushStatement(Map<Long, List<Thumb>> thumbedMap, Map<Long, List<Thumb>> unthumbedMap) {
+        Map<Long, Long> countMap = new HashMap<>();
+        thumbedMap.forEach((blogId, thumbList) -> {
+            long inserted = 0;
+            for (List<Thumb> chunk : ListUtil.partition(thumbList, chunkSize)) {
+                inserted += thumbMapper.insertIgnoreBatch(chunk);
+            }
+            countMap.merge(blogId, inserted, Long::sum);
+        });
+        unthumbedMap.forEach((blogId, thumbList) -> {
+            long deleted = 0;
+            for (List<Thumb> chunk : ListUtil.partition(thumbList, chunkSize)) {
+                deleted += thumbMapper.deleteBatchByUserIdBlogId(chunk);
+            }
+            countMap.merge(blogId, -deleted, Long::sum);
+        });
+        countMap.values().removeIf(delta -> delta == 0);
+        if (!countMap.isEmpty()) {
+            blogMapper.batchUpdateThumbCount(countMap);
+        }
+    }
+
+}
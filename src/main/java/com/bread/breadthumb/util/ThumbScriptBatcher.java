@@ -0,0 +1,202 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 点赞lua脚本的微批处理器。
+ * 收集一个时间窗口内（或达到批次上限）的脚本调用，通过管道一次性发送到redis，
+ * 每个调用者的future单独完成，得到各自的脚本返回值。脚本按提交顺序执行，保持与逐个执行相同的语义。
+ * 停止后提交的调用直接执行；停止时未执行的调用以异常完成，调用者不会一直等待。
+ */
+@Component
+@Slf4j
+public class ThumbScriptBatcher {
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Getter
+    @Value("${thumb.batch.enabled:false}")
+    private boolean enabled;
+    @Value("${thumb.batch.window-ms:2}") // 批次收集的时间窗口，单位ms
+    private long windowMs;
+    @Value("${thumb.batch.max-size:64}")
+    private int maxSize;
+    @Value("${thumb.batch.queue-capacity:10000}")
+    private int queueCapacity;
+    @Value("${thumb.batch.execute-timeout-ms:3000}") // 同步执行时等待所在批次完成的最长时间
+    private long executeTimeoutMs;
+
+    private BlockingQueue<PendingCall> queue;
+    private Thread flushThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        flushThread = new Thread(this::flushLoop, "thumb-script-batcher");
+        flushThread.setDaemon(true);
+        flushThread.start();
+        log.info("ThumbScriptBatcher started, window {}ms, max size {}...", windowMs, maxSize);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flushThread == null) {
+            return;
+        }
+        running = false;
+        flushThread.interrupt();
+        flushThread.join(1000);
+        // 处理剩余的调用
+        List<PendingCall> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+        // 最后一次取出之后入队的调用：提交者检查running时未移除成功的调用不会再执行
+        List<PendingCall> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        if (!abandoned.isEmpty()) {
+            log.warn("ThumbScriptBatcher stopped, fail {} calls...", abandoned.size());
+            IllegalStateException e = new IllegalStateException("ThumbScriptBatcher stopped");
+            abandoned.forEach(call -> call.future().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 提交一次脚本调用，脚本在下一个批次中执行
+     * @return 脚本返回值的future
+     */
+    public <T> CompletableFuture<T> submit(LuaScriptEnum luaScript, List<String> keys, Object... args) {
+        PendingCall call = new PendingCall(luaScript, keys, args, new CompletableFuture<>());
+        if (!running || !queue.offer(call)) {
+            // 未启动或队列已满，直接执行
+            return CompletableFuture.completedFuture(redisScriptManager.execute(luaScript, keys, args));
+        }
+        // 入队前stop可能已经取出了剩余的调用：仍在队列中时移除并直接执行，已被取出时由stop执行或以异常完成
+        if (!running && queue.remove(call)) {
+            return CompletableFuture.completedFuture(redisScriptManager.execute(luaScript, keys, args));
+        }
+        return castFuture(call.future());
+    }
+
+    /**
+     * 同步执行：提交后等待所在批次执行完成，最多等待executeTimeoutMs
+     */
+    public <T> T execute(LuaScriptEnum luaScript, List<String> keys, Object... args) {
+        CompletableFuture<T> future = submit(luaScript, keys, args);
+        try {
+            return future.get(executeTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            // 脚本可能仍会在之后的管道中执行，与redis命令超时相同
+            throw new QueryTimeoutException("ThumbScriptBatcher: " + luaScript + " not executed within " + executeTimeoutMs + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ThumbScriptBatcher: Interrupted while waiting for " + luaScript, e);
+        }
+    }
+
+    private void flushLoop() {
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        while (running) {
+            List<PendingCall> batch = new ArrayList<>(maxSize);
+            try {
+                PendingCall first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxSize) {
+                    if (queue.drainTo(batch, maxSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingCall call = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (call == null) {
+                        break;
+                    }
+                    batch.add(call);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+        }
+    }
+
+    private void flush(List<PendingCall> batch) {
+        log.debug("ThumbScriptBatcher flush {} calls...", batch.size());
+        // 按提交顺序切分成连续调用同一脚本的片段，每个片段一次管道往返。
+        // 不跨片段合并，避免同一用户的点赞/取消点赞被重排
+        int start = 0;
+        while (start < batch.size()) {
+            LuaScriptEnum luaScript = batch.get(start).luaScript();
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).luaScript() == luaScript) {
+                end++;
+            }
+            flushSegment(luaScript, batch.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void flushSegment(LuaScriptEnum luaScript, List<PendingCall> calls) {
+        List<List<String>> keysList = new ArrayList<>(calls.size());
+        List<Object[]> argsList = new ArrayList<>(calls.size());
+        for (PendingCall call : calls) {
+            keysList.add(call.keys());
+            argsList.add(call.args());
+        }
+        try {
+            List<Object> results = redisScriptManager.executePipelined(luaScript, keysList, argsList);
+            for (int i = 0; i < calls.size(); i++) {
+                Object result = results.get(i);
+                if (result instanceof Throwable e) {
+                    calls.get(i).future().completeExceptionally(e);
+                } else {
+                    calls.get(i).future().complete(result);
+                }
+            }
+        } catch (Exception e) {
+            log.error("ThumbScriptBatcher flush {} failed...", luaScript, e);
+            calls.forEach(call -> call.future().completeExceptionally(e));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> castFuture(CompletableFuture<Object> future) {
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    private record PendingCall(LuaScriptEnum luaScript, List<String> keys, Object[] args,
+                               CompletableFuture<Object> future) {
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.bread.breadthumb.util;
+
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.exception.BusinessException;
+import com.bread.breadthumb.model.vo.ThumbStatusVO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量查询当前用户的点赞状态，供信息流页面一次请求获取整页blog的点赞状态。
+ * 未命中本地缓存的blogId先查询节点本地的布隆过滤器（LocalThumbBloomFilter），一定没有点赞的blog不查询redis，
+ * 其余blogId通过一次请求从用户点赞索引（UserThumbIndex）中查询。
+ * 本地缓存按用户存储（userId -> blogId -> 是否点赞），有效期很短，用户点赞/取消点赞时整体失效。
+ */
+@Component
+@Slf4j
+public class ThumbStatusManager {
+
+    @Autowired
+    private UserThumbIndex userThumbIndex;
+
+    @Autowired
+    private LocalThumbBloomFilter localThumbBloomFilter;
+
+    @Value("${thumb.status.max-blogs:200}") // 一次最多查询的blog数
+    private int maxBlogs;
+    @Value("${thumb.status.cache-ttl-ms:2000}") // 本地缓存的有效时间
+    private long cacheTtlMs;
+    @Value("${thumb.status.cache-size:10000}") // 本地缓存的用户数
+    private long cacheSize;
+
+    private Cache<Long, Map<Long, Boolean>> statusLocalCache;
+
+    @PostConstruct
+    public void init() {
+        statusLocalCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 查询用户对blogIds的点赞状态
+     * @return 与blogIds一一对应的点赞状态位图
+     */
+    public ThumbStatusVO getThumbStatus(Long userId, List<Long> blogIds) {
+        if (blogIds == null || blogIds.isEmpty() || blogIds.size() > maxBlogs || blogIds.contains(null)) {
+            throw new BusinessException(HttpServletResponse.SC_BAD_REQUEST, Constant.THUMB_STATUS_INVALID_PARAMS);
+        }
+        Map<Long, Boolean> userStatus = statusLocalCache.get(userId, id -> new ConcurrentHashMap<>());
+        // 本地缓存未命中的blogId，去重后一次查询
+        List<Long> missingBlogIds = blogIds.stream().filter(blogId -> !userStatus.containsKey(blogId)).distinct().toList();
+        if (!missingBlogIds.isEmpty()) {
+            // 布隆过滤器不可用时返回null，全部查询redis
+            List<Boolean> maybeList = localThumbBloomFilter.mightContain(userId, missingBlogIds);
+            List<Long> candidates = new ArrayList<>(missingBlogIds.size());
+            for (int i = 0; i < missingBlogIds.size(); i++) {
+                if (maybeList == null || maybeList.get(i)) {
+                    candidates.add(missingBlogIds.get(i));
+                } else {
+                    userStatus.put(missingBlogIds.get(i), false);
+                }
+            }
+            if (!candidates.isEmpty()) {
+                log.info("Check thumb status using redis.Blog ids {}, User {}...", candidates.size(), userId);
+                List<Boolean> thumbedList = userThumbIndex.contains(userId, candidates);
+                for (int i = 0; i < candidates.size(); i++) {
+                    userStatus.put(candidates.get(i), thumbedList.get(i));
+                }
+            }
+        }
+        byte[] bitmap = new byte[(blogIds.size() + 7) / 8];
+        for (int i = 0; i < blogIds.size(); i++) {
+            if (Boolean.TRUE.equals(userStatus.get(blogIds.get(i)))) {
+                bitmap[i >> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        return new ThumbStatusVO(blogIds.size(), Base64.getEncoder().encodeToString(bitmap));
+    }
+
+    /**
+     * 用户点赞/取消点赞后，清除该用户的本地缓存
+     */
+    public void invalidate(Long userId) {
+        statusLocalCache.invalidate(userId);
+    }
+
+}
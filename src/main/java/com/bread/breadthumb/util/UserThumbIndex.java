@@ -0,0 +1,258 @@
+package com.bread.breadthumb.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.mapper.ThumbMapper;
+import com.bread.breadthumb.model.entity.Thumb;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.bread.breadthumb.model.enums.LuaStatusEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 用户点赞索引：回答"用户是否点赞了blog"，两种存储方式：
+ * 1. HASH：thumb:{userId} 为hash，blogId -> 点赞时间，每条点赞记录一个field
+ * 2. BITMAP：thumb:bm:{userId} 为hash，blogId按高位分块，每块一个RoaringBitmap容器（见templates/lib/UserThumbBitmap.lua），
+ *    每条点赞记录约2字节。点赞时间不存入redis，以数据库thumb表的createTime为准（冷数据）
+ * BITMAP模式下，用户还有旧的hash索引时，点赞/取消点赞的脚本先将其合并到位图索引，查询时同时查询旧索引；
+ * UserThumbIndexMigrationJob在后台一次性合并所有用户。切换回HASH模式前需要先把位图索引转换回hash索引。
+ * 开启冷热分层（thumb.user-index.tier.enabled）后，只有近期有写入的用户的点赞索引常驻redis（thumb:active），
+ * redis内存随有写入的用户数而不是历史点赞总数或查询的用户数增长：
+ * 1. 长时间没有写入的用户由UserThumbEvictionJob淘汰，点赞记录只在数据库中，用户加入 thumb:cold。
+ *    只有 thumb:cold 中的用户是已淘汰的，从未点赞过的用户的点赞索引为空，不需要查询数据库
+ * 2. 查询已淘汰的用户：先查询布隆过滤器（ThumbBloomFilter），可能点赞的blog再按 (userId, blogId) 唯一索引批量查询数据库，
+ *    只读的查询不加载回redis
+ * 3. 已淘汰的用户点赞/取消点赞：脚本返回COLD，同步加载回redis后重试，redis中的点赞索引仍然是判断是否已点赞的依据
+ * 淘汰的时间窗口远大于消息消费的延迟，被淘汰的用户的点赞记录都已写入数据库。
+ * 集群模式（thumb.redis.cluster.enabled）下用户的hash索引和位图索引在同一个slot（thumb:{userId}、thumb:bm:{userId}），
+ * 点赞/取消点赞使用只访问用户点赞索引的脚本（*Cluster.lua），不支持冷热分层。
+ */
+@Component
+@Slf4j
+public class UserThumbIndex {
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisScriptManager redisScriptManager;
+
+    @Autowired
+    private ThumbMapper thumbMapper;
+
+    @Autowired
+    private ThumbBloomFilter thumbBloomFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${thumb.user-index.mode:HASH}")
+    private Mode mode;
+    @Value("${thumb.user-index.tier.enabled:false}")
+    private boolean tierEnabled;
+    private Timer hotLookupTimer;
+    private Timer coldLookupTimer;
+    private Counter bloomSkippedCounter;
+    private Counter dbLookupCounter;
+    private Counter warmedUserCounter;
+    private Counter warmedThumbCounter;
+
+    public enum Mode {
+        HASH,
+        BITMAP
+    }
+
+    @PostConstruct
+    public void init() {
+        hotLookupTimer = buildLookupTimer("hot");
+        coldLookupTimer = buildLookupTimer("cold");
+        bloomSkippedCounter = meterRegistry.counter("thumb.user-index.tier.bloom.skipped");
+        dbLookupCounter = meterRegistry.counter("thumb.user-index.tier.db.lookup");
+        warmedUserCounter = meterRegistry.counter("thumb.user-index.tier.warm.users");
+        warmedThumbCounter = meterRegistry.counter("thumb.user-index.tier.warm.thumbs");
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isTierEnabled() {
+        return tierEnabled;
+    }
+
+    /**
+     * 点赞/取消点赞脚本中用户索引相关的key，放在KEYS的最前面
+     */
+    public List<String> getKeys(Long userId) {
+        if (mode == Mode.BITMAP) {
+            return List.of(RedisKeyUtil.getUserThumbBitmapKey(userId), RedisKeyUtil.getUserThumbKey(userId));
+        }
+        return List.of(RedisKeyUtil.getUserThumbKey(userId));
+    }
+
+    /**
+     * 点赞/取消点赞脚本中冷热分层相关的key，放在KEYS的最后面，未开启冷热分层时为空
+     */
+    public List<String> getTierKeys() {
+        return tierEnabled ? List.of(Constant.REDIS_USER_THUMB_ACTIVE_KEY, Constant.REDIS_USER_THUMB_COLD_KEY) : List.of();
+    }
+
+    /**
+     * 点赞/取消点赞脚本的ARGV：开启冷热分层时在args后面加上userId和当前时间
+     */
+    public Object[] getScriptArgs(Long userId, Object... args) {
+        if (!tierEnabled) {
+            return args;
+        }
+        Object[] scriptArgs = Arrays.copyOf(args, args.length + 2);
+        scriptArgs[args.length] = userId;
+        scriptArgs[args.length + 1] = System.currentTimeMillis();
+        return scriptArgs;
+    }
+
+    /**
+     * 点赞脚本。集群模式下脚本只访问用户点赞索引，KEYS只有getKeys(userId)
+     */
+    public LuaScriptEnum getThumbScript() {
+        if (RedisKeyUtil.isClusterEnabled()) {
+            return mode == Mode.BITMAP ? LuaScriptEnum.THUMB_MQ_BITMAP_CLUSTER : LuaScriptEnum.THUMB_MQ_CLUSTER;
+        }
+        return mode == Mode.BITMAP ? LuaScriptEnum.THUMB_MQ_BITMAP : LuaScriptEnum.THUMB_MQ;
+    }
+
+    public LuaScriptEnum getUnthumbScript() {
+        if (RedisKeyUtil.isClusterEnabled()) {
+            return mode == Mode.BITMAP ? LuaScriptEnum.UNTHUMB_MQ_BITMAP_CLUSTER : LuaScriptEnum.UNTHUMB_MQ_CLUSTER;
+        }
+        return mode == Mode.BITMAP ? LuaScriptEnum.UNTHUMB_MQ_BITMAP : LuaScriptEnum.UNTHUMB_MQ;
+    }
+
+    /**
+     * 查询用户是否点赞了blog
+     */
+    public boolean contains(Long userId, Long blogId) {
+        if (mode == Mode.BITMAP || tierEnabled) {
+            return contains(userId, List.of(blogId)).getFirst();
+        }
+        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+    }
+
+    /**
+     * 批量查询用户是否点赞，一次请求；用户已淘汰时查询布隆过滤器和数据库
+     * @return 与blogIds一一对应的点赞状态
+     */
+    public List<Boolean> contains(Long userId, List<Long> blogIds) {
+        long start = System.nanoTime();
+        List<Boolean> thumbedList = new ArrayList<>(blogIds.size());
+        if (mode == Mode.HASH && !tierEnabled) {
+            List<Object> hashFields = blogIds.stream().map(Object::toString).collect(Collectors.toList());
+            List<Object> values = redisTemplate.opsForHash().multiGet(RedisKeyUtil.getUserThumbKey(userId), hashFields);
+            for (Object value : values) {
+                thumbedList.add(value != null);
+            }
+            hotLookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return thumbedList;
+        }
+        LuaScriptEnum luaScript = mode == Mode.BITMAP ? LuaScriptEnum.USER_THUMB_BITMAP_CONTAINS : LuaScriptEnum.USER_THUMB_CONTAINS;
+        List<String> keys = new ArrayList<>(getKeys(userId));
+        if (tierEnabled) {
+            keys.add(Constant.REDIS_USER_THUMB_COLD_KEY);
+        }
+        Object[] args = new Object[blogIds.size() + 1];
+        args[0] = userId;
+        for (int i = 0; i < blogIds.size(); i++) {
+            args[i + 1] = blogIds.get(i);
+        }
+        List<Object> values = redisScriptManager.execute(luaScript, keys, args);
+        if (values.size() == 1 && ((Number) values.getFirst()).longValue() == LuaStatusEnum.COLD.getValue()) {
+            thumbedList = containsCold(userId, blogIds);
+            coldLookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return thumbedList;
+        }
+        for (Object value : values) {
+            thumbedList.add(((Number) value).longValue() == 1);
+        }
+        hotLookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return thumbedList;
+    }
+
+    /**
+     * 已淘汰的用户：布隆过滤器判断一定没有点赞的blog不查询数据库，其余blog一次查询；不加载回redis，
+     * 用户点赞/取消点赞时才加载
+     */
+    private List<Boolean> containsCold(Long userId, List<Long> blogIds) {
+        List<Boolean> maybeList = thumbBloomFilter.mightContain(userId, blogIds);
+        List<Long> candidates = new ArrayList<>(blogIds.size());
+        for (int i = 0; i < blogIds.size(); i++) {
+            if (maybeList.get(i)) {
+                candidates.add(blogIds.get(i));
+            }
+        }
+        bloomSkippedCounter.increment(blogIds.size() - candidates.size());
+        Set<Long> thumbedBlogIds = Set.of();
+        if (!candidates.isEmpty()) {
+            dbLookupCounter.increment();
+            thumbedBlogIds = new HashSet<>(thumbMapper.selectThumbedBlogIds(userId, candidates));
+        }
+        List<Boolean> thumbedList = new ArrayList<>(blogIds.size());
+        for (Long blogId : blogIds) {
+            thumbedList.add(thumbedBlogIds.contains(blogId));
+        }
+        return thumbedList;
+    }
+
+    /**
+     * 将已淘汰的用户的点赞记录从数据库加载回redis，从 thumb:cold 移到常驻redis的用户。
+     * 用户不在 thumb:cold 中（并发加载已完成）时不写入
+     */
+    public void warm(Long userId) {
+        LuaScriptEnum luaScript;
+        List<Object> args = new ArrayList<>();
+        args.add(userId);
+        args.add(System.currentTimeMillis());
+        if (mode == Mode.BITMAP) {
+            // 位图索引中没有点赞时间，只查询索引列
+            luaScript = LuaScriptEnum.WARM_USER_THUMB_INDEX_BITMAP;
+            args.addAll(thumbMapper.selectObjs(new LambdaQueryWrapper<Thumb>()
+                    .select(Thumb::getBlogId)
+                    .eq(Thumb::getUserId, userId)));
+        } else {
+            luaScript = LuaScriptEnum.WARM_USER_THUMB_INDEX;
+            for (Thumb thumb : thumbMapper.selectList(new LambdaQueryWrapper<Thumb>()
+                    .select(Thumb::getBlogId, Thumb::getCreateTime)
+                    .eq(Thumb::getUserId, userId))) {
+                args.add(thumb.getBlogId());
+                args.add(thumb.getCreateTime());
+            }
+        }
+        List<String> keys = new ArrayList<>(getKeys(userId));
+        keys.add(Constant.REDIS_USER_THUMB_ACTIVE_KEY);
+        keys.add(Constant.REDIS_USER_THUMB_COLD_KEY);
+        Long warmed = redisScriptManager.execute(luaScript, keys, args.toArray());
+        if (warmed != null && warmed >= 0) {
+            warmedUserCounter.increment();
+            warmedThumbCounter.increment(warmed);
+            log.debug("UserThumbIndex: Warm user {}, {} thumbs...", userId, warmed);
+        }
+    }
+
+    private Timer buildLookupTimer(String tier) {
+        return Timer.builder("thumb.user-index.lookup.latency")
+                .description("Latency of user thumb index lookups, cold lookups fall through to bloom filter and database")
+                .tag("tier", tier)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,15 @@
+---
+--- 布隆过滤器（redis位图）加入元素，ARGV为所有元素的位偏移。
+--- 只写入已存在的key：布隆过滤器还没有建立时不写入，避免只包含部分元素的过滤器返回错误的"一定不存在"；
+--- 正在重建时（KEYS[2]存在）同时写入重建的key，避免重建期间加入的元素在切换后丢失
+---
+local written = 0
+for _, key in ipairs(KEYS) do
+    if redis.call('EXISTS', key) == 1 then
+        for i = 1, #ARGV do
+            redis.call('SETBIT', key, ARGV[i], 1)
+        end
+        written = written + 1
+    end
+end
+return written
@@ -0,0 +1,22 @@
+---
+--- 布隆过滤器（redis位图）批量查询，返回与元素一一对应的 1（可能存在）/0（一定不存在）。
+--- 布隆过滤器还没有建立时全部返回1
+---
+local bloomKey = KEYS[1]
+local hashes = tonumber(ARGV[1]) -- 每个元素的位数，ARGV[2]开始为每个元素的位偏移，连续hashes个属于同一个元素
+
+local result = {}
+local exists = redis.call('EXISTS', bloomKey) == 1
+for i = 2, #ARGV, hashes do
+    local contains = 1
+    if exists then
+        for j = i, i + hashes - 1 do
+            if redis.call('GETBIT', bloomKey, ARGV[j]) == 0 then
+                contains = 0
+                break
+            end
+        end
+    end
+    result[#result + 1] = contains
+end
+return result
@@ -0,0 +1,25 @@
+---
+--- 淘汰长时间没有写入的用户的点赞索引（hash索引和位图索引），点赞记录此后只在数据库中，用户加入 thumb:cold。
+--- 用户在deadline之后有写入时不淘汰。返回 {是否淘汰(1/0), blogId...}，blogId为用户点赞索引中的所有blog。
+--- ARGV[3]为1时只返回，不删除：调用方先将这些blog加入布隆过滤器，再执行一次删除
+---
+-- #include UserThumbBitmap.lua
+local activeKey = KEYS[1] -- 常驻redis的用户（thumb:active）
+local userThumbKey = KEYS[2] -- 用户点赞hash索引（thumb:{userId}）
+local bitmapKey = KEYS[3]    -- 用户点赞位图索引（thumb:bm:{userId}）
+local coldKey = KEYS[4]      -- 已淘汰的用户（thumb:cold）
+local userId = ARGV[1]
+local deadline = tonumber(ARGV[2]) -- 最近一次写入早于该时间（毫秒时间戳）的用户被淘汰
+local dryRun = tonumber(ARGV[3]) == 1
+
+local score = redis.call('ZSCORE', activeKey, userId)
+if not score or tonumber(score) > deadline then
+    return {0}
+end
+if dryRun then
+    return userThumbBlogIds(userThumbKey, bitmapKey, {1})
+end
+redis.call('DEL', userThumbKey, bitmapKey)
+redis.call('ZREM', activeKey, userId)
+redis.call('SADD', coldKey, userId)
+return {1}
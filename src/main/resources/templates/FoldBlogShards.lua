@@ -0,0 +1,31 @@
+---
+--- 合并冷却blog的点赞数分片：分片中的增量加回 blog:{id} 的thumbCount，删除分片，并从分片集合中移除
+--- 合并前再次检查blog的热点时间，期间重新成为热点的blog不合并
+---
+local blogKey = KEYS[1]            -- 博客键（如 blog:{blogId}）
+local shardedBlogsKey = KEYS[2]    -- 开启分片的blog集合（blog:sharded）
+local blogId = ARGV[1]             -- 博客 ID
+local deadline = tonumber(ARGV[2]) -- 最近一次成为热点的时间早于该值才合并
+-- KEYS[3..n] 为所有分片（如 blog:{blogId}:cnt:{shard}）
+
+local hotTime = redis.call('ZSCORE', shardedBlogsKey, blogId)
+if hotTime and tonumber(hotTime) > deadline then
+    return 0
+end
+
+local delta = 0
+for i = 3, #KEYS do
+    local value = redis.call('GET', KEYS[i])
+    if value then
+        delta = delta + tonumber(value)
+        redis.call('DEL', KEYS[i])
+    end
+end
+
+-- blog已过期时分片也已过期，数据库中的点赞数由消息队列同步，不需要合并
+if delta ~= 0 and redis.call('EXISTS', blogKey) == 1 then
+    redis.call('HINCRBY', blogKey, 'thumbCount', delta)
+end
+redis.call('ZREM', shardedBlogsKey, blogId)
+
+return delta
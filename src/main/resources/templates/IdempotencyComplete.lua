@@ -0,0 +1,13 @@
+---
+--- 幂等键完成：写入请求结果；不传入结果时删除处理中标记，允许客户端重试。
+--- 与IdempotencyReserve.lua使用相同的参数序列化方式，保证field一致。HSET/HDEL不改变时间片的过期时间
+---
+local slotKey = KEYS[1]  -- 预占时的时间片（如 thumb:idem:{slot}）
+local field = ARGV[1]    -- userId:操作:幂等键
+local result = ARGV[2]   -- 请求结果
+
+if result == nil then
+    return redis.call('HDEL', slotKey, field)
+end
+
+return redis.call('HSET', slotKey, field, result)
@@ -0,0 +1,27 @@
+---
+--- 幂等键预占：在最近的时间片中查找幂等键，找到则返回记录的结果（或处理中标记），
+--- 找不到则在当前时间片中写入处理中标记并返回nil。处理中标记超时（请求处理过程中服务宕机）后允许重新预占。
+---
+local field = ARGV[1]                    -- userId:操作:幂等键
+local pending = ARGV[2]                  -- 处理中标记 P:{当前毫秒时间}
+local now = tonumber(ARGV[3])            -- 当前毫秒时间
+local pendingTimeout = tonumber(ARGV[4]) -- 处理中标记的超时时间，单位ms
+local expireSeconds = tonumber(ARGV[5])  -- 当前时间片的过期时间，单位s
+-- KEYS[1]为当前时间片（如 thumb:idem:{slot}），之后为更早的时间片
+
+-- 处理中标记已超时，视为不存在
+local function isAlive(value)
+    local pendingTime = string.match(value, 'P:(%d+)')
+    return pendingTime == nil or now - tonumber(pendingTime) < pendingTimeout
+end
+
+for i = 1, #KEYS do
+    local value = redis.call('HGET', KEYS[i], field)
+    if value and isAlive(value) then
+        return value
+    end
+end
+
+redis.call('HSET', KEYS[1], field, pending)
+redis.call('EXPIRE', KEYS[1], expireSeconds)
+return false
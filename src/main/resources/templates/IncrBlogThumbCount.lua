@@ -0,0 +1,12 @@
+---
+--- 集群模式下更新redis中blog的点赞数，只访问blog所在的slot。
+--- 只更新已缓存的热点/近期blog，blog不存在时不创建（否则会产生只有thumbCount的hash）
+---
+local blogKey = KEYS[1]         -- redis中存储blog的key（如 blog:{blogId}）
+local delta = tonumber(ARGV[1]) -- 点赞数的增量，1或-1
+
+if redis.call('EXISTS', blogKey) == 0 then
+    return 0
+end
+redis.call('HINCRBY', blogKey, 'thumbCount', delta)
+return 1
@@ -0,0 +1,8 @@
+---
+--- 返回用户点赞索引（hash索引和位图索引）中的所有blogId，用于重建节点本地的布隆过滤器（LocalThumbBloomFilter）
+---
+-- #include UserThumbBitmap.lua
+local userThumbKey = KEYS[1] -- 用户点赞hash索引（thumb:{userId}）
+local bitmapKey = KEYS[2]    -- 用户点赞位图索引（thumb:bm:{userId}）
+
+return userThumbBlogIds(userThumbKey, bitmapKey, {})
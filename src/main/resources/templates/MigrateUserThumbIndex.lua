@@ -0,0 +1,8 @@
+---
+--- 将一个用户旧的hash索引合并到位图索引，并删除旧索引。返回合并的记录数
+---
+-- #include UserThumbBitmap.lua
+local legacyKey = KEYS[1] -- 旧的用户点赞hash索引（如 thumb:{userId}）
+local bitmapKey = KEYS[2] -- 用户点赞位图索引（如 thumb:bm:{userId}）
+
+return migrateLegacyIndex(legacyKey, bitmapKey)
@@ -3,22 +3,31 @@
 --- Created by huang.
 --- DateTime: 2025/10/17 9:58
 ---
--- 批量更新Hash并设置过期时间
+-- 批量更新Hash并设置过期时间，Hash为BlogRedisCodec的编码（data、thumbCount两个field）
+-- thumbCount被数据库中的值覆盖，同时删除该blog的点赞数分片（分片中的点赞已经或即将通过消息队列计入数据库的点赞数），
+-- 覆盖和删除分片在同一个脚本中，期间不会有点赞写入分片后丢失
 -- KEYS[1..n] = 所有的 Hash Key (e.g., blog:1, blog:2)
--- ARGV[1] = 所有的 Hash Data (JSON 字符串)
--- ARGV[2] = 基础过期时间 (秒, 默认600)
--- ARGV[3] = 随机数上限 (秒, 默认120)
-local base_expire = tonumber(ARGV[2])
-local rand_bound = tonumber(ARGV[3])
-local data_map = cjson.decode(ARGV[1])
+-- KEYS[n+1..] = 每个Hash Key依次ARGV[3]个点赞数分片 (e.g., blog:1:cnt:0 .. blog:1:cnt:7, blog:2:cnt:0 ..)
+-- ARGV[1] = 基础过期时间 (秒, 默认600)
+-- ARGV[2] = 随机数上限 (秒, 默认120)
+-- ARGV[3] = 每个Hash Key的分片数
+-- ARGV[4..] = 每个Hash Key依次两个值：data（二进制）、thumbCount（十进制数字）
+local base_expire = tonumber(ARGV[1])
+local rand_bound = tonumber(ARGV[2])
+local shards = tonumber(ARGV[3])
+local blog_count = #KEYS / (shards + 1)
 
-for _, key in ipairs(KEYS) do
+for i = 1, blog_count do
+    local key = KEYS[i]
     local ttl = redis.call('TTL', key)
-    local hash_data = data_map[key]
 
     -- 批量设置Hash字段
-    if hash_data and #hash_data > 0 then
-        redis.call('HSET', key, unpack(hash_data))
+    redis.call('HSET', key, 'data', ARGV[2 * i + 2], 'thumbCount', ARGV[2 * i + 3])
+
+    -- 删除点赞数分片
+    local first_shard = blog_count + (i - 1) * shards + 1
+    for j = first_shard, first_shard + shards - 1 do
+        redis.call('DEL', KEYS[j])
     end
 
     -- 计算并设置过期时间
@@ -34,4 +43,4 @@ for _, key in ipairs(KEYS) do
     redis.call('EXPIRE', key, new_expire)
 end
 
-return 1
\ No newline at end of file
+return 1
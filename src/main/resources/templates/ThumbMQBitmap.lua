@@ -0,0 +1,31 @@
+---
+--- 点赞（位图索引），与ThumbMQ.lua相同，用户的点赞记录存入位图索引。用户还有旧的hash索引时先合并
+---
+-- #include UserThumbBitmap.lua
+-- #include UserThumbTier.lua
+-- #include BlogThumbCount.lua
+local bitmapKey = KEYS[1]       -- 用户点赞位图索引（如 thumb:bm:{userId}）
+local legacyKey = KEYS[2]       -- 旧的用户点赞hash索引（如 thumb:{userId}）
+local counterKey = KEYS[3]      -- 点赞数的key：blog:{blogId}，热点blog为随机选择的分片 blog:{blogId}:cnt:{shard}
+local activeKey = KEYS[4]       -- 常驻redis的用户（thumb:active），未开启冷热分层时为空
+local coldKey = KEYS[5]         -- 已淘汰的用户（thumb:cold），未开启冷热分层时为空
+local blogId = ARGV[1]          -- 点赞的blogId（ARGV[2]为点赞时间，位图索引中不使用）
+local shardTtl = ARGV[3]        -- 分片的过期时间（秒），counterKey不是分片时为0
+local userId = ARGV[4]          -- 点赞的userId，开启冷热分层时传入
+local now = ARGV[5]             -- 当前时间（毫秒时间戳），开启冷热分层时传入
+
+-- 用户的点赞索引已淘汰，由调用方从数据库加载后重试
+if not userThumbResident(coldKey, userId) then
+    return {-2}
+end
+userThumbTouch(activeKey, userId, now)
+
+migrateLegacyIndex(legacyKey, bitmapKey)
+-- 添加用户点赞记录，已点赞返回-1
+if not userThumbAdd(bitmapKey, blogId) then
+    return {-1}
+end
+-- 如果点赞热点/近期blog，更新redis中blog的点赞数+1
+incrThumbCount(counterKey, shardTtl, 1)
+
+return {1}
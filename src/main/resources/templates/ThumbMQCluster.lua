@@ -0,0 +1,18 @@
+---
+--- 集群模式的点赞（hash索引）：只访问用户点赞索引所在的slot。
+--- blog的点赞数不在脚本中更新，由调用方在点赞成功后执行IncrBlogThumbCount.lua（blog所在的slot）
+---
+local userThumbKey = KEYS[1]  -- redis中存储用户点赞数据的key（如 thumb:{userId}）
+local blogId = ARGV[1]        -- 点赞的blogId
+local thumbTime = ARGV[2]     -- 点赞的时间
+
+-- 判断是否点赞
+if redis.call('HEXISTS', userThumbKey, blogId) == 1 then
+    -- 已点赞
+    return {-1}
+end
+
+-- 添加用户点赞记录
+redis.call('HSET', userThumbKey, blogId, thumbTime)
+
+return {1}
@@ -0,0 +1,11 @@
+---
+--- 释放分布式锁：只有锁的值与加锁时写入的token相同才删除，避免锁过期后误删其他节点持有的锁
+---
+local lockKey = KEYS[1]           -- 锁键（如 lock:thumb:{userId}）
+local token = ARGV[1]             -- 加锁时写入的token
+
+if redis.call('GET', lockKey) == token then
+    return redis.call('DEL', lockKey)
+end
+
+return 0
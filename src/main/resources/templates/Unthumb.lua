@@ -3,11 +3,13 @@
 --- Created by huang.
 --- DateTime: 2025/10/14 15:08
 ---
+-- #include BlogThumbCount.lua
 local tempThumbKey = KEYS[1]      -- 临时计数键（如 thumb:temp:{timeSlice}）
 local userThumbKey = KEYS[2]      -- 用户点赞状态键（如 thumb:{userId}）
-local blogKey = KEYS[3]           -- 博客键（如 blog:{blogId}）
+local counterKey = KEYS[3]         -- 点赞数的key：blog:{blogId}，热点blog为随机选择的分片 blog:{blogId}:cnt:{shard}
 local userId = ARGV[1]            -- 用户 ID
 local blogId = ARGV[2]            -- 博客 ID
+local shardTtl = ARGV[3]           -- 分片的过期时间（秒），counterKey不是分片时为0
 
 -- 1. 检查用户是否已点赞（若未点赞，直接返回失败）
 if redis.call('HEXISTS', userThumbKey, blogId) ~= 1 then
@@ -26,8 +28,6 @@ redis.call('HSET', tempThumbKey, hashKey, newNumber)
 redis.call('HDEL', userThumbKey, blogId)
 
 -- 5. 如果为热点/近期blog，更新blog中的点赞数-1
-if redis.call('EXISTS', blogKey) == 1 then
-    redis.call('HINCRBY', blogKey, 'thumbCount', -1)
-end
+incrThumbCount(counterKey, shardTtl, -1)
 
 return 1  -- 返回 1 表示成功
\ No newline at end of file
@@ -3,9 +3,22 @@
 --- Created by huang.
 --- DateTime: 2025/10/16 16:50
 ---
+-- #include UserThumbTier.lua
+-- #include BlogThumbCount.lua
 local userThumbKey = KEYS[1]  -- redis中存储用户点赞数据的key
-local blogKey = KEYS[2]       -- redis中存储blog的key（如 blog:{blogId}）
+local counterKey = KEYS[2]    -- 点赞数的key：blog:{blogId}，热点blog为随机选择的分片 blog:{blogId}:cnt:{shard}
+local activeKey = KEYS[3]     -- 常驻redis的用户（thumb:active），未开启冷热分层时为空
+local coldKey = KEYS[4]       -- 已淘汰的用户（thumb:cold），未开启冷热分层时为空
 local blogId = ARGV[1]        -- 点赞的blogId
+local shardTtl = ARGV[2]      -- 分片的过期时间（秒），counterKey不是分片时为0
+local userId = ARGV[3]        -- 取消点赞的userId，开启冷热分层时传入
+local now = ARGV[4]           -- 当前时间（毫秒时间戳），开启冷热分层时传入
+
+-- 用户的点赞索引已淘汰，由调用方从数据库加载后重试
+if not userThumbResident(coldKey, userId) then
+    return {-2}
+end
+userThumbTouch(activeKey, userId, now)
 
 -- 判断是否点赞
 if redis.call('HEXISTS', userThumbKey, blogId) ~= 1 then
@@ -16,8 +29,6 @@ end
 local thumbTime = redis.call('HGET', userThumbKey, blogId)
 redis.call('HDEL', userThumbKey, blogId)
 -- 如果取消点赞热点/近期blog，更新redis中blog的点赞数-1
-if redis.call('EXISTS', blogKey) == 1 then
-    redis.call('HINCRBY', blogKey, 'thumbCount', -1)
-end
+incrThumbCount(counterKey, shardTtl, -1)
 
 return {1, thumbTime}
\ No newline at end of file
@@ -0,0 +1,16 @@
+---
+--- 集群模式的取消点赞（位图索引）：只访问用户点赞索引所在的slot。
+--- blog的点赞数不在脚本中更新，由调用方在取消点赞成功后执行IncrBlogThumbCount.lua（blog所在的slot）
+---
+-- #include UserThumbBitmap.lua
+local bitmapKey = KEYS[1]       -- 用户点赞位图索引（如 thumb:bm:{userId}）
+local legacyKey = KEYS[2]       -- 旧的用户点赞hash索引（如 thumb:{userId}），与位图索引在同一个slot
+local blogId = ARGV[1]          -- 取消点赞的blogId
+
+migrateLegacyIndex(legacyKey, bitmapKey)
+-- 删除用户点赞记录，未点赞返回-1
+if not userThumbRemove(bitmapKey, blogId) then
+    return {-1}
+end
+
+return {1}
@@ -0,0 +1,17 @@
+---
+--- 集群模式的取消点赞（hash索引）：只访问用户点赞索引所在的slot。
+--- blog的点赞数不在脚本中更新，由调用方在取消点赞成功后执行IncrBlogThumbCount.lua（blog所在的slot）
+---
+local userThumbKey = KEYS[1]  -- redis中存储用户点赞数据的key（如 thumb:{userId}）
+local blogId = ARGV[1]        -- 取消点赞的blogId
+
+-- 判断是否点赞
+local thumbTime = redis.call('HGET', userThumbKey, blogId)
+if not thumbTime then
+    return {-1}
+end
+
+-- 删除用户点赞记录，返回点赞时间（用于回滚）
+redis.call('HDEL', userThumbKey, blogId)
+
+return {1, thumbTime}
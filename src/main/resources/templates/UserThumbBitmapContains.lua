@@ -0,0 +1,25 @@
+---
+--- 批量查询用户是否点赞（位图索引），返回与blogId列表一一对应的 1/0。
+--- 只读：用户还有旧的hash索引（尚未合并）时同时查询旧索引。开启冷热分层且用户的点赞索引已淘汰时返回 {-2}
+---
+-- #include UserThumbBitmap.lua
+-- #include UserThumbTier.lua
+local bitmapKey = KEYS[1] -- 用户点赞位图索引（如 thumb:bm:{userId}）
+local legacyKey = KEYS[2] -- 旧的用户点赞hash索引（如 thumb:{userId}）
+local coldKey = KEYS[3]   -- 已淘汰的用户（thumb:cold），未开启冷热分层时为空
+local userId = ARGV[1]    -- 查询的userId，ARGV[2]开始为blogId列表
+
+if not userThumbResident(coldKey, userId) then
+    return {-2}
+end
+local hasLegacy = redis.call('EXISTS', legacyKey) == 1
+local result = {}
+for i = 2, #ARGV do
+    local blogId = ARGV[i]
+    if userThumbContains(bitmapKey, blogId) or (hasLegacy and redis.call('HEXISTS', legacyKey, blogId) == 1) then
+        result[i - 1] = 1
+    else
+        result[i - 1] = 0
+    end
+end
+return result
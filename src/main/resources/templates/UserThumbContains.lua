@@ -0,0 +1,17 @@
+---
+--- 批量查询用户是否点赞（hash索引，开启冷热分层时使用），返回与blogId列表一一对应的 1/0。
+--- 只读：用户的点赞索引已淘汰时返回 {-2}
+---
+-- #include UserThumbTier.lua
+local userThumbKey = KEYS[1] -- redis中存储用户点赞数据的key
+local coldKey = KEYS[2]      -- 已淘汰的用户（thumb:cold）
+local userId = ARGV[1]       -- 查询的userId，ARGV[2]开始为blogId列表
+
+if not userThumbResident(coldKey, userId) then
+    return {-2}
+end
+local result = {}
+for i = 2, #ARGV do
+    result[i - 1] = redis.call('HEXISTS', userThumbKey, ARGV[i])
+end
+return result
@@ -0,0 +1,20 @@
+---
+--- 将用户在数据库中的点赞记录加载回hash索引（冷数据加载），并将用户加入常驻redis的用户。
+--- 用户不是已淘汰的用户（并发加载已完成，之后的写入以redis为准）时不写入，返回-1；否则返回加载的记录数
+---
+-- #include UserThumbTier.lua
+local userThumbKey = KEYS[1] -- redis中存储用户点赞数据的key
+local activeKey = KEYS[2]    -- 常驻redis的用户（thumb:active）
+local coldKey = KEYS[3]      -- 已淘汰的用户（thumb:cold）
+local userId = ARGV[1]
+local now = ARGV[2]          -- 当前时间（毫秒时间戳）
+-- ARGV[3]开始为 blogId, 点赞时间 交替排列
+
+if userThumbResident(coldKey, userId) then
+    return -1
+end
+for i = 3, #ARGV, 2 do
+    redis.call('HSET', userThumbKey, ARGV[i], ARGV[i + 1])
+end
+userThumbWarmed(activeKey, coldKey, userId, now)
+return (#ARGV - 2) / 2
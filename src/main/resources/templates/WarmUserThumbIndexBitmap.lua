@@ -0,0 +1,36 @@
+---
+--- 将用户在数据库中的点赞记录加载回位图索引（冷数据加载），并将用户加入常驻redis的用户。
+--- 用户不是已淘汰的用户时不写入，返回-1；否则返回加载的记录数
+---
+-- #include UserThumbBitmap.lua
+-- #include UserThumbTier.lua
+local bitmapKey = KEYS[1] -- 用户点赞位图索引（如 thumb:bm:{userId}）
+local legacyKey = KEYS[2] -- 旧的用户点赞hash索引（如 thumb:{userId}）
+local activeKey = KEYS[3] -- 常驻redis的用户（thumb:active）
+local coldKey = KEYS[4]   -- 已淘汰的用户（thumb:cold）
+local userId = ARGV[1]
+local now = ARGV[2]       -- 当前时间（毫秒时间戳）
+-- ARGV[3]开始为blogId列表
+
+if userThumbResident(coldKey, userId) then
+    return -1
+end
+-- 索引不存在，按块收集后直接生成容器
+local chunks = {}
+for i = 3, #ARGV do
+    local field, low = bitmapChunk(ARGV[i])
+    if field then
+        chunks[field] = chunks[field] or {}
+        chunks[field][low] = true
+    end
+end
+for field, values in pairs(chunks) do
+    local lows = {}
+    for low in pairs(values) do
+        lows[#lows + 1] = low
+    end
+    table.sort(lows)
+    redis.call('HSET', bitmapKey, field, buildContainer(lows))
+end
+userThumbWarmed(activeKey, coldKey, userId, now)
+return #ARGV - 2
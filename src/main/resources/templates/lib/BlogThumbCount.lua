@@ -0,0 +1,16 @@
+---
+--- 点赞/取消点赞脚本更新blog点赞数的公共函数，由需要的脚本通过 -- #include BlogThumbCount.lua 引入，见ShardedThumbCounter。
+--- 是否写分片由调用方根据本地的分片blog集合决定，脚本不访问 blog:sharded：
+--- 1. counterKey为 blog:{blogId}（shardTtl为0）：只更新已缓存的blog的thumbCount
+--- 2. counterKey为分片 blog:{blogId}:cnt:{shard}（shardTtl大于0）：只访问该分片，不访问 blog:{blogId}。
+---    分片有自己的过期时间，每次写入时延长；blog从数据库重新加载时由SyncHotBlog.lua重置分片
+---
+
+local function incrThumbCount(counterKey, shardTtl, delta)
+    if tonumber(shardTtl) > 0 then
+        redis.call('INCRBY', counterKey, delta)
+        redis.call('EXPIRE', counterKey, shardTtl)
+    elseif redis.call('EXISTS', counterKey) == 1 then
+        redis.call('HINCRBY', counterKey, 'thumbCount', delta)
+    end
+end
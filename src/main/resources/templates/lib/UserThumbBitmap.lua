@@ -0,0 +1,239 @@
+---
+--- 用户点赞索引的位图存储，由需要的脚本通过 -- #include UserThumbBitmap.lua 引入。
+--- thumb:bm:{userId} 为hash：blogId按高位分块，field为 blogId // 65536，value为块内低16位（low）的容器，与RoaringBitmap的容器相同：
+--- 1. 数组容器：升序的uint16，大端，每个2字节，最多4095个
+--- 2. 位图容器：8192字节，第 low // 8 + 1 个字节的第 low % 8 位表示low存在
+--- 两种容器只按长度区分。位图容器删除元素后不再转换回数组容器。点赞时间不存入redis，以数据库中的createTime为准。
+---
+local BITMAP_CONTAINER_SIZE = 8192
+local ARRAY_CONTAINER_MAX = 4095
+
+-- blogId -> field, low。blogId不是数字时返回nil
+local function bitmapChunk(blogId)
+    local id = tonumber(blogId)
+    if not id then
+        return nil
+    end
+    return string.format('%d', math.floor(id / 65536)), id % 65536
+end
+
+local function uint16(value)
+    return string.char(math.floor(value / 256), value % 256)
+end
+
+local function arrayValue(container, index)
+    local high, low = string.byte(container, index * 2 - 1, index * 2)
+    return high * 256 + low
+end
+
+-- 二分查找，返回 位置, 是否存在。不存在时位置为插入位置
+local function arraySearch(container, value)
+    local left, right = 1, #container / 2
+    while left <= right do
+        local mid = math.floor((left + right) / 2)
+        local midValue = arrayValue(container, mid)
+        if midValue == value then
+            return mid, true
+        elseif midValue < value then
+            left = mid + 1
+        else
+            right = mid - 1
+        end
+    end
+    return left, false
+end
+
+local function containerContains(container, low)
+    if not container then
+        return false
+    end
+    if #container == BITMAP_CONTAINER_SIZE then
+        local byte = string.byte(container, math.floor(low / 8) + 1)
+        return bit.band(byte, bit.lshift(1, low % 8)) ~= 0
+    end
+    local _, found = arraySearch(container, low)
+    return found
+end
+
+-- 由升序的low列表创建容器
+local function buildContainer(lows)
+    if #lows <= ARRAY_CONTAINER_MAX then
+        local parts = {}
+        for i, low in ipairs(lows) do
+            parts[i] = uint16(low)
+        end
+        return table.concat(parts)
+    end
+    local bytes = {}
+    for i = 1, BITMAP_CONTAINER_SIZE do
+        bytes[i] = 0
+    end
+    for _, low in ipairs(lows) do
+        local index = math.floor(low / 8) + 1
+        bytes[index] = bit.bor(bytes[index], bit.lshift(1, low % 8))
+    end
+    local parts = {}
+    for i = 1, BITMAP_CONTAINER_SIZE do
+        parts[i] = string.char(bytes[i])
+    end
+    return table.concat(parts)
+end
+
+-- 将容器中的low加入集合values（low -> true）
+local function containerValues(container, values)
+    if #container == BITMAP_CONTAINER_SIZE then
+        for i = 1, BITMAP_CONTAINER_SIZE do
+            local byte = string.byte(container, i)
+            if byte ~= 0 then
+                for j = 0, 7 do
+                    if bit.band(byte, bit.lshift(1, j)) ~= 0 then
+                        values[(i - 1) * 8 + j] = true
+                    end
+                end
+            end
+        end
+    else
+        for i = 1, #container / 2 do
+            values[arrayValue(container, i)] = true
+        end
+    end
+end
+
+-- 返回加入low后的容器，low已存在时返回nil。数组容器超过4095个时转换为位图容器
+local function containerAdd(container, low)
+    if not container then
+        return uint16(low)
+    end
+    if #container == BITMAP_CONTAINER_SIZE then
+        local index = math.floor(low / 8) + 1
+        local byte = string.byte(container, index)
+        local mask = bit.lshift(1, low % 8)
+        if bit.band(byte, mask) ~= 0 then
+            return nil
+        end
+        return string.sub(container, 1, index - 1) .. string.char(bit.bor(byte, mask)) .. string.sub(container, index + 1)
+    end
+    local position, found = arraySearch(container, low)
+    if found then
+        return nil
+    end
+    if #container / 2 < ARRAY_CONTAINER_MAX then
+        return string.sub(container, 1, position * 2 - 2) .. uint16(low) .. string.sub(container, position * 2 - 1)
+    end
+    local lows = {}
+    for i = 1, #container / 2 do
+        lows[i] = arrayValue(container, i)
+    end
+    table.insert(lows, position, low)
+    return buildContainer(lows)
+end
+
+-- 返回删除low后的容器（空字符串表示容器为空），low不存在时返回nil
+local function containerRemove(container, low)
+    if not container then
+        return nil
+    end
+    if #container == BITMAP_CONTAINER_SIZE then
+        local index = math.floor(low / 8) + 1
+        local byte = string.byte(container, index)
+        local mask = bit.lshift(1, low % 8)
+        if bit.band(byte, mask) == 0 then
+            return nil
+        end
+        return string.sub(container, 1, index - 1) .. string.char(bit.band(byte, bit.bnot(mask))) .. string.sub(container, index + 1)
+    end
+    local position, found = arraySearch(container, low)
+    if not found then
+        return nil
+    end
+    return string.sub(container, 1, position * 2 - 2) .. string.sub(container, position * 2 + 1)
+end
+
+local function userThumbContains(bitmapKey, blogId)
+    local field, low = bitmapChunk(blogId)
+    if not field then
+        return false
+    end
+    return containerContains(redis.call('HGET', bitmapKey, field), low)
+end
+
+-- 加入点赞记录，已存在时返回false
+local function userThumbAdd(bitmapKey, blogId)
+    local field, low = bitmapChunk(blogId)
+    if not field then
+        return false
+    end
+    local container = containerAdd(redis.call('HGET', bitmapKey, field), low)
+    if not container then
+        return false
+    end
+    redis.call('HSET', bitmapKey, field, container)
+    return true
+end
+
+-- 删除点赞记录，不存在时返回false
+local function userThumbRemove(bitmapKey, blogId)
+    local field, low = bitmapChunk(blogId)
+    if not field then
+        return false
+    end
+    local container = containerRemove(redis.call('HGET', bitmapKey, field), low)
+    if not container then
+        return false
+    end
+    if container == '' then
+        redis.call('HDEL', bitmapKey, field)
+    else
+        redis.call('HSET', bitmapKey, field, container)
+    end
+    return true
+end
+
+-- 用户还有旧的hash索引（thumb:{userId}，blogId -> 点赞时间）时，合并到位图索引并删除旧索引。返回合并的记录数
+local function migrateLegacyIndex(legacyKey, bitmapKey)
+    local blogIds = redis.call('HKEYS', legacyKey)
+    if #blogIds == 0 then
+        return 0
+    end
+    local chunks = {}
+    for _, blogId in ipairs(blogIds) do
+        local field, low = bitmapChunk(blogId)
+        if field then
+            if not chunks[field] then
+                chunks[field] = {}
+                local container = redis.call('HGET', bitmapKey, field)
+                if container then
+                    containerValues(container, chunks[field])
+                end
+            end
+            chunks[field][low] = true
+        end
+    end
+    for field, values in pairs(chunks) do
+        local lows = {}
+        for low in pairs(values) do
+            lows[#lows + 1] = low
+        end
+        table.sort(lows)
+        redis.call('HSET', bitmapKey, field, buildContainer(lows))
+    end
+    redis.call('DEL', legacyKey)
+    return #blogIds
+end
+
+-- 将用户hash索引（thumb:{userId}）和位图索引中的所有blogId追加到result，返回result
+local function userThumbBlogIds(legacyKey, bitmapKey, result)
+    for _, blogId in ipairs(redis.call('HKEYS', legacyKey)) do
+        result[#result + 1] = blogId
+    end
+    local bitmap = redis.call('HGETALL', bitmapKey)
+    for i = 1, #bitmap, 2 do
+        local values = {}
+        containerValues(bitmap[i + 1], values)
+        local high = tonumber(bitmap[i]) * 65536
+        for low in pairs(values) do
+            result[#result + 1] = string.format('%d', high + low)
+        end
+    end
+    return result
+end
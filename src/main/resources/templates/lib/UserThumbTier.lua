@@ -0,0 +1,28 @@
+---
+--- 用户点赞索引的冷热分层，由需要的脚本通过 -- #include UserThumbTier.lua 引入，见UserThumbIndex。
+--- thumb:active 为zset：常驻redis的用户，score为最近一次写入（或从数据库加载）的时间，长时间没有写入的用户由
+--- UserThumbEvictionJob淘汰：删除用户的点赞索引，点赞记录只在数据库中，用户加入 thumb:cold。
+--- 只有 thumb:cold 中的用户是已淘汰的用户。没有点赞过的用户不在 thumb:cold 中，点赞索引为空即没有点赞，
+--- 不需要查询数据库或加载。未开启冷热分层时activeKey、coldKey为nil。
+---
+
+-- 用户的点赞索引是否在redis中（用户没有被淘汰）
+local function userThumbResident(coldKey, userId)
+    if not coldKey then
+        return true
+    end
+    return redis.call('SISMEMBER', coldKey, userId) == 0
+end
+
+-- 记录用户最近一次写入的时间
+local function userThumbTouch(activeKey, userId, now)
+    if activeKey then
+        redis.call('ZADD', activeKey, now, userId)
+    end
+end
+
+-- 已淘汰的用户的点赞记录已从数据库加载回redis
+local function userThumbWarmed(activeKey, coldKey, userId, now)
+    redis.call('SREM', coldKey, userId)
+    userThumbTouch(activeKey, userId, now)
+end
@@ -0,0 +1,114 @@
+package com.bread.breadthumb;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.bread.breadthumb.model.entity.Blog;
+import com.bread.breadthumb.util.BlogRedisCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * blog:{blogId}的序列化对比（单线程，每轮 ops 次，预热后取最后一轮）：
+ * 1. JACKSON：原来的方式，redisTemplate（Jackson，NON_FINAL默认类型），BeanUtil.beanToMap后每个字段一个hash field
+ * 2. BINARY：hotRedisTemplate + BlogRedisCodec，data（二进制）+ thumbCount（十进制数字）两个field
+ * 输出每次序列化/反序列化的耗时，以及HSET写入的字节数（field名 + 值，不含RESP协议开销）
+ * 运行：BlogRedisCodecBenchmark [content长度，默认500] [ops，默认200000]
+ */
+public class BlogRedisCodecBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int contentLength = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Blog blog = blog(contentLength);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+        objectMapper.registerModules(new JavaTimeModule());
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        Jackson2JsonRedisSerializer<Object> jsonSerializer = new Jackson2JsonRedisSerializer<>(objectMapper, Object.class);
+        StringRedisSerializer keySerializer = new StringRedisSerializer();
+
+        Supplier<Map<byte[], byte[]>> jacksonWrite = () -> {
+            Map<byte[], byte[]> hash = new LinkedHashMap<>();
+            BeanUtil.beanToMap(blog, false, false)
+                    .forEach((field, value) -> hash.put(keySerializer.serialize(field), jsonSerializer.serialize(value)));
+            return hash;
+        };
+        Map<byte[], byte[]> jacksonHash = jacksonWrite.get();
+        Supplier<Blog> jacksonRead = () -> {
+            Map<Object, Object> entries = new LinkedHashMap<>();
+            jacksonHash.forEach((field, value) -> entries.put(keySerializer.deserialize(field), jsonSerializer.deserialize(value)));
+            Blog decoded = new Blog();
+            BeanUtil.fillBeanWithMap(entries, decoded, false);
+            return decoded;
+        };
+
+        Supplier<Map<byte[], byte[]>> binaryWrite = () -> {
+            Map<byte[], byte[]> hash = new LinkedHashMap<>();
+            BlogRedisCodec.toHash(blog).forEach((field, value) -> hash.put(keySerializer.serialize(field), value));
+            return hash;
+        };
+        Map<byte[], byte[]> binaryHash = binaryWrite.get();
+        List<byte[]> binaryValues = new ArrayList<>(binaryHash.values());
+        Supplier<Blog> binaryRead = () -> BlogRedisCodec.fromHash(binaryValues);
+
+        check(blog, jacksonRead.get(), "JACKSON");
+        check(blog, binaryRead.get(), "BINARY");
+
+        report("JACKSON", jacksonHash, measure(jacksonWrite, ops), measure(jacksonRead, ops));
+        report("BINARY ", binaryHash, measure(binaryWrite, ops), measure(binaryRead, ops));
+    }
+
+    private static double measure(Supplier<?> operation, int ops) {
+        double nanosPerOp = 0;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += operation.get().hashCode();
+            }
+            nanosPerOp = (double) (System.nanoTime() - start) / ops;
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return nanosPerOp;
+    }
+
+    private static void report(String name, Map<byte[], byte[]> hash, double writeNanos, double readNanos) {
+        int bytes = hash.entrySet().stream().mapToInt(entry -> entry.getKey().length + entry.getValue().length).sum();
+        System.out.printf("%s fields %d, bytes %5d, serialize %8.0f ns/op, deserialize %8.0f ns/op%n",
+                name, hash.size(), bytes, writeNanos, readNanos);
+    }
+
+    private static void check(Blog expected, Blog actual, String name) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(name + " decoded " + actual + ", expected " + expected);
+        }
+    }
+
+    private static Blog blog(int contentLength) {
+        Blog blog = new Blog();
+        blog.setId(1_234_567L);
+        blog.setUserId(7_654_321L);
+        blog.setTitle("热点博客标题 hot blog title");
+        blog.setCoverImg("https://example.com/cover/1234567.png");
+        blog.setContent("点赞".repeat(contentLength / 2));
+        blog.setThumbCount(98_765);
+        // 数据库中的时间精度为秒
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        blog.setCreateTime(new Date(now - 86_400_000L));
+        blog.setUpdateTime(new Date(now));
+        return blog;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.excel.ExportService;
+import com.bread.breadthumb.excel.ThumbExcelElement;
+import com.bread.breadthumb.mq.DlqFileSink;
+import com.bread.breadthumb.mq.ThumbEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * 一天的死信写入文件的耗时对比：
+ * 1. XLSX_REWRITE：原来的方式，每条死信调用一次ExportService.exportData，复制整个xlsx文件后追加一行，总耗时随死信数平方增长。
+ *    10万条耗时过长，只运行较小的规模，按 a*n^2 外推10万条的耗时
+ * 2. CSV_APPEND：DlqFileSink，批量追加到csv文件，统计从第一条append到最后一条确认的耗时和消费者线程阻塞的时间
+ * 运行：DlqFileSinkBenchmark [死信数，默认100000]
+ */
+public class DlqFileSinkBenchmark {
+
+    private static final int[] REWRITE_SIZES = {500, 1_000, 2_000};
+
+    public static void main(String[] args) throws Exception {
+        int deadLetters = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path dir = Files.createTempDirectory("dlq-benchmark");
+
+        ExportService exportService = new ExportService();
+        double coefficient = 0;
+        for (int size : REWRITE_SIZES) {
+            String filePath = dir.resolve("rewrite-" + size + ".xlsx").toString();
+            long start = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                exportService.exportData(filePath, "Dead Letters", List.of(element(i)), ThumbExcelElement.class);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            coefficient = seconds / ((double) size * size);
+            System.out.printf("XLSX_REWRITE %7d dead letters: %8.2f s, %8.0f dead letters/s%n", size, seconds, size / seconds);
+        }
+        System.out.printf("XLSX_REWRITE %7d dead letters: %8.0f s (extrapolated)%n", deadLetters, coefficient * deadLetters * deadLetters);
+
+        Path appendDir = dir.resolve("append");
+        CountDownLatch written = new CountDownLatch(deadLetters);
+        long start = System.nanoTime();
+        long appendNanos;
+        try (DlqFileSink sink = new DlqFileSink(appendDir, 1000, 1000, 10_000, new SimpleMeterRegistry())) {
+            for (int i = 0; i < deadLetters; i++) {
+                sink.append(element(i), written::countDown, written::countDown);
+            }
+            appendNanos = System.nanoTime() - start;
+            written.await();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytes;
+        try (Stream<Path> files = Files.list(appendDir)) {
+            bytes = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+        System.out.printf("CSV_APPEND   %7d dead letters: %8.2f s, %8.0f dead letters/s, consumer blocked %.2f s, file %d bytes%n",
+                deadLetters, seconds, deadLetters / seconds, appendNanos / 1e9, bytes);
+    }
+
+    private static ThumbExcelElement element(int i) {
+        return new ThumbExcelElement("1:" + i + ":-1:0", (long) (i % 10_000), (long) (i % 500),
+                i % 2 == 0 ? ThumbEvent.EventType.INCR : ThumbEvent.EventType.DECR, LocalDateTime.now());
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.config.RedisConfig;
+import com.bread.breadthumb.model.enums.LuaScriptEnum;
+import com.bread.breadthumb.util.RedisKeyUtil;
+import com.bread.breadthumb.util.RedisScriptManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 集群模式（thumb.redis.cluster.enabled）的点赞路径：
+ * 1. 每个脚本调用的所有key在同一个slot，非集群模式的key不变（不需要redis）
+ * 2. 在本地的多节点Redis Cluster上并发点赞/取消点赞（用户侧脚本 + IncrBlogThumbCount），
+ *    结束后每个blog的thumbCount等于点赞索引中点赞了该blog的用户数；hash索引和位图索引各执行一次
+ * 第2项需要设置环境变量 REDIS_CLUSTER_NODES（如 127.0.0.1:7000,127.0.0.1:7001,127.0.0.1:7002），未设置时跳过。
+ */
+public class RedisClusterThumbTest {
+
+    private static final int USERS = 50;
+    private static final int BLOGS = 20;
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 2000;
+
+    @AfterEach
+    void resetKeyLayout() {
+        RedisKeyUtil.setClusterEnabled(false);
+    }
+
+    @Test
+    void scriptKeysShareOneSlot() {
+        assertEquals("thumb:123", RedisKeyUtil.getUserThumbKey(123L));
+        assertEquals("blog:123:cnt:1", RedisKeyUtil.getBlogCounterShardKey(123L, 1));
+        assertEquals("thumb:idem:42", RedisKeyUtil.getIdempotencyKey(123L, 42));
+
+        RedisKeyUtil.setClusterEnabled(true);
+        Random random = new Random(25);
+        for (int i = 0; i < 10_000; i++) {
+            long userId = random.nextLong(1, Long.MAX_VALUE);
+            long blogId = random.nextLong(1, Long.MAX_VALUE);
+            // 点赞脚本（hash索引 / 位图索引）、查询脚本、幂等键预占脚本
+            assertSameSlot(RedisKeyUtil.getUserThumbKey(userId));
+            assertSameSlot(RedisKeyUtil.getUserThumbBitmapKey(userId), RedisKeyUtil.getUserThumbKey(userId));
+            assertSameSlot(RedisKeyUtil.getIdempotencyKey(userId, 100), RedisKeyUtil.getIdempotencyKey(userId, 99),
+                    RedisKeyUtil.getIdempotencyKey(userId, 90));
+            // blog的点赞数和分片
+            assertSameSlot(RedisKeyUtil.getBlogKey(blogId), RedisKeyUtil.getBlogCounterShardKey(blogId, 0),
+                    RedisKeyUtil.getBlogCounterShardKey(blogId, 7));
+        }
+        assertEquals("thumb:{123}", RedisKeyUtil.getUserThumbKey(123L));
+        assertEquals("thumb:bm:{123}", RedisKeyUtil.getUserThumbBitmapKey(123L));
+        assertEquals("blog:{123}", RedisKeyUtil.getBlogKey(123L));
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "REDIS_CLUSTER_NODES", matches = ".+")
+    void concurrentThumbsOnCluster() throws Exception {
+        JedisConnectionFactory connectionFactory = new JedisConnectionFactory(
+                new RedisClusterConfiguration(Arrays.asList(System.getenv("REDIS_CLUSTER_NODES").split(","))));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try {
+            RedisKeyUtil.setClusterEnabled(true);
+            RedisTemplate<String, Object> redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+            RedisScriptManager redisScriptManager = new RedisScriptManager();
+            ReflectionTestUtils.setField(redisScriptManager, "redisTemplate", redisTemplate);
+            ReflectionTestUtils.setField(redisScriptManager, "meterRegistry", new SimpleMeterRegistry());
+            redisScriptManager.init();
+
+            // 每次运行使用不同的id，不与之前的运行冲突
+            long base = System.currentTimeMillis() * 1000;
+            runThumbs(redisTemplate, redisScriptManager, base, false);
+            runThumbs(redisTemplate, redisScriptManager, base + 100_000, true);
+        } finally {
+            connectionFactory.destroy();
+        }
+    }
+
+    private void runThumbs(RedisTemplate<String, Object> redisTemplate, RedisScriptManager redisScriptManager,
+                           long base, boolean bitmap) throws Exception {
+        LuaScriptEnum thumbScript = bitmap ? LuaScriptEnum.THUMB_MQ_BITMAP_CLUSTER : LuaScriptEnum.THUMB_MQ_CLUSTER;
+        LuaScriptEnum unthumbScript = bitmap ? LuaScriptEnum.UNTHUMB_MQ_BITMAP_CLUSTER : LuaScriptEnum.UNTHUMB_MQ_CLUSTER;
+        List<String> keys = new ArrayList<>();
+        try {
+            // 只有已缓存的blog更新点赞数，最后一个blog不缓存
+            for (long blogId = base; blogId < base + BLOGS - 1; blogId++) {
+                redisTemplate.opsForHash().put(RedisKeyUtil.getBlogKey(blogId), "thumbCount", 0);
+            }
+            for (long id = base; id < base + Math.max(USERS, BLOGS); id++) {
+                keys.add(RedisKeyUtil.getBlogKey(id));
+                keys.addAll(getUserKeys(id, bitmap));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            // 并发执行的用户侧脚本和blog点赞数脚本在不同的slot（通常在不同的节点）
+            for (int t = 0; t < THREADS; t++) {
+                Random random = new Random(base + t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        long userId = base + random.nextInt(USERS);
+                        long blogId = base + random.nextInt(BLOGS);
+                        boolean thumb = random.nextBoolean();
+                        List<Object> result = redisScriptManager.execute(thumb ? thumbScript : unthumbScript,
+                                getUserKeys(userId, bitmap), blogId, LocalDateTime.now());
+                        long status = Long.parseLong(result.getFirst().toString());
+                        assertTrue(status == 1 || status == -1, "unexpected status " + status);
+                        if (status == 1) {
+                            redisScriptManager.execute(LuaScriptEnum.INCR_BLOG_THUMB_COUNT,
+                                    List.of(RedisKeyUtil.getBlogKey(blogId)), thumb ? 1 : -1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            for (long blogId = base; blogId < base + BLOGS; blogId++) {
+                long thumbedUsers = 0;
+                for (long userId = base; userId < base + USERS; userId++) {
+                    if (isThumbed(redisTemplate, redisScriptManager, userId, blogId, bitmap)) {
+                        thumbedUsers++;
+                    }
+                }
+                Object thumbCount = redisTemplate.opsForHash().get(RedisKeyUtil.getBlogKey(blogId), "thumbCount");
+                if (blogId == base + BLOGS - 1) {
+                    assertNull(thumbCount, "uncached blog must not be created");
+                } else {
+                    assertEquals(thumbedUsers, Long.parseLong(thumbCount.toString()), "blog " + blogId);
+                }
+            }
+        } finally {
+            keys.forEach(redisTemplate::delete);
+        }
+    }
+
+    private static boolean isThumbed(RedisTemplate<String, Object> redisTemplate, RedisScriptManager redisScriptManager,
+                                     long userId, long blogId, boolean bitmap) {
+        if (!bitmap) {
+            return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), Long.toString(blogId));
+        }
+        List<Object> values = redisScriptManager.execute(LuaScriptEnum.USER_THUMB_BITMAP_CONTAINS, getUserKeys(userId, true), userId, blogId);
+        return ((Number) values.getFirst()).longValue() == 1;
+    }
+
+    private static List<String> getUserKeys(long userId, boolean bitmap) {
+        if (bitmap) {
+            return List.of(RedisKeyUtil.getUserThumbBitmapKey(userId), RedisKeyUtil.getUserThumbKey(userId));
+        }
+        return List.of(RedisKeyUtil.getUserThumbKey(userId));
+    }
+
+    private static void assertSameSlot(String... keys) {
+        byte[][] rawKeys = Arrays.stream(keys).map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        assertTrue(ClusterSlotHashUtil.isSameSlotForAllKeys(rawKeys), () -> "keys in different slots: " + Arrays.toString(keys));
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.constant.Constant;
+import com.bread.breadthumb.util.RedisKeyUtil;
+import redis.clients.jedis.JedisPooled;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个热点blog的点赞吞吐量对比：点赞数写入 blog:{id}（不分片） vs 写入 blog:{id}:cnt:{shard}（分片）。
+ * 直接执行ThumbMQ.lua，每次点赞使用不同的userId，需要本地redis。运行：
+ * ShardedCounterBenchmark [host] [port] [线程数] [每轮秒数] [分片数]
+ * 单实例redis中单线程执行命令，分片主要减少单个key上的竞争；在集群中分片分布到不同的slot，效果更明显。
+ */
+public class ShardedCounterBenchmark {
+
+    private static final long BLOG_ID = 999_999_999L;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int shards = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+        try (JedisPooled jedis = new JedisPooled(host, port)) {
+            // 展开 -- #include，与RedisScriptManager相同；不传 thumb:active，不开启冷热分层
+            String script = Files.readString(Path.of("src/main/resources/templates/ThumbMQ.lua"))
+                    .replace("-- #include UserThumbTier.lua", Files.readString(Path.of("src/main/resources/templates/lib/UserThumbTier.lua")));
+            String sha1 = jedis.scriptLoad(script);
+            for (boolean sharded : new boolean[]{false, true}) {
+                reset(jedis, shards);
+                if (sharded) {
+                    jedis.zadd(Constant.REDIS_SHARDED_BLOG_KEY, System.currentTimeMillis(), String.valueOf(BLOG_ID));
+                }
+                long ops = run(jedis, sha1, threads, seconds, shards);
+                System.out.printf("%s: %d thumbs in %ds, %.0f ops/s, thumb count %d%n",
+                        sharded ? "sharded(" + shards + ")" : "single key", ops, seconds, (double) ops / seconds,
+                        readThumbCount(jedis, shards));
+            }
+            reset(jedis, shards);
+        }
+    }
+
+    private static long run(JedisPooled jedis, String sha1, int threads, int seconds, int shards) throws InterruptedException {
+        AtomicLong userIdGenerator = new AtomicLong();
+        AtomicLong ops = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        String blogKey = RedisKeyUtil.getBlogKey(BLOG_ID);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    long userId = userIdGenerator.incrementAndGet();
+                    String shardKey = RedisKeyUtil.getBlogCounterShardKey(BLOG_ID, ThreadLocalRandom.current().nextInt(shards));
+                    jedis.evalsha(sha1,
+                            List.of(benchmarkUserKey(userId), blogKey, shardKey, Constant.REDIS_SHARDED_BLOG_KEY),
+                            List.of(String.valueOf(BLOG_ID), LocalDateTime.now().toString()));
+                    ops.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 30L, TimeUnit.SECONDS);
+        // 清理用户点赞记录
+        for (long userId = 1; userId <= userIdGenerator.get(); userId++) {
+            jedis.del(benchmarkUserKey(userId));
+        }
+        return ops.get();
+    }
+
+    private static long readThumbCount(JedisPooled jedis, int shards) {
+        String thumbCount = jedis.hget(RedisKeyUtil.getBlogKey(BLOG_ID), "thumbCount");
+        long count = thumbCount == null ? 0 : Long.parseLong(thumbCount);
+        for (int i = 0; i < shards; i++) {
+            String value = jedis.get(RedisKeyUtil.getBlogCounterShardKey(BLOG_ID, i));
+            count += value == null ? 0 : Long.parseLong(value);
+        }
+        return count;
+    }
+
+    private static void reset(JedisPooled jedis, int shards) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            keys.add(RedisKeyUtil.getBlogCounterShardKey(BLOG_ID, i));
+        }
+        jedis.del(keys.toArray(new String[0]));
+        jedis.zrem(Constant.REDIS_SHARDED_BLOG_KEY, String.valueOf(BLOG_ID));
+        String blogKey = RedisKeyUtil.getBlogKey(BLOG_ID);
+        jedis.del(blogKey);
+        jedis.hset(blogKey, "thumbCount", "0");
+        jedis.expire(blogKey, 600);
+    }
+
+    private static String benchmarkUserKey(long userId) {
+        return "benchmark:" + RedisKeyUtil.getUserThumbKey(userId);
+    }
+
+}
@@ -0,0 +1,416 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.model.entity.Thumb;
+import com.bread.breadthumb.monitor.ThumbPipelineMetrics;
+import com.bread.breadthumb.mq.AdaptiveFlushController;
+import com.bread.breadthumb.mq.ThumbConsumer;
+import com.bread.breadthumb.mq.ThumbEvent;
+import com.bread.breadthumb.util.ThumbFlushEngine;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.jupiter.api.Test;
+import org.springframework.pulsar.listener.Acknowledgement;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 通过ThumbConsumer（ThumbWriteBuffer归约、按blogId分区写入）消费随机的点赞/取消点赞序列，数据库中的结果必须与逐条执行所有事件一致。
+ * broker按Key_Shared的方式投递：消息按顺序投递，NACK的消息排在已进入接收队列的消息之后重新投递；
+ * 重连（确认丢失）后未确认的消息按原来的顺序重新投递，已写入数据库的旧批次会在之后的消息之前再次投递。分区事务随机失败，写入期间消费者继续接收消息（与定时写入并发），
+ * 消息的publishTime来自时钟不同步的多个生产者。
+ */
+public class ThumbEventReducerTest {
+
+    private static final int TRIALS = 300;
+    private static final int PARTITIONS = 4;
+    private static final int MAX_FLUSH_ATTEMPTS = 2;
+
+    @Test
+    void consumedBatchesMatchSerialApplication() throws Exception {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long seed = 0x5EEDL * 31 + trial;
+            Random random = new Random(seed);
+            int users = 1 + random.nextInt(5);
+            int blogs = 1 + random.nextInt(5);
+
+            // 初始状态
+            Set<Key> initialThumbs = new HashSet<>();
+            for (long userId = 1; userId <= users; userId++) {
+                for (long blogId = 1; blogId <= blogs; blogId++) {
+                    if (random.nextBoolean()) {
+                        initialThumbs.add(new Key(userId, blogId));
+                    }
+                }
+            }
+            Db serial = new Db(initialThumbs);
+
+            // 每个key的事件交替出现（redis中的点赞状态保证）
+            List<ThumbEvent> events = new ArrayList<>();
+            Set<Key> thumbed = new HashSet<>(initialThumbs);
+            int count = random.nextInt(200);
+            for (int i = 0; i < count; i++) {
+                Key key = new Key(1 + random.nextInt(users), 1 + random.nextInt(blogs));
+                ThumbEvent.EventType type = thumbed.contains(key) ? ThumbEvent.EventType.DECR : ThumbEvent.EventType.INCR;
+                if (type == ThumbEvent.EventType.INCR) {
+                    thumbed.add(key);
+                } else {
+                    thumbed.remove(key);
+                }
+                // 客户端时间乱序，不能作为依据
+                LocalDateTime eventTime = LocalDateTime.of(2025, 1, 1, 0, 0).plusSeconds(random.nextInt(1000));
+                events.add(new ThumbEvent(key.userId(), key.blogId(), type, eventTime));
+                serial.apply(key, type == ThumbEvent.EventType.INCR);
+            }
+
+            Harness harness = new Harness(new Db(initialThumbs), random, 0.2);
+            Broker broker = new Broker(events, random, 0.05);
+            harness.db.duringTransaction = () -> {
+                // 缓冲区阻塞时消费者线程不返回，不再接收消息
+                if (random.nextInt(3) == 0 && !harness.isBlocked()) {
+                    harness.receiveWithoutFlush(broker, 1 + random.nextInt(10));
+                }
+            };
+            try {
+                int rounds = 0;
+                while (!broker.isDone()) {
+                    assertTrue(++rounds < 100_000, "not converged, seed " + seed);
+                    List<Message<ThumbEvent>> batch = broker.deliver(1 + random.nextInt(30));
+                    // 为0时每批都写入，较大时多批一起归约
+                    harness.flushController.batchMessages = batch.isEmpty() ? 0 : random.nextInt(60);
+                    harness.consumer.consumeMessageBatch(batch, broker.acknowledgement);
+                }
+            } finally {
+                harness.consumer.destroy();
+            }
+
+            assertEquals(serial.thumbs, harness.db.thumbs, "thumbs, seed " + seed);
+            assertEquals(serial.counts(), harness.db.counts(), "thumb counts, seed " + seed);
+        }
+    }
+
+    @Test
+    void orderedByReceiveOrderNotPublishTime() throws Exception {
+        Harness harness = new Harness(new Db(Set.of()), new Random(1), 0);
+        LocalDateTime now = LocalDateTime.now();
+        List<Message<ThumbEvent>> messages = new ArrayList<>();
+        try {
+            // 按接收的顺序是 DECR 在后，按publishTime、sequenceId是 INCR 在后（生产者的时钟更快）
+            messages.add(message(new ThumbEvent(1L, 1L, ThumbEvent.EventType.INCR, now.minusDays(1)), 200, 0));
+            messages.add(message(new ThumbEvent(1L, 1L, ThumbEvent.EventType.DECR, now), 100, 1));
+            messages.add(message(new ThumbEvent(2L, 1L, ThumbEvent.EventType.INCR, now), 100, 5));
+            harness.flushController.batchMessages = 0;
+            harness.consumer.consumeMessageBatch(messages, new Broker(List.of(), new Random(1), 0).acknowledgement);
+        } finally {
+            harness.consumer.destroy();
+        }
+        assertEquals(Set.of(new Key(2, 1)), harness.db.thumbs);
+        assertEquals(Map.of(1L, 1L), harness.db.counts());
+    }
+
+    @Test
+    void failedFlushBlocksConsumerUntilWritten() throws Exception {
+        // 所有分区事务都失败，直到第4次写入
+        Harness harness = new Harness(new Db(Set.of()), new Random(1), 1);
+        Broker broker = new Broker(List.of(
+                new ThumbEvent(1L, 1L, ThumbEvent.EventType.INCR, LocalDateTime.now()),
+                new ThumbEvent(1L, 1L, ThumbEvent.EventType.DECR, LocalDateTime.now()),
+                new ThumbEvent(2L, 1L, ThumbEvent.EventType.INCR, LocalDateTime.now())), new Random(1), 0);
+        int[] transactions = new int[1];
+        try {
+            harness.flushController.batchMessages = 0;
+            harness.consumer.consumeMessageBatch(broker.deliver(1), broker.acknowledgement);
+            // 第二次写入 INCR 期间接收 DECR，写入失败后达到上限，消费者阻塞重试直到写入成功，不NACK
+            harness.db.duringTransaction = () -> {
+                if (++transactions[0] == 1) {
+                    harness.receiveWithoutFlush(broker, 1);
+                }
+                if (transactions[0] >= 4) {
+                    harness.db.failureRate = 0;
+                }
+            };
+            harness.consumer.consumeMessageBatch(List.of(), broker.acknowledgement);
+            assertTrue(transactions[0] >= 4);
+            assertEquals(0, broker.nacked);
+            assertTrue(broker.inFlight.isEmpty());
+            assertTrue(harness.db.thumbs.isEmpty());
+
+            harness.consumer.consumeMessageBatch(broker.deliver(1), broker.acknowledgement);
+        } finally {
+            harness.consumer.destroy();
+        }
+        assertTrue(broker.isDone());
+        assertEquals(Set.of(new Key(2, 1)), harness.db.thumbs);
+    }
+
+    private static Message<ThumbEvent> message(ThumbEvent event, long publishTime, long sequenceId) {
+        MessageId messageId = (MessageId) Proxy.newProxyInstance(MessageId.class.getClassLoader(), new Class<?>[]{MessageId.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "MessageId@" + System.identityHashCode(proxy);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        @SuppressWarnings("unchecked")
+        Message<ThumbEvent> message = (Message<ThumbEvent>) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getValue" -> event;
+                    case "getMessageId" -> messageId;
+                    case "getPublishTime" -> publishTime;
+                    case "getSequenceId" -> sequenceId;
+                    case "getTopicName" -> "persistent://public/default/thumb-topic-partition-0";
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "Message(" + event + ")";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return message;
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static Object getField(Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private record Key(long userId, long blogId) {
+    }
+
+    /**
+     * Key_Shared订阅中的一个消费者：按顺序投递。NACK的消息在退避后重新投递，排在已进入接收队列的消息之后；
+     * 重连时清空接收队列，所有未确认的消息按原来的顺序重新投递
+     */
+    private static class Broker {
+        private final List<ThumbEvent> events;
+        private final Random random;
+        private final double ackLossRate;
+        // 等待投递的消息位置（接收队列），按投递顺序
+        private final Deque<Integer> queue = new ArrayDeque<>();
+        // 已投递、未确认的消息，重连后失效
+        private final Map<MessageId, Integer> inFlight = new HashMap<>();
+        // 生产者所在节点的时钟偏差
+        private final long[] clockSkews;
+        private int nacked;
+        private final Acknowledgement acknowledgement = new Acknowledgement() {
+            @Override
+            public void acknowledge() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void acknowledge(MessageId messageId) {
+                acknowledge(List.of(messageId));
+            }
+
+            @Override
+            public void acknowledge(List<MessageId> messageIds) {
+                if (random.nextDouble() < ackLossRate) {
+                    // 确认丢失，重连后所有未确认的消息重新投递，包括这一批已写入数据库的消息
+                    List<Integer> unacked = new ArrayList<>(queue);
+                    unacked.addAll(inFlight.values());
+                    Collections.sort(unacked);
+                    queue.clear();
+                    queue.addAll(unacked);
+                    inFlight.clear();
+                    return;
+                }
+                messageIds.forEach(inFlight::remove);
+            }
+
+            @Override
+            public void nack() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void nack(MessageId messageId) {
+                Integer position = inFlight.remove(messageId);
+                if (position != null) {
+                    nacked++;
+                    queue.addLast(position);
+                }
+            }
+        };
+
+        private Broker(List<ThumbEvent> events, Random random, double ackLossRate) {
+            this.events = events;
+            this.random = random;
+            this.ackLossRate = ackLossRate;
+            for (int i = 0; i < events.size(); i++) {
+                queue.add(i);
+            }
+            clockSkews = new long[]{0, -5_000, 3_000};
+        }
+
+        private List<Message<ThumbEvent>> deliver(int max) {
+            List<Message<ThumbEvent>> batch = new ArrayList<>();
+            while (batch.size() < max && !queue.isEmpty()) {
+                int position = queue.pollFirst();
+                long publishTime = 1_000_000 + position + clockSkews[random.nextInt(clockSkews.length)];
+                Message<ThumbEvent> message = message(events.get(position), publishTime, random.nextInt(100));
+                inFlight.put(message.getMessageId(), position);
+                batch.add(message);
+            }
+            return batch;
+        }
+
+        private boolean isDone() {
+            return queue.isEmpty() && inFlight.isEmpty();
+        }
+    }
+
+    /**
+     * 使用内存中"数据库"的ThumbConsumer，分区写入线程为1，各分区按顺序写入
+     */
+    private static class Harness {
+        private final Db db;
+        private final TestFlushController flushController = new TestFlushController();
+        private final ThumbConsumer consumer;
+
+        private Harness(Db db, Random random, double failureRate) throws Exception {
+            this.db = db;
+            db.random = random;
+            db.failureRate = failureRate;
+            // 不检查指标，没有子registry时所有指标为空操作
+            CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+            ThumbPipelineMetrics pipelineMetrics = new ThumbPipelineMetrics();
+            setField(pipelineMetrics, "meterRegistry", meterRegistry);
+            pipelineMetrics.init();
+            consumer = new ThumbConsumer(new DbFlushEngine(db), new DirectTransactionTemplate(), meterRegistry, flushController, pipelineMetrics);
+            setField(consumer, "partitionCount", PARTITIONS);
+            setField(consumer, "flushThreads", 1);
+            setField(consumer, "partitionRetries", 0);
+            setField(consumer, "bufferMaxFlushAttempts", MAX_FLUSH_ATTEMPTS);
+            setField(consumer, "bufferRetryBackoffMs", 1L);
+            setField(consumer, "dlqSinkDir", Files.createTempDirectory("thumb-dlq").toString());
+            setField(consumer, "dlqSinkMaxBatch", 100);
+            setField(consumer, "dlqSinkFlushIntervalMs", 10L);
+            setField(consumer, "dlqSinkCapacity", 100);
+            consumer.init();
+        }
+
+        /**
+         * 连续写入失败达到上限，消费者线程阻塞在add中重试
+         */
+        private boolean isBlocked() {
+            try {
+                Object writeBuffer = getField(consumer, "writeBuffer");
+                return (int) getField(writeBuffer, "failedFlushes") >= MAX_FLUSH_ATTEMPTS;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 接收一批消息，不触发写入
+         */
+        private void receiveWithoutFlush(Broker broker, int max) {
+            int batchMessages = flushController.batchMessages;
+            flushController.batchMessages = Integer.MAX_VALUE;
+            consumer.consumeMessageBatch(broker.deliver(max), broker.acknowledgement);
+            flushController.batchMessages = batchMessages;
+        }
+    }
+
+    /**
+     * 批次大小由测试控制，不定时写入
+     */
+    private static class TestFlushController extends AdaptiveFlushController {
+        private volatile int batchMessages;
+
+        @Override
+        public int getBatchMessages() {
+            return batchMessages;
+        }
+
+        @Override
+        public long getFlushIntervalMs() {
+            return 3_600_000;
+        }
+
+        @Override
+        public void onFlushSucceeded(int messages, long latencyNanos) {
+        }
+
+        @Override
+        public void onFlushFailed() {
+        }
+    }
+
+    private static class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) {
+            return action.doInTransaction(null);
+        }
+    }
+
+    /**
+     * 与ThumbFlushEngine的写入方式一致：只插入不存在的记录，只删除存在的记录。事务按failureRate随机失败，失败时不修改
+     */
+    private static class DbFlushEngine extends ThumbFlushEngine {
+        private final Db db;
+
+        private DbFlushEngine(Db db) {
+            this.db = db;
+        }
+
+        @Override
+        public void flush(Map<Long, List<Thumb>> thumbedMap, Map<Long, List<Thumb>> unthumbedMap) {
+            db.duringTransaction.run();
+            synchronized (db) {
+                if (db.random.nextDouble() < db.failureRate) {
+                    throw new IllegalStateException("injected transaction failure");
+                }
+                thumbedMap.values().forEach(thumbs -> thumbs.forEach(thumb -> db.apply(new Key(thumb.getUserId(), thumb.getBlogId()), true)));
+                unthumbedMap.values().forEach(thumbs -> thumbs.forEach(thumb -> db.apply(new Key(thumb.getUserId(), thumb.getBlogId()), false)));
+            }
+        }
+    }
+
+    /**
+     * 内存中的thumb表和blog.thumbCount
+     */
+    private static class Db {
+        private final Set<Key> thumbs;
+        private final Map<Long, Long> thumbCounts = new HashMap<>();
+        private Random random;
+        private volatile double failureRate;
+        // 在写入的事务中执行，模拟写入期间消费者接收消息
+        private volatile Runnable duringTransaction = () -> {
+        };
+
+        private Db(Set<Key> initialThumbs) {
+            thumbs = new HashSet<>(initialThumbs);
+            for (Key key : initialThumbs) {
+                thumbCounts.merge(key.blogId(), 1L, Long::sum);
+            }
+        }
+
+        private void apply(Key key, boolean thumbed) {
+            if (thumbed ? thumbs.add(key) : thumbs.remove(key)) {
+                thumbCounts.merge(key.blogId(), thumbed ? 1L : -1L, Long::sum);
+            }
+        }
+
+        private Map<Long, Long> counts() {
+            Map<Long, Long> counts = new HashMap<>(thumbCounts);
+            counts.values().removeIf(count -> count == 0);
+            return counts;
+        }
+    }
+
+}
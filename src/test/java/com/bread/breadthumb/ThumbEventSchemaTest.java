@@ -0,0 +1,67 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.mq.ThumbEvent;
+import com.bread.breadthumb.mq.ThumbEventSchema;
+import org.apache.pulsar.client.api.SchemaSerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ThumbEventSchema：二进制编码的往返、版本兼容，以及首字节为'{'时按JSON解码（灰度期间的旧格式消息）
+ */
+public class ThumbEventSchemaTest {
+
+    private static final ThumbEventSchema SCHEMA = ThumbEventSchema.INSTANCE;
+
+    @Test
+    void binaryRoundTrip() {
+        // 编码精度为毫秒
+        LocalDateTime eventTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        for (ThumbEvent.EventType type : ThumbEvent.EventType.values()) {
+            ThumbEvent event = new ThumbEvent(Long.MAX_VALUE, 1_234_567L, type, eventTime);
+            byte[] bytes = SCHEMA.encode(event);
+            assertEquals(26, bytes.length);
+            // 首字节为版本号，不会被当作JSON
+            assertEquals(1, bytes[0]);
+            assertEquals(event, SCHEMA.decode(bytes));
+        }
+    }
+
+    @Test
+    void newerVersionWithAppendedFieldsDecodes() {
+        ThumbEvent event = new ThumbEvent(1L, 2L, ThumbEvent.EventType.INCR,
+                LocalDateTime.of(2025, 1, 1, 12, 0, 0, 123_000_000));
+        byte[] bytes = Arrays.copyOf(SCHEMA.encode(event), 26 + 8);
+        bytes[0] = 2;
+        assertEquals(event, SCHEMA.decode(bytes));
+    }
+
+    @Test
+    void invalidBinaryRejected() {
+        byte[] bytes = SCHEMA.encode(new ThumbEvent(1L, 2L, ThumbEvent.EventType.DECR, LocalDateTime.now()));
+        assertThrows(SchemaSerializationException.class, () -> SCHEMA.decode(Arrays.copyOf(bytes, 10)));
+        byte[] unknownType = bytes.clone();
+        unknownType[17] = 9;
+        assertThrows(SchemaSerializationException.class, () -> SCHEMA.decode(unknownType));
+        assertNull(SCHEMA.decode(new byte[0]));
+    }
+
+    @Test
+    void jsonPayloadFallsBackToJson() {
+        LocalDateTime eventTime = LocalDateTime.of(2025, 1, 1, 12, 30, 15);
+        ThumbEvent expected = new ThumbEvent(10L, 20L, ThumbEvent.EventType.DECR, eventTime);
+        // 时间为ISO字符串或数组，未知字段忽略
+        String isoJson = "{\"userId\":10,\"blogId\":20,\"type\":\"DECR\",\"eventTime\":\"2025-01-01T12:30:15\",\"extra\":1}";
+        String arrayJson = "{\"userId\":10,\"blogId\":20,\"type\":\"DECR\",\"eventTime\":[2025,1,1,12,30,15]}";
+        assertEquals(expected, SCHEMA.decode(isoJson.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected, SCHEMA.decode(arrayJson.getBytes(StandardCharsets.UTF_8)));
+        assertThrows(SchemaSerializationException.class, () -> SCHEMA.decode("{\"userId\":".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.bread.breadthumb;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 点赞记录写入数据库的吞吐量对比，SQL与ThumbFlushEngine、thumbMapper.xml中的一致：
+ * 1. STATEMENT：每个blog一条 INSERT IGNORE / DELETE，按影响行数用一条 CASE 语句更新点赞数
+ * 2. MULTI_STATEMENT：插入/删除和 ROW_COUNT() 更新点赞数拼接为多语句请求，每个请求最多5000条记录
+ * 3. JDBC_BATCH：单行 INSERT IGNORE / DELETE 的JDBC批处理，配合 rewriteBatchedStatements 改写。
+ *    影响行数返回 SUCCESS_NO_INFO，不能计算点赞数，只作为吞吐量的参考
+ * 每轮先插入N条点赞记录，再删除其中一半，记录数/耗时为吞吐量。需要一个用于测试的MySQL库，先执行table-ddl.sql建表（会清空thumb、blog表）。运行：
+ * ThumbFlushBenchmark jdbc:mysql://localhost:3306/thumb_bench?allowMultiQueries=true&rewriteBatchedStatements=true [username] [password]
+ */
+public class ThumbFlushBenchmark {
+
+    private static final int BLOGS = 1000;
+    private static final int CHUNK_SIZE = 500;
+    private static final int MAX_ROWS_PER_REQUEST = 5000;
+    private static final int[] EVENTS = {1_000, 10_000, 100_000};
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0]
+                : "jdbc:mysql://localhost:3306/thumb_bench?allowMultiQueries=true&rewriteBatchedStatements=true";
+        String username = args.length > 1 ? args[1] : "root";
+        String password = args.length > 2 ? args[2] : "";
+        try (Connection connection = DriverManager.getConnection(url, username, password)) {
+            for (int events : EVENTS) {
+                for (Mode mode : Mode.values()) {
+                    reset(connection);
+                    Map<Long, List<long[]>> thumbs = generate(events, new Random(events));
+                    Map<Long, List<long[]>> unthumbs = new HashMap<>();
+                    thumbs.forEach((blogId, rows) -> unthumbs.put(blogId, rows.subList(0, rows.size() / 2)));
+                    int rows = events + unthumbs.values().stream().mapToInt(List::size).sum();
+
+                    long start = System.nanoTime();
+                    flush(connection, mode, thumbs, Map.of());
+                    flush(connection, mode, Map.of(), unthumbs);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-15s %7d events: %8.0f rows/s, thumb rows %d, thumb count %d%n",
+                            mode, events, rows / seconds, count(connection, "SELECT COUNT(*) FROM thumb"),
+                            count(connection, "SELECT COALESCE(SUM(thumbCount), 0) FROM blog"));
+                }
+            }
+            reset(connection);
+        }
+    }
+
+    private enum Mode {
+        STATEMENT,
+        MULTI_STATEMENT,
+        JDBC_BATCH
+    }
+
+    /**
+     * 一个事务中写入，与消费者的一个分区相同
+     */
+    private static void flush(Connection connection, Mode mode, Map<Long, List<long[]>> thumbs, Map<Long, List<long[]>> unthumbs)
+            throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            switch (mode) {
+                case STATEMENT -> flushStatement(connection, thumbs, unthumbs);
+                case MULTI_STATEMENT -> flushMultiStatement(connection, thumbs, unthumbs);
+                case JDBC_BATCH -> flushJdbcBatch(connection, thumbs, unthumbs);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void flushStatement(Connection connection, Map<Long, List<long[]>> thumbs, Map<Long, List<long[]>> unthumbs)
+            throws SQLException {
+        Map<Long, Long> countMap = new HashMap<>();
+        for (Map.Entry<Long, List<long[]>> entry : thumbs.entrySet()) {
+            for (List<long[]> chunk : partition(entry.getValue(), CHUNK_SIZE)) {
+                try (PreparedStatement statement = connection.prepareStatement(insertSql(chunk.size()))) {
+                    bindInsert(statement, 1, chunk);
+                    countMap.merge(entry.getKey(), (long) statement.executeUpdate(), Long::sum);
+                }
+            }
+        }
+        for (Map.Entry<Long, List<long[]>> entry : unthumbs.entrySet()) {
+            for (List<long[]> chunk : partition(entry.getValue(), CHUNK_SIZE)) {
+                try (PreparedStatement statement = connection.prepareStatement(deleteSql(chunk.size()))) {
+                    bindDelete(statement, 1, chunk);
+                    countMap.merge(entry.getKey(), (long) -statement.executeUpdate(), Long::sum);
+                }
+            }
+        }
+        countMap.values().removeIf(delta -> delta == 0);
+        if (countMap.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("UPDATE blog SET thumbCount = thumbCount + CASE id");
+        countMap.forEach((blogId, delta) -> sql.append(" WHEN ? THEN ?"));
+        sql.append(" END WHERE id IN (").append(placeholders(countMap.size(), "?")).append(")");
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Map.Entry<Long, Long> entry : countMap.entrySet()) {
+                statement.setLong(index++, entry.getKey());
+                statement.setLong(index++, entry.getValue());
+            }
+            for (Long blogId : countMap.keySet()) {
+                statement.setLong(index++, blogId);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private static void flushMultiStatement(Connection connection, Map<Long, List<long[]>> thumbs, Map<Long, List<long[]>> unthumbs)
+            throws SQLException {
+        // blogId, 是否插入, 记录
+        List<Object[]> changes = new ArrayList<>();
+        thumbs.forEach((blogId, rows) -> partition(rows, CHUNK_SIZE).forEach(chunk -> changes.add(new Object[]{blogId, true, chunk})));
+        unthumbs.forEach((blogId, rows) -> partition(rows, CHUNK_SIZE).forEach(chunk -> changes.add(new Object[]{blogId, false, chunk})));
+        List<Object[]> request = new ArrayList<>();
+        int rows = 0;
+        for (Object[] change : changes) {
+            int size = ((List<?>) change[2]).size();
+            if (!request.isEmpty() && rows + size > MAX_ROWS_PER_REQUEST) {
+                executeMultiStatement(connection, request);
+                request.clear();
+                rows = 0;
+            }
+            request.add(change);
+            rows += size;
+        }
+        if (!request.isEmpty()) {
+            executeMultiStatement(connection, request);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void executeMultiStatement(Connection connection, List<Object[]> request) throws SQLException {
+        StringJoiner sql = new StringJoiner(";");
+        for (Object[] change : request) {
+            int size = ((List<long[]>) change[2]).size();
+            boolean thumbed = (boolean) change[1];
+            sql.add(thumbed ? insertSql(size) : deleteSql(size));
+            sql.add("SET @affected = ROW_COUNT()");
+            sql.add("UPDATE blog SET thumbCount = thumbCount " + (thumbed ? "+" : "-") + " @affected WHERE id = ? AND @affected > 0");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Object[] change : request) {
+                List<long[]> chunk = (List<long[]>) change[2];
+                index = (boolean) change[1] ? bindInsert(statement, index, chunk) : bindDelete(statement, index, chunk);
+                statement.setLong(index++, (Long) change[0]);
+            }
+            statement.execute();
+            // 读取所有结果，否则连接上还有未读取的结果
+            while (statement.getMoreResults() || statement.getUpdateCount() != -1) {
+            }
+        }
+    }
+
+    private static void flushJdbcBatch(Connection connection, Map<Long, List<long[]>> thumbs, Map<Long, List<long[]>> unthumbs)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(insertSql(1))) {
+            for (List<long[]> rows : thumbs.values()) {
+                for (long[] row : rows) {
+                    bindInsert(statement, 1, List.of(row));
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(deleteSql(1))) {
+            for (List<long[]> rows : unthumbs.values()) {
+                for (long[] row : rows) {
+                    bindDelete(statement, 1, List.of(row));
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static String insertSql(int rows) {
+        return "INSERT IGNORE INTO thumb (userId, blogId, createTime) VALUES "
+                + placeholders(rows, "(?, ?, COALESCE(?, CURRENT_TIMESTAMP))");
+    }
+
+    private static String deleteSql(int rows) {
+        return "DELETE FROM thumb WHERE (userId, blogId) IN (" + placeholders(rows, "(?, ?)") + ")";
+    }
+
+    private static int bindInsert(PreparedStatement statement, int index, List<long[]> rows) throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (long[] row : rows) {
+            statement.setLong(index++, row[0]);
+            statement.setLong(index++, row[1]);
+            statement.setTimestamp(index++, now);
+        }
+        return index;
+    }
+
+    private static int bindDelete(PreparedStatement statement, int index, List<long[]> rows) throws SQLException {
+        for (long[] row : rows) {
+            statement.setLong(index++, row[0]);
+            statement.setLong(index++, row[1]);
+        }
+        return index;
+    }
+
+    private static String placeholders(int count, String placeholder) {
+        return String.join(", ", Collections.nCopies(count, placeholder));
+    }
+
+    private static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += size) {
+            chunks.add(list.subList(i, Math.min(list.size(), i + size)));
+        }
+        return chunks;
+    }
+
+    /**
+     * 生成不重复的 (userId, blogId)，blogId 服从近似的长尾分布，按blogId分组
+     */
+    private static Map<Long, List<long[]>> generate(int events, Random random) {
+        Map<Long, List<long[]>> thumbs = new HashMap<>();
+        for (long userId = 1; userId <= events; userId++) {
+            long blogId = 1 + (long) (BLOGS * Math.pow(random.nextDouble(), 3));
+            thumbs.computeIfAbsent(blogId, id -> new ArrayList<>()).add(new long[]{userId, blogId});
+        }
+        return thumbs;
+    }
+
+    private static void reset(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE TABLE thumb");
+            statement.execute("TRUNCATE TABLE blog");
+            StringJoiner values = new StringJoiner(", ");
+            for (int i = 1; i <= BLOGS; i++) {
+                values.add("(" + i + ", 1, '')");
+            }
+            statement.execute("INSERT INTO blog (id, userId, content) VALUES " + values);
+        }
+    }
+
+    private static long count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.bread.breadthumb;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 点赞接口压测，用于对比Tomcat平台线程池和虚拟线程（spring.threads.virtual.enabled）下的延迟。
+ * 先分别以两种模式启动服务，再运行：
+ * ThumbLoadBenchmark [baseUrl] [并发连接数] [每个连接的请求数] [blog数量]
+ * 每个并发连接对应一个登录用户，交替点赞/取消点赞随机blog，最后输出吞吐量和p50/p90/p99延迟。
+ */
+public class ThumbLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8090/api";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int requestsPerConnection = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int blogCount = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        long[][] latencies = new long[connections][];
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                int userIndex = i;
+                executor.submit(() -> {
+                    latencies[userIndex] = runUser(httpClient, baseUrl, userIndex + 1, requestsPerConnection, blogCount, errors);
+                    return null;
+                });
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        long[] all = Arrays.stream(latencies).filter(l -> l != null).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("connections %d, requests %d, errors %d, elapsed %.1fs, throughput %.0f req/s%n",
+                connections, all.length, errors.get(), elapsedNanos / 1e9, all.length / (elapsedNanos / 1e9));
+        System.out.printf("p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms%n",
+                percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+    }
+
+    private static long[] runUser(HttpClient httpClient, String baseUrl, long userId, int requests, int blogCount,
+                                  AtomicInteger errors) throws Exception {
+        // 登录，获取session cookie
+        HttpResponse<String> loginResponse = httpClient.send(
+                HttpRequest.newBuilder(URI.create(baseUrl + "/user/login?userId=" + userId)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        String cookie = loginResponse.headers().firstValue("Set-Cookie").map(c -> c.split(";")[0]).orElse("");
+        List<Long> latencyList = new ArrayList<>(requests);
+        long blogId = ThreadLocalRandom.current().nextLong(1, blogCount + 1);
+        for (int i = 0; i < requests; i++) {
+            String path = i % 2 == 0 ? "/thumb/do" : "/thumb/undo";
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .header("Cookie", cookie)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"blogId\":" + blogId + "}"))
+                    .build();
+            long begin = System.nanoTime();
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200 || !response.body().contains("\"code\":200")) {
+                    errors.incrementAndGet();
+                }
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            }
+            latencyList.add(System.nanoTime() - begin);
+        }
+        return latencyList.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+}
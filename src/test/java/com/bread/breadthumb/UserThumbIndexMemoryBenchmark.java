@@ -0,0 +1,292 @@
+package com.bread.breadthumb;
+
+import com.bread.breadthumb.util.RedisKeyUtil;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 用户点赞索引的内存对比：HASH（thumb:{userId}，blogId -> 点赞时间） vs BITMAP（thumb:bm:{userId}，RoaringBitmap容器）。
+ * 合成数据：100万用户共1000万条点赞，每个用户的点赞数服从长尾分布，blogId在1~200万中偏向较新的blog。
+ * 1. 连接redis时（默认）：在db 15中写入HASH索引，记录used_memory；再用MigrateUserThumbIndex.lua合并为位图索引，记录used_memory，
+ *    并用UserThumbBitmapContains.lua抽样校验查询结果。会清空db 15
+ * 2. --offline：不连接redis，按redis 7的编码规则（listpack/hashtable、sds、jemalloc分配粒度）估算两种存储的内存
+ * 运行：UserThumbIndexMemoryBenchmark [host] [port] | --offline
+ */
+public class UserThumbIndexMemoryBenchmark {
+
+    private static final int USERS = 1_000_000;
+    private static final long THUMBS = 10_000_000L;
+    private static final int BLOGS = 2_000_000;
+    private static final long SEED = 20251020L;
+    // 与ThumbMQ.lua写入的点赞时间相同，JSON序列化的LocalDateTime
+    private static final String THUMB_TIME_VALUE = "\"2025-10-20T10:11:12.123456\"";
+    private static final int DB = 15;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--offline")) {
+            estimate();
+            return;
+        }
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        try (Jedis jedis = new Jedis(host, port)) {
+            jedis.select(DB);
+            jedis.flushDB();
+            long baseline = usedMemory(jedis);
+
+            Pipeline pipeline = jedis.pipelined();
+            long thumbs = 0;
+            for (long userId = 1; userId <= USERS; userId++) {
+                byte[] key = RedisKeyUtil.getUserThumbKey(userId).getBytes(StandardCharsets.UTF_8);
+                long[] blogIds = userThumbs(userId);
+                thumbs += blogIds.length;
+                for (long blogId : blogIds) {
+                    pipeline.hset(key, String.valueOf(blogId).getBytes(StandardCharsets.UTF_8), THUMB_TIME_VALUE.getBytes(StandardCharsets.UTF_8));
+                }
+                if (userId % 1000 == 0) {
+                    pipeline.sync();
+                }
+            }
+            pipeline.sync();
+            long hashMemory = usedMemory(jedis) - baseline;
+            System.out.printf("%d users, %d thumbs%n", USERS, thumbs);
+            report("HASH", hashMemory, thumbs);
+
+            String migrateSha = jedis.scriptLoad(loadScript("MigrateUserThumbIndex.lua"));
+            long start = System.nanoTime();
+            for (long userId = 1; userId <= USERS; userId++) {
+                pipeline.evalsha(migrateSha, List.of(RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbBitmapKey(userId)), List.of());
+                if (userId % 1000 == 0) {
+                    pipeline.sync();
+                }
+            }
+            pipeline.sync();
+            System.out.printf("migrate: %d users in %.1f s%n", USERS, (System.nanoTime() - start) / 1e9);
+            long bitmapMemory = usedMemory(jedis) - baseline;
+            report("BITMAP", bitmapMemory, thumbs);
+            System.out.printf("BITMAP / HASH: %.3f%n", (double) bitmapMemory / hashMemory);
+
+            verify(jedis, jedis.scriptLoad(loadScript("UserThumbBitmapContains.lua")));
+            jedis.flushDB();
+        }
+    }
+
+    /**
+     * 抽样用户，查询其点赞过的blog和随机blog，与生成的数据比较
+     */
+    @SuppressWarnings("unchecked")
+    private static void verify(Jedis jedis, String containsSha) {
+        Random random = new Random(SEED);
+        int checked = 0;
+        for (int i = 0; i < 1000; i++) {
+            long userId = 1 + random.nextInt(USERS);
+            Set<Long> thumbs = new HashSet<>();
+            for (long blogId : userThumbs(userId)) {
+                thumbs.add(blogId);
+            }
+            List<String> blogIds = new ArrayList<>();
+            thumbs.forEach(blogId -> blogIds.add(String.valueOf(blogId)));
+            for (int j = 0; j < 20; j++) {
+                blogIds.add(String.valueOf(1 + random.nextInt(BLOGS)));
+            }
+            // ARGV[1]为userId，未开启冷热分层时不使用
+            List<String> args = new ArrayList<>(blogIds.size() + 1);
+            args.add(String.valueOf(userId));
+            args.addAll(blogIds);
+            List<Long> result = (List<Long>) jedis.evalsha(containsSha,
+                    List.of(RedisKeyUtil.getUserThumbBitmapKey(userId), RedisKeyUtil.getUserThumbKey(userId)), args);
+            for (int j = 0; j < blogIds.size(); j++) {
+                boolean expected = thumbs.contains(Long.parseLong(blogIds.get(j)));
+                if ((result.get(j) == 1) != expected) {
+                    throw new IllegalStateException("User " + userId + " blog " + blogIds.get(j) + ": expected " + expected);
+                }
+                checked++;
+            }
+        }
+        System.out.printf("verify: %d lookups ok%n", checked);
+    }
+
+    private static void estimate() {
+        long hashBytes = 0;
+        long bitmapBytes = 0;
+        long totalThumbs = 0;
+        for (long userId = 1; userId <= USERS; userId++) {
+            long[] thumbs = userThumbs(userId);
+            totalThumbs += thumbs.length;
+            hashBytes += RedisMemory.key(RedisKeyUtil.getUserThumbKey(userId));
+            List<byte[]> fields = new ArrayList<>();
+            List<byte[]> values = new ArrayList<>();
+            for (long blogId : thumbs) {
+                fields.add(String.valueOf(blogId).getBytes(StandardCharsets.UTF_8));
+                values.add(THUMB_TIME_VALUE.getBytes(StandardCharsets.UTF_8));
+            }
+            hashBytes += RedisMemory.hash(fields, values);
+
+            bitmapBytes += RedisMemory.key(RedisKeyUtil.getUserThumbBitmapKey(userId));
+            fields.clear();
+            values.clear();
+            RoaringContainers.build(thumbs).forEach((chunk, container) -> {
+                fields.add(String.valueOf(chunk).getBytes(StandardCharsets.UTF_8));
+                values.add(container);
+            });
+            bitmapBytes += RedisMemory.hash(fields, values);
+        }
+        System.out.printf("%d users, %d thumbs%n", USERS, totalThumbs);
+        report("HASH (estimated)", hashBytes, totalThumbs);
+        report("BITMAP (estimated)", bitmapBytes, totalThumbs);
+        System.out.printf("BITMAP / HASH: %.3f%n", (double) bitmapBytes / hashBytes);
+    }
+
+    private static void report(String mode, long bytes, long thumbs) {
+        System.out.printf("%-20s %8.1f MB, %6.1f bytes/thumb%n", mode, bytes / 1024.0 / 1024.0, (double) bytes / thumbs);
+    }
+
+    /**
+     * 用户的点赞数服从帕累托分布（平均10条），blogId取 BLOGS * (1 - u^2)，偏向较新的blog。每个用户的数据由userId确定
+     */
+    private static long[] userThumbs(long userId) {
+        Random random = new Random(SEED ^ userId * 0x9E3779B97F4A7C15L);
+        double mean = (double) THUMBS / USERS;
+        // alpha = 1.5 时帕累托分布的均值为 3 * xm
+        int count = (int) Math.min(BLOGS, Math.max(1, Math.round(mean / 3 / Math.pow(1 - random.nextDouble(), 1 / 1.5))));
+        Set<Long> blogIds = new HashSet<>(count * 2);
+        while (blogIds.size() < count) {
+            double u = random.nextDouble();
+            blogIds.add(1 + (long) (BLOGS * (1 - u * u)) % BLOGS);
+        }
+        return blogIds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long usedMemory(Jedis jedis) {
+        for (String line : jedis.info("memory").split("\r\n")) {
+            if (line.startsWith("used_memory:")) {
+                return Long.parseLong(line.substring("used_memory:".length()));
+            }
+        }
+        throw new IllegalStateException("used_memory not found");
+    }
+
+    /**
+     * 读取脚本并展开 -- #include，与RedisScriptManager相同
+     */
+    private static String loadScript(String fileName) throws Exception {
+        String script = Files.readString(Path.of("src/main/resources/templates", fileName));
+        Matcher matcher = Pattern.compile("(?m)^-- #include (\\S+)$").matcher(script);
+        StringBuilder resolved = new StringBuilder();
+        while (matcher.find()) {
+            String library = Files.readString(Path.of("src/main/resources/templates/lib", matcher.group(1)));
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(library));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    /**
+     * 与templates/lib/UserThumbBitmap.lua相同的容器编码
+     */
+    private static class RoaringContainers {
+
+        private static final int BITMAP_CONTAINER_SIZE = 8192;
+        private static final int ARRAY_CONTAINER_MAX = 4095;
+
+        static Map<Long, byte[]> build(long[] blogIds) {
+            Map<Long, List<Integer>> chunks = new TreeMap<>();
+            for (long blogId : blogIds) {
+                chunks.computeIfAbsent(blogId >>> 16, chunk -> new ArrayList<>()).add((int) (blogId & 0xFFFF));
+            }
+            Map<Long, byte[]> containers = new TreeMap<>();
+            chunks.forEach((chunk, lows) -> {
+                Collections.sort(lows);
+                byte[] container;
+                if (lows.size() <= ARRAY_CONTAINER_MAX) {
+                    container = new byte[lows.size() * 2];
+                    for (int i = 0; i < lows.size(); i++) {
+                        container[i * 2] = (byte) (lows.get(i) >>> 8);
+                        container[i * 2 + 1] = (byte) (lows.get(i) & 0xFF);
+                    }
+                } else {
+                    container = new byte[BITMAP_CONTAINER_SIZE];
+                    for (int low : lows) {
+                        container[low >>> 3] |= (byte) (1 << (low & 7));
+                    }
+                }
+                containers.put(chunk, container);
+            });
+            return containers;
+        }
+    }
+
+    /**
+     * redis 7 的内存估算：hash在field数不超过128且value不超过64字节时使用listpack，否则使用hashtable；分配按jemalloc的粒度取整
+     */
+    private static class RedisMemory {
+
+        private static final int LISTPACK_MAX_ENTRIES = 128;
+        private static final int LISTPACK_MAX_VALUE = 64;
+
+        // 键空间中的dictEntry + redisObject + key的sds
+        static long key(String key) {
+            return jemalloc(24) + jemalloc(16) + sds(key.length());
+        }
+
+        static long hash(List<byte[]> fields, List<byte[]> values) {
+            boolean listpack = fields.size() <= LISTPACK_MAX_ENTRIES;
+            for (int i = 0; i < fields.size() && listpack; i++) {
+                listpack = fields.get(i).length <= LISTPACK_MAX_VALUE && values.get(i).length <= LISTPACK_MAX_VALUE;
+            }
+            if (listpack) {
+                long bytes = 6 + 1;
+                for (int i = 0; i < fields.size(); i++) {
+                    bytes += listpackEntry(fields.get(i)) + listpackEntry(values.get(i));
+                }
+                return jemalloc(bytes);
+            }
+            // dict结构 + 桶数组 + 每个field一个dictEntry和两个sds
+            long buckets = Long.highestOneBit(Math.max(fields.size() - 1, 1)) << 1;
+            long bytes = jemalloc(56) + jemalloc(buckets * 8);
+            for (int i = 0; i < fields.size(); i++) {
+                bytes += jemalloc(24) + sds(fields.get(i).length) + sds(values.get(i).length);
+            }
+            return bytes;
+        }
+
+        private static long listpackEntry(byte[] value) {
+            String text = new String(value, StandardCharsets.ISO_8859_1);
+            if (text.matches("-?[1-9]\\d{0,17}")) {
+                long number = Long.parseLong(text);
+                int encoded = number >= 0 && number < 128 ? 1 : Math.abs(number) < 4096 ? 2 : Math.abs(number) < 32768 ? 3
+                        : Math.abs(number) < 8388608 ? 4 : Math.abs(number) < 2147483648L ? 5 : 9;
+                return encoded + 1;
+            }
+            int header = value.length < 64 ? 1 : value.length < 4096 ? 2 : 5;
+            int entry = header + value.length;
+            return entry + (entry < 128 ? 1 : entry < 16384 ? 2 : 3);
+        }
+
+        private static long sds(long length) {
+            return jemalloc(length + (length < 256 ? 3 : length < 65536 ? 5 : 9) + 1);
+        }
+
+        /**
+         * jemalloc的分配粒度：16字节以内按8字节，之后每个2的幂区间分为4档
+         */
+        private static long jemalloc(long size) {
+            if (size <= 8) {
+                return 8;
+            }
+            if (size <= 16) {
+                return 16;
+            }
+            long step = Long.highestOneBit(size - 1) / 4;
+            return (size + step - 1) / step * step;
+        }
+    }
+
+}